@@ -131,6 +131,7 @@ CREATE TABLE `download_record`
     `status`             smallint(1)  NOT NULL,
     `create_time`        datetime     NOT NULL,
     `last_download_time` datetime     DEFAULT NULL,
+    `exported_rows`      bigint(20)   DEFAULT 0,
     PRIMARY KEY (`id`) USING BTREE,
     KEY `idx_user` (`user_id`) USING BTREE
 ) ENGINE = InnoDB
@@ -690,6 +691,7 @@ CREATE TABLE `share_download_record` (
   `status` smallint(1) NOT NULL,
   `create_time` datetime NOT NULL,
   `last_download_time` datetime DEFAULT NULL,
+  `exported_rows` bigint(20) DEFAULT 0,
   PRIMARY KEY (`id`) USING BTREE
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
 
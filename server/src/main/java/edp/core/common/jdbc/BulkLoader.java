@@ -0,0 +1,34 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.jdbc;
+
+import java.io.Closeable;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 数据库原生批量导入
+ * 同一个 loader 持有一个连接, 由单个线程连续导入多批数据
+ */
+public interface BulkLoader extends Closeable {
+
+    void load(List<Map<String, Object>> rows) throws SQLException;
+}
@@ -0,0 +1,273 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.jdbc;
+
+import com.mysql.cj.jdbc.JdbcStatement;
+import edp.core.exception.ServerException;
+import edp.core.model.JdbcSourceInfo;
+import edp.core.model.QueryColumn;
+import edp.core.utils.DateUtils;
+import edp.davinci.core.enums.SqlColumnEnum;
+import lombok.extern.slf4j.Slf4j;
+import org.joda.time.DateTime;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * MySQL LOAD DATA LOCAL INFILE 导入
+ * 每批数据按制表符格式写入内存后作为 local infile 流发送, 不读取本地文件
+ * 连接不开启 allowLoadLocalInfile, 只允许读取一个空的专用目录, 服务端请求其他文件时驱动拒绝
+ * 每批在事务中导入, 影响行数不一致或有警告时回滚并使导入失败
+ */
+@Slf4j
+public class MysqlBulkLoader implements BulkLoader {
+
+    private static final String NULL_VALUE = "\\N";
+
+    // 服务端关闭了 local_infile 的数据源, 之后直接使用批量插入
+    private static final Set<String> UNSUPPORTED = ConcurrentHashMap.newKeySet();
+
+    private static final Set<String> UNSUPPORTED_TYPES = new HashSet<>(Arrays.asList("Bytes", "Blob", "Clob"));
+
+    private static volatile String infilePath;
+
+    private final String jdbcUrl;
+
+    private final Connection connection;
+
+    private final String sql;
+
+    private final List<String> names = new ArrayList<>();
+
+    private final List<String> javaTypes = new ArrayList<>();
+
+    private MysqlBulkLoader(String jdbcUrl, Connection connection, String tableName, Set<QueryColumn> headers) {
+        this.jdbcUrl = jdbcUrl;
+        this.connection = connection;
+        StringJoiner columns = new StringJoiner(",", "(", ")");
+        for (QueryColumn column : headers) {
+            names.add(column.getName());
+            javaTypes.add(SqlColumnEnum.toJavaType(column.getType()));
+            columns.add("`" + column.getName() + "`");
+        }
+        this.sql = "LOAD DATA LOCAL INFILE 'davinci_upload' INTO TABLE `" + tableName + "` CHARACTER SET utf8mb4 " + columns;
+    }
+
+    /**
+     * 打开导入连接, 不支持时返回 null
+     *
+     * @param jdbcSourceInfo
+     * @param tableName
+     * @param headers
+     * @return
+     * @throws SQLException
+     */
+    public static MysqlBulkLoader open(JdbcSourceInfo jdbcSourceInfo, String tableName, Set<QueryColumn> headers) throws SQLException {
+        String jdbcUrl = jdbcSourceInfo.getJdbcUrl();
+        if (UNSUPPORTED.contains(jdbcUrl)) {
+            return null;
+        }
+        // 数据源自行配置了 local infile 相关参数时不使用, 避免放开本地文件读取
+        String lowerUrl = jdbcUrl.toLowerCase();
+        if (lowerUrl.contains("allowloadlocalinfile") || lowerUrl.contains("allowurlinlocalinfile")) {
+            return null;
+        }
+        for (QueryColumn column : headers) {
+            String javaType = SqlColumnEnum.toJavaType(column.getType());
+            if (javaType == null || UNSUPPORTED_TYPES.contains(javaType)) {
+                return null;
+            }
+        }
+
+        // local infile 需要在握手时声明, 使用独立连接而不修改连接池配置
+        Properties properties = new Properties();
+        properties.setProperty("user", jdbcSourceInfo.getUsername());
+        properties.setProperty("password", jdbcSourceInfo.getPassword() == null ? "" : jdbcSourceInfo.getPassword());
+        properties.setProperty("allowLoadLocalInfile", "false");
+        properties.setProperty("allowUrlInLocalInfile", "false");
+        properties.setProperty("allowLoadLocalInfileInPath", getInfilePath());
+        Connection connection = DriverManager.getConnection(jdbcUrl, properties);
+        return new MysqlBulkLoader(jdbcUrl, connection, tableName, headers);
+    }
+
+    /**
+     * 空的专用目录, 驱动只允许从这里读取文件, 实际数据通过流发送
+     *
+     * @return
+     * @throws SQLException
+     */
+    private static String getInfilePath() throws SQLException {
+        if (infilePath == null) {
+            synchronized (MysqlBulkLoader.class) {
+                if (infilePath == null) {
+                    try {
+                        infilePath = Files.createTempDirectory("davinci_infile").toRealPath().toString();
+                    } catch (IOException e) {
+                        throw new SQLException("Create local infile directory error", e);
+                    }
+                }
+            }
+        }
+        return infilePath;
+    }
+
+    @Override
+    public void load(List<Map<String, Object>> rows) throws SQLException {
+        byte[] data = format(rows);
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            statement.unwrap(JdbcStatement.class).setLocalInfileInputStream(new ByteArrayInputStream(data));
+            statement.execute(sql);
+
+            // LOCAL 模式下错误行只产生警告并被转换或跳过, 与批量插入的失败行为保持一致
+            int count = statement.getUpdateCount();
+            SQLWarning warning = statement.getWarnings();
+            if (count != rows.size() || warning != null) {
+                connection.rollback();
+                throw new ServerException("Bulk load into table mismatch, expected rows:" + rows.size() + ", loaded:" + count
+                        + (warning == null ? "" : ", warning:" + warning.getMessage()));
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            rollback();
+            String message = String.valueOf(e.getMessage()).toLowerCase();
+            if (message.contains("local data") || message.contains("local infile")) {
+                UNSUPPORTED.add(jdbcUrl);
+            }
+            throw e;
+        }
+    }
+
+    private void rollback() {
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            log.error("Rollback bulk load error", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            log.error("Close bulk load connection error", e);
+        }
+    }
+
+    private byte[] format(List<Map<String, Object>> rows) throws SQLException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(rows.size() * names.size() * 16);
+        StringBuilder line = new StringBuilder();
+        for (Map<String, Object> row : rows) {
+            line.setLength(0);
+            for (int i = 0; i < names.size(); i++) {
+                if (i > 0) {
+                    line.append('\t');
+                }
+                appendValue(line, javaTypes.get(i), row.get(names.get(i)));
+            }
+            line.append('\n');
+            byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+            out.write(bytes, 0, bytes.length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 与 SqlUtils.executeBatch 的取值规则保持一致, 数值和布尔列的空值写为 0
+     */
+    private static void appendValue(StringBuilder line, String javaType, Object obj) throws SQLException {
+        boolean empty = obj == null || String.valueOf(obj).isEmpty();
+        try {
+            switch (javaType) {
+                case "Short":
+                case "Integer":
+                case "Long":
+                case "Float":
+                case "Double":
+                    line.append(empty ? "0" : String.valueOf(obj).trim());
+                    return;
+                case "Boolean":
+                    line.append(!empty && Boolean.parseBoolean(String.valueOf(obj).trim()) ? "1" : "0");
+                    return;
+                case "BigDecimal":
+                    line.append(empty ? NULL_VALUE : ((BigDecimal) obj).toPlainString());
+                    return;
+                case "Date":
+                    line.append(obj == null ? NULL_VALUE : DateUtils.toSqlDate((java.util.Date) obj).toString());
+                    return;
+                case "DateTime":
+                case "Timestamp":
+                    if (obj == null) {
+                        line.append(NULL_VALUE);
+                    } else if (obj instanceof LocalDateTime) {
+                        line.append(Timestamp.valueOf((LocalDateTime) obj));
+                    } else if (obj instanceof DateTime) {
+                        line.append(DateUtils.toTimestamp((DateTime) obj));
+                    } else {
+                        line.append(obj);
+                    }
+                    return;
+                default:
+                    if (obj == null) {
+                        line.append(NULL_VALUE);
+                    } else {
+                        escape(line, String.valueOf(obj));
+                    }
+            }
+        } catch (Exception e) {
+            throw new SQLException("Format value error:" + obj, e);
+        }
+    }
+
+    private static void escape(StringBuilder line, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    line.append("\\\\");
+                    break;
+                case '\t':
+                    line.append("\\t");
+                    break;
+                case '\n':
+                    line.append("\\n");
+                    break;
+                case '\r':
+                    line.append("\\r");
+                    break;
+                case '\0':
+                    line.append("\\0");
+                    break;
+                default:
+                    line.append(c);
+            }
+        }
+    }
+}
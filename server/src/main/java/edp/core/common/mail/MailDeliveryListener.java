@@ -0,0 +1,40 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.mail;
+
+import java.util.Date;
+
+/**
+ * 发件箱投递结果回调
+ */
+public interface MailDeliveryListener {
+
+    void onDelivered(String reference, int attempts);
+
+    /**
+     * 投递失败
+     *
+     * @param reference
+     * @param attempts
+     * @param error
+     * @param nextAttemptTime 下次重试时间, 不再重试时为 null
+     */
+    void onFailed(String reference, int attempts, String error, Date nextAttemptTime);
+}
@@ -0,0 +1,47 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.mail;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 发件箱中一封待投递邮件的状态, 与邮件正文(.eml)同名保存
+ */
+@Data
+public class MailEnvelope {
+
+    private String id;
+
+    // 投递结果回调时用于识别来源, 如 cronjob:1
+    private String reference;
+
+    private int attempts;
+
+    private long createTime;
+
+    private long nextAttemptTime;
+
+    private String lastError;
+
+    // 部分地址发送失败后只向未送达的地址重试, 为空时发送给邮件的全部收件人
+    private List<String> recipients;
+}
@@ -0,0 +1,451 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.mail;
+
+import com.alibaba.fastjson.JSON;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import edp.core.exception.ServerException;
+import edp.core.utils.DateUtils;
+import edp.core.utils.FileUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationContext;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Transport;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ThreadFactory;
+import java.util.stream.Collectors;
+
+/**
+ * 邮件发件箱
+ * 邮件序列化到本地目录后即返回, 由发送线程批量投递, 每个发送线程保持一个 SMTP 连接, 空闲超时后关闭
+ * 投递失败按指数退避重试, 超过重试次数的邮件移入 failed 目录; 重启后未投递的邮件继续发送
+ */
+@Slf4j
+@Component
+public class MailOutbox {
+
+    private static final String EML_SUFFIX = ".eml";
+
+    private static final String ENVELOPE_SUFFIX = ".json";
+
+    private static final String DIR_FAILED = "failed";
+
+    // 退避时间最多翻倍的次数
+    private static final int MAX_BACKOFF_SHIFT = 6;
+
+    @Value("${mail.outbox.enable:true}")
+    private boolean enable;
+
+    @Value("${mail.outbox.path:}")
+    private String path;
+
+    @Value("${mail.outbox.senders:2}")
+    private int senders;
+
+    @Value("${mail.outbox.batch-size:20}")
+    private int batchSize;
+
+    @Value("${mail.outbox.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${mail.outbox.retry-seconds:30}")
+    private int retrySeconds;
+
+    @Value("${mail.outbox.idle-seconds:60}")
+    private int idleSeconds;
+
+    @Autowired
+    private JavaMailSender javaMailSender;
+
+    @Autowired
+    private FileUtils fileUtils;
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    private File dir;
+
+    private final PriorityQueue<MailEnvelope> queue = new PriorityQueue<>(
+            Comparator.comparingLong(MailEnvelope::getNextAttemptTime).thenComparingLong(MailEnvelope::getCreateTime));
+
+    private final List<Thread> workers = new ArrayList<>();
+
+    private volatile boolean stopped = false;
+
+    private volatile Collection<MailDeliveryListener> listeners;
+
+    @PostConstruct
+    public void init() {
+        if (!enable) {
+            return;
+        }
+
+        if (!(javaMailSender instanceof JavaMailSenderImpl)) {
+            log.warn("Mail outbox disabled, unsupported mail sender: {}", javaMailSender.getClass().getName());
+            enable = false;
+            return;
+        }
+
+        dir = new File(StringUtils.isEmpty(path) ? fileUtils.fileBasePath + File.separator + "mail_outbox" : path);
+        if (!dir.exists() && !dir.mkdirs()) {
+            log.error("Mail outbox disabled, cannot create dir: {}", dir.getAbsolutePath());
+            enable = false;
+            return;
+        }
+
+        recover();
+
+        ThreadFactory factory = new ThreadFactoryBuilder().setNameFormat("Mail-sender-%d").setDaemon(true).build();
+        for (int i = 0; i < Math.max(senders, 1); i++) {
+            Thread worker = factory.newThread(this::sendLoop);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        stopped = true;
+        workers.forEach(Thread::interrupt);
+    }
+
+    public boolean isEnable() {
+        return enable;
+    }
+
+    public int getPendingCount() {
+        synchronized (queue) {
+            return queue.size();
+        }
+    }
+
+    /**
+     * 邮件写入发件箱
+     *
+     * @param message
+     * @param reference 回调时原样返回
+     * @throws ServerException
+     */
+    public void enqueue(MimeMessage message, String reference) throws ServerException {
+        String id = UUID.randomUUID().toString().replace("-", "");
+        File eml = new File(dir, id + EML_SUFFIX);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(eml))) {
+            message.writeTo(out);
+        } catch (IOException | MessagingException e) {
+            eml.delete();
+            throw new ServerException("Queue mail error: " + e.getMessage());
+        }
+
+        long now = System.currentTimeMillis();
+        MailEnvelope envelope = new MailEnvelope();
+        envelope.setId(id);
+        envelope.setReference(reference);
+        envelope.setAttempts(0);
+        envelope.setCreateTime(now);
+        envelope.setNextAttemptTime(now);
+        try {
+            writeEnvelope(envelope);
+        } catch (IOException e) {
+            eml.delete();
+            throw new ServerException("Queue mail error: " + e.getMessage());
+        }
+
+        offer(envelope);
+    }
+
+    private void offer(MailEnvelope envelope) {
+        synchronized (queue) {
+            queue.add(envelope);
+            queue.notifyAll();
+        }
+    }
+
+    /**
+     * 重新加载上次未投递的邮件
+     */
+    private void recover() {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(EML_SUFFIX));
+        if (files == null) {
+            return;
+        }
+
+        for (File eml : files) {
+            String id = eml.getName().substring(0, eml.getName().length() - EML_SUFFIX.length());
+            File file = new File(dir, id + ENVELOPE_SUFFIX);
+            MailEnvelope envelope = null;
+            if (file.exists()) {
+                try {
+                    envelope = JSON.parseObject(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8), MailEnvelope.class);
+                } catch (Exception e) {
+                    log.warn("Read mail envelope {} error: {}", file.getName(), e.getMessage());
+                }
+            }
+            if (envelope == null) {
+                envelope = new MailEnvelope();
+                envelope.setId(id);
+                envelope.setCreateTime(eml.lastModified());
+            }
+            envelope.setNextAttemptTime(System.currentTimeMillis());
+            queue.add(envelope);
+        }
+
+        if (!queue.isEmpty()) {
+            log.info("Mail outbox recovered {} messages", queue.size());
+        }
+    }
+
+    private void sendLoop() {
+        Transport transport = null;
+        while (!stopped) {
+            try {
+                List<MailEnvelope> batch = take(transport == null ? 0L : idleSeconds * 1000L);
+                if (batch.isEmpty()) {
+                    transport = close(transport);
+                    continue;
+                }
+                transport = send(transport, batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                log.error("Mail outbox send error", e);
+            }
+        }
+        close(transport);
+    }
+
+    /**
+     * 取出到期的一批邮件, 持有连接时最多等待 idleMillis, 超时返回空
+     *
+     * @param idleMillis
+     * @return
+     * @throws InterruptedException
+     */
+    private List<MailEnvelope> take(long idleMillis) throws InterruptedException {
+        synchronized (queue) {
+            long idleDeadline = idleMillis > 0 ? System.currentTimeMillis() + idleMillis : Long.MAX_VALUE;
+            while (true) {
+                long now = System.currentTimeMillis();
+                MailEnvelope head = queue.peek();
+                if (head != null && head.getNextAttemptTime() <= now) {
+                    List<MailEnvelope> batch = new ArrayList<>();
+                    while (batch.size() < batchSize && (head = queue.peek()) != null && head.getNextAttemptTime() <= now) {
+                        batch.add(queue.poll());
+                    }
+                    return batch;
+                }
+                if (now >= idleDeadline) {
+                    return Collections.emptyList();
+                }
+                long wakeUp = Math.min(idleDeadline, head == null ? Long.MAX_VALUE : head.getNextAttemptTime());
+                if (wakeUp == Long.MAX_VALUE) {
+                    queue.wait();
+                } else {
+                    queue.wait(Math.max(wakeUp - now, 1L));
+                }
+            }
+        }
+    }
+
+    /**
+     * 复用同一连接发送一批邮件
+     *
+     * @param transport
+     * @param batch
+     * @return 仍可用的连接
+     */
+    private Transport send(Transport transport, List<MailEnvelope> batch) {
+        JavaMailSenderImpl sender = (JavaMailSenderImpl) javaMailSender;
+        for (int i = 0; i < batch.size(); i++) {
+            MailEnvelope envelope = batch.get(i);
+            File eml = new File(dir, envelope.getId() + EML_SUFFIX);
+
+            MimeMessage message;
+            try (InputStream in = new BufferedInputStream(new FileInputStream(eml))) {
+                message = new MimeMessage(sender.getSession(), in);
+            } catch (Exception e) {
+                log.error("Mail({}) load error: {}", envelope.getId(), e.getMessage());
+                giveUp(envelope, e.getMessage());
+                continue;
+            }
+
+            try {
+                transport = connect(transport, sender);
+            } catch (MessagingException e) {
+                // 连接不上时本批剩余的邮件都延后
+                log.warn("Mail outbox connect error: {}", e.getMessage());
+                for (int j = i; j < batch.size(); j++) {
+                    retry(batch.get(j), e.getMessage());
+                }
+                return close(transport);
+            }
+
+            try {
+                transport.sendMessage(message, getRecipients(envelope, message));
+                delivered(envelope);
+            } catch (SendFailedException e) {
+                // 没有可重试的地址时不再重试, 否则只向未送达的有效地址重试
+                Address[] unsent = e.getValidUnsentAddresses();
+                if (unsent == null || unsent.length == 0) {
+                    giveUp(envelope, e.getMessage());
+                } else {
+                    envelope.setRecipients(Arrays.stream(unsent).map(Address::toString).collect(Collectors.toList()));
+                    retry(envelope, e.getMessage());
+                }
+            } catch (MessagingException e) {
+                retry(envelope, e.getMessage());
+            }
+        }
+        return transport;
+    }
+
+    private static Address[] getRecipients(MailEnvelope envelope, MimeMessage message) throws MessagingException {
+        if (envelope.getRecipients() == null || envelope.getRecipients().isEmpty()) {
+            return message.getAllRecipients();
+        }
+        Address[] addresses = new Address[envelope.getRecipients().size()];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = new InternetAddress(envelope.getRecipients().get(i));
+        }
+        return addresses;
+    }
+
+    private Transport connect(Transport transport, JavaMailSenderImpl sender) throws MessagingException {
+        if (transport != null && transport.isConnected()) {
+            return transport;
+        }
+        close(transport);
+
+        Transport newTransport = sender.getSession().getTransport(sender.getProtocol());
+        newTransport.connect(sender.getHost(), sender.getPort(), sender.getUsername(), sender.getPassword());
+        return newTransport;
+    }
+
+    private Transport close(Transport transport) {
+        if (transport != null) {
+            try {
+                transport.close();
+            } catch (MessagingException e) {
+                log.debug("Close mail transport error: {}", e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    private void delivered(MailEnvelope envelope) {
+        int attempts = envelope.getAttempts() + 1;
+        new File(dir, envelope.getId() + EML_SUFFIX).delete();
+        new File(dir, envelope.getId() + ENVELOPE_SUFFIX).delete();
+        log.info("Mail({}) delivered, reference:{}, attempts:{}, cost:{}ms", envelope.getId(), envelope.getReference(),
+                attempts, System.currentTimeMillis() - envelope.getCreateTime());
+        getListeners().forEach(listener -> {
+            try {
+                listener.onDelivered(envelope.getReference(), attempts);
+            } catch (Exception e) {
+                log.warn("Mail delivery listener error: {}", e.getMessage());
+            }
+        });
+    }
+
+    private void retry(MailEnvelope envelope, String error) {
+        envelope.setAttempts(envelope.getAttempts() + 1);
+        envelope.setLastError(error);
+        if (envelope.getAttempts() >= maxAttempts) {
+            giveUp(envelope, error);
+            return;
+        }
+
+        long backoff = retrySeconds * 1000L << Math.min(envelope.getAttempts() - 1, MAX_BACKOFF_SHIFT);
+        envelope.setNextAttemptTime(System.currentTimeMillis() + backoff);
+        try {
+            writeEnvelope(envelope);
+        } catch (IOException e) {
+            log.warn("Mail({}) write envelope error: {}", envelope.getId(), e.getMessage());
+        }
+        offer(envelope);
+
+        Date nextAttemptTime = new Date(envelope.getNextAttemptTime());
+        log.warn("Mail({}) send error, reference:{}, attempts:{}, retry at {}: {}", envelope.getId(), envelope.getReference(),
+                envelope.getAttempts(), DateUtils.toyyyyMMddHHmmss(nextAttemptTime), error);
+        notifyFailed(envelope, error, nextAttemptTime);
+    }
+
+    private void giveUp(MailEnvelope envelope, String error) {
+        envelope.setLastError(error);
+        File failedDir = new File(dir, DIR_FAILED);
+        failedDir.mkdirs();
+        for (String suffix : new String[]{EML_SUFFIX, ENVELOPE_SUFFIX}) {
+            File file = new File(dir, envelope.getId() + suffix);
+            try {
+                if (ENVELOPE_SUFFIX.equals(suffix)) {
+                    writeEnvelope(envelope);
+                }
+                Files.move(file.toPath(), new File(failedDir, file.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                file.delete();
+            }
+        }
+        log.error("Mail({}) send failed, reference:{}, attempts:{}: {}", envelope.getId(), envelope.getReference(),
+                envelope.getAttempts(), error);
+        notifyFailed(envelope, error, null);
+    }
+
+    private void notifyFailed(MailEnvelope envelope, String error, Date nextAttemptTime) {
+        getListeners().forEach(listener -> {
+            try {
+                listener.onFailed(envelope.getReference(), envelope.getAttempts(), error, nextAttemptTime);
+            } catch (Exception e) {
+                log.warn("Mail delivery listener error: {}", e.getMessage());
+            }
+        });
+    }
+
+    private void writeEnvelope(MailEnvelope envelope) throws IOException {
+        File file = new File(dir, envelope.getId() + ENVELOPE_SUFFIX);
+        File temp = new File(dir, envelope.getId() + ENVELOPE_SUFFIX + ".tmp");
+        Files.write(temp.toPath(), JSON.toJSONString(envelope).getBytes(StandardCharsets.UTF_8));
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // 监听者依赖本类, 首次回调时再获取
+    private Collection<MailDeliveryListener> getListeners() {
+        if (listeners == null) {
+            listeners = applicationContext.getBeansOfType(MailDeliveryListener.class).values();
+        }
+        return listeners;
+    }
+}
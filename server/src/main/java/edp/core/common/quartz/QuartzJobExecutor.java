@@ -29,6 +29,8 @@ import edp.davinci.core.config.SpringContextHolder;
 import edp.davinci.core.enums.CheckEntityEnum;
 import edp.davinci.core.enums.LockType;
 import edp.davinci.core.enums.LogNameEnum;
+import edp.davinci.schedule.ScheduleAdmission;
+import edp.davinci.schedule.ScheduleCluster;
 import edp.davinci.service.excel.ExecutorUtils;
 import org.quartz.Job;
 import org.quartz.JobExecutionContext;
@@ -36,7 +38,6 @@ import org.quartz.TriggerKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.ExecutorService;
 
 public class QuartzJobExecutor implements Job {
 
@@ -44,16 +45,31 @@ public class QuartzJobExecutor implements Job {
 
     @Override
     public void execute(JobExecutionContext jobExecutionContext) {
-		ExecutorService executorService = ExecutorUtils.getJobWorkers();
-		ExecutorUtils.printThreadPoolStatus(executorService, "JOB_WORKERS", scheduleLogger);
-        executorService.submit(() -> {
-            TriggerKey triggerKey = jobExecutionContext.getTrigger().getKey();
-            ScheduleJob scheduleJob = (ScheduleJob) jobExecutionContext.getMergedJobDataMap().get(QuartzHandler.getJobDataKey(triggerKey));
-            if (scheduleJob == null) {
-            	scheduleLogger.warn("ScheduleJob({}) is not found", triggerKey.getName());
-                return;
-            }
-            
+        TriggerKey triggerKey = jobExecutionContext.getTrigger().getKey();
+        ScheduleJob scheduleJob = (ScheduleJob) jobExecutionContext.getMergedJobDataMap().get(QuartzHandler.getJobDataKey(triggerKey));
+        if (scheduleJob == null) {
+            scheduleLogger.warn("ScheduleJob({}) is not found", triggerKey.getName());
+            return;
+        }
+
+        // 本节点任务队列积压时转交给其他节点
+        ScheduleCluster scheduleCluster = SpringContextHolder.getBean(ScheduleCluster.class);
+        if (scheduleCluster.handoff(scheduleJob)) {
+            return;
+        }
+
+        submit(scheduleJob);
+    }
+
+    /**
+     * 经准入控制后在 JOB_WORKERS 中执行
+     *
+     * @param scheduleJob
+     */
+    public static void submit(ScheduleJob scheduleJob) {
+		ExecutorUtils.printThreadPoolStatus(ExecutorUtils.getJobWorkers(), "JOB_WORKERS", scheduleLogger);
+        ScheduleAdmission scheduleAdmission = SpringContextHolder.getBean(ScheduleAdmission.class);
+        scheduleAdmission.admit(scheduleJob, () -> {
 			Long id = scheduleJob.getId();
             if (scheduleJob.getStartDate().getTime() > System.currentTimeMillis()
                     || scheduleJob.getEndDate().getTime() < System.currentTimeMillis()) {
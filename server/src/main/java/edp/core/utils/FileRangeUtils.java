@@ -0,0 +1,227 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.utils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.springframework.http.HttpHeaders;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * 支持断点续传的文件下载
+ * 通过 FileChannel.transferTo 输出文件内容, 支持 Range/If-Range/If-None-Match
+ */
+public class FileRangeUtils {
+
+    private static final String BYTES_UNIT = "bytes";
+
+    private static final String RANGE_PREFIX = BYTES_UNIT + "=";
+
+    private static final long MAX_AGE_SECONDS = 86400L;
+
+    // 导出文件生成后不会再修改, 校验值按 路径+大小+修改时间 缓存
+    private static final Cache<String, String> ETAG_CACHE = CacheBuilder.newBuilder()
+            .maximumSize(1024)
+            .expireAfterAccess(1, TimeUnit.DAYS)
+            .build();
+
+    /**
+     * 输出文件内容, 调用前需设置 Content-Type 和 Content-Disposition
+     *
+     * @param file
+     * @param request
+     * @param response
+     * @throws IOException
+     */
+    public static void download(File file, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        long length = file.length();
+        long lastModified = file.lastModified() / 1000 * 1000;
+        String etag = getETag(file);
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, BYTES_UNIT);
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "private, max-age=" + MAX_AGE_SECONDS);
+
+        if (isNotModified(request, etag, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        long start = 0;
+        long end = length - 1;
+        String range = request.getHeader(HttpHeaders.RANGE);
+        if (range != null && isRangeApplicable(request, etag, lastModified)) {
+            long[] bounds = parseRange(range, length);
+            if (bounds == null) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, BYTES_UNIT + " */" + length);
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            if (bounds.length == 2) {
+                start = bounds[0];
+                end = bounds[1];
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, BYTES_UNIT + " " + start + "-" + end + "/" + length);
+            }
+        }
+
+        long count = end - start + 1;
+        response.setHeader(HttpHeaders.CONTENT_LENGTH, String.valueOf(count));
+        if ("HEAD".equalsIgnoreCase(request.getMethod()) || count <= 0) {
+            return;
+        }
+
+        try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            while (position <= end) {
+                long transferred = channel.transferTo(position, end - position + 1, out);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+            }
+            response.flushBuffer();
+        }
+    }
+
+    /**
+     * 基于文件内容 CRC32 的强校验值
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static String getETag(File file) throws IOException {
+        String key = file.getAbsolutePath() + "@" + file.length() + "@" + file.lastModified();
+        try {
+            return ETAG_CACHE.get(key, () -> {
+                CRC32 crc = new CRC32();
+                ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+                try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+                    while (channel.read(buffer) > 0) {
+                        buffer.flip();
+                        crc.update(buffer.array(), 0, buffer.limit());
+                        buffer.clear();
+                    }
+                }
+                return "\"" + Long.toHexString(crc.getValue()) + "-" + Long.toHexString(file.length()) + "\"";
+            });
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            return matchETag(ifNoneMatch, etag);
+        }
+        long ifModifiedSince = getDateHeader(request, HttpHeaders.IF_MODIFIED_SINCE);
+        return ifModifiedSince >= 0 && lastModified <= ifModifiedSince;
+    }
+
+    private static boolean isRangeApplicable(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return etag.equals(ifRange.trim());
+        }
+        long ifRangeDate = getDateHeader(request, HttpHeaders.IF_RANGE);
+        return ifRangeDate >= 0 && lastModified <= ifRangeDate;
+    }
+
+    private static boolean matchETag(String header, String etag) {
+        for (String tag : header.split(",")) {
+            tag = tag.trim();
+            if ("*".equals(tag) || etag.equals(tag) || etag.equals(tag.replaceFirst("^W/", ""))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long getDateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 解析单个字节范围
+     *
+     * @param range
+     * @param length
+     * @return 不可满足时返回 null, 多范围等不支持的格式返回空数组(按完整内容输出)
+     */
+    private static long[] parseRange(String range, long length) {
+        if (!range.startsWith(RANGE_PREFIX)) {
+            return new long[0];
+        }
+        String spec = range.substring(RANGE_PREFIX.length()).trim();
+        if (spec.contains(",")) {
+            return new long[0];
+        }
+        int index = spec.indexOf('-');
+        if (index < 0) {
+            return new long[0];
+        }
+        try {
+            long start;
+            long end;
+            String first = spec.substring(0, index).trim();
+            String last = spec.substring(index + 1).trim();
+            if (first.isEmpty()) {
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) {
+                    return null;
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            }
+            if (start >= length || start > end) {
+                return null;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+}
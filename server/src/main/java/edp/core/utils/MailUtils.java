@@ -21,6 +21,7 @@ package edp.core.utils;
 
 import com.alibaba.druid.util.StringUtils;
 import com.google.common.base.Stopwatch;
+import edp.core.common.mail.MailOutbox;
 import edp.core.exception.ServerException;
 import edp.core.model.MailContent;
 import lombok.extern.slf4j.Slf4j;
@@ -53,6 +54,9 @@ public class MailUtils {
     @Autowired
     private TemplateEngine templateEngine;
 
+    @Autowired
+    private MailOutbox mailOutbox;
+
     @Value("${spring.mail.username}")
     private String mailUsername;
 
@@ -68,6 +72,42 @@ public class MailUtils {
 
     public void sendMail(MailContent mailContent, Logger customLogger) throws ServerException {
         Stopwatch watch = Stopwatch.createStarted();
+        MimeMessage message = createMessage(mailContent, customLogger);
+        try {
+            javaMailSender.send(message);
+            if (customLogger != null) {
+                customLogger.info("Email sending content:{}, cost:{}", mailContent.toString(), watch.elapsed(TimeUnit.MILLISECONDS));
+            }
+        } catch (Exception e) {
+            if (customLogger != null) {
+                customLogger.error("Send mail error:{}", e.getMessage());
+            }
+            throw new ServerException(e.getMessage());
+        }
+    }
+
+    /**
+     * 邮件写入发件箱后即返回, 由发件箱异步投递, 发件箱不可用时同步发送
+     *
+     * @param mailContent
+     * @param reference   投递结果回调时原样返回
+     * @param customLogger
+     * @throws ServerException
+     */
+    public void queueMail(MailContent mailContent, String reference, Logger customLogger) throws ServerException {
+        if (!mailOutbox.isEnable()) {
+            sendMail(mailContent, customLogger);
+            return;
+        }
+
+        MimeMessage message = createMessage(mailContent, customLogger);
+        mailOutbox.enqueue(message, reference);
+        if (customLogger != null) {
+            customLogger.info("Email queued content:{}, reference:{}, pending:{}", mailContent.toString(), reference, mailOutbox.getPendingCount());
+        }
+    }
+
+    private MimeMessage createMessage(MailContent mailContent, Logger customLogger) throws ServerException {
         if (mailContent == null) {
             if (customLogger != null) {
                 customLogger.error("Email content is null");
@@ -193,15 +233,12 @@ public class MailUtils {
                 });
             }
 
-            javaMailSender.send(message);
-            if (customLogger != null) {
-                customLogger.info("Email sending content:{}, cost:{}", mailContent.toString(), watch.elapsed(TimeUnit.MILLISECONDS));
-            }
+            return message;
         } catch (Exception e) {
             if (customLogger != null) {
-                customLogger.error("Send mail error:{}", e.getMessage());
+                customLogger.error("Create mail error:{}", e.getMessage());
             }
-             throw new ServerException(e.getMessage());
-        } 
+            throw new ServerException(e.getMessage());
+        }
     }
 }
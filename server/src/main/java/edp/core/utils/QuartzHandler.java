@@ -24,8 +24,10 @@ import edp.core.consts.Consts;
 import edp.core.exception.ServerException;
 import edp.core.model.ScheduleJob;
 import edp.davinci.core.enums.LogNameEnum;
+import edp.davinci.schedule.ScheduleCluster;
 import lombok.extern.slf4j.Slf4j;
 import org.quartz.*;
+import org.quartz.impl.matchers.GroupMatcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -33,6 +35,8 @@ import org.springframework.scheduling.quartz.SchedulerFactoryBean;
 import org.springframework.stereotype.Component;
 
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
 
 @Slf4j
 @Component
@@ -49,8 +53,34 @@ public class QuartzHandler {
         return triggerKey.getGroup() + Consts.DOT + triggerKey.getName();
     }
 
+    @Autowired
+    private ScheduleCluster scheduleCluster;
+
+    /**
+     * 注册任务, 开启集群分片时由任务所属节点注册触发器
+     *
+     * @param scheduleJob
+     * @throws ServerException
+     * @throws SchedulerException
+     */
     public void addJob(ScheduleJob scheduleJob) throws ServerException, SchedulerException {
 
+        checkPlannedTime(scheduleJob);
+
+        if (!scheduleCluster.isLocal(scheduleJob.getId())) {
+            scheduleCluster.dispatch(scheduleJob);
+            scheduleLogger.info("ScheduleJob({}) is dispatched to node({})", scheduleJob.getId(), scheduleCluster.getOwner(scheduleJob.getId()));
+            return;
+        }
+
+        if (scheduleCluster.isEnable()) {
+            scheduleCluster.touch(scheduleJob.getId());
+        }
+        addLocalJob(scheduleJob);
+    }
+
+    private void checkPlannedTime(ScheduleJob scheduleJob) throws ServerException {
+
         if (null == scheduleJob) {
             throw new ServerException("EMPTY job");
         }
@@ -67,6 +97,18 @@ public class QuartzHandler {
             scheduleLogger.warn("ScheduleJob({}), currentTime:{} is not within the planned execution time, startTime:{}, endTime:{}, cronExpression:{}", args);
             throw new ServerException("Current time is not within the planned execution time!");
         }
+    }
+
+    /**
+     * 在当前节点注册触发器
+     *
+     * @param scheduleJob
+     * @throws ServerException
+     * @throws SchedulerException
+     */
+    public void addLocalJob(ScheduleJob scheduleJob) throws ServerException, SchedulerException {
+
+        checkPlannedTime(scheduleJob);
 
         Scheduler scheduler = schedulerFactoryBean.getScheduler();
         TriggerKey triggerKey = TriggerKey.triggerKey(JOB_NAME_PREFIX + scheduleJob.getId());
@@ -107,7 +149,20 @@ public class QuartzHandler {
     }
 
 
+    /**
+     * 移除任务, 开启集群分片时同时通知其他节点移除
+     *
+     * @param scheduleJob
+     * @throws ServerException
+     */
     public void removeJob(ScheduleJob scheduleJob) throws ServerException {
+        removeLocalJob(scheduleJob);
+        if (scheduleCluster.isEnable()) {
+            scheduleCluster.broadcastRemove(scheduleJob);
+        }
+    }
+
+    public void removeLocalJob(ScheduleJob scheduleJob) throws ServerException {
 
         Scheduler scheduler = schedulerFactoryBean.getScheduler();
         try {
@@ -170,6 +225,27 @@ public class QuartzHandler {
         return false;
     }
 
+    /**
+     * 当前节点已注册触发器的任务
+     *
+     * @return
+     * @throws ServerException
+     */
+    public Set<Long> getLocalJobIds() throws ServerException {
+        Scheduler scheduler = schedulerFactoryBean.getScheduler();
+        Set<Long> ids = new HashSet<>();
+        try {
+            for (TriggerKey triggerKey : scheduler.getTriggerKeys(GroupMatcher.anyTriggerGroup())) {
+                if (triggerKey.getName().startsWith(JOB_NAME_PREFIX)) {
+                    ids.add(Long.parseLong(triggerKey.getName().substring(JOB_NAME_PREFIX.length())));
+                }
+            }
+        } catch (SchedulerException e) {
+            throw new ServerException(e.getMessage());
+        }
+        return ids;
+    }
+
     public void shutdownJobs() throws ServerException {
         Scheduler scheduler = schedulerFactoryBean.getScheduler();
         try {
@@ -20,14 +20,21 @@
 package edp.core.utils;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.ListOperations;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Component;
 
@@ -146,4 +153,107 @@ public class RedisUtils {
 		return valueOperations.setIfAbsent(key, value);
 	}
 
+	public Long leftPush(String key, Object value) {
+		if (!isRedisEnable) {
+			throw new RuntimeException("Redis is disabled");
+		}
+		ListOperations<String, Object> listOperations = redisTemplate.opsForList();
+		return listOperations.leftPush(key, value);
+	}
+
+	/**
+	 * 阻塞地从 source 尾部弹出并压入 destination 头部, 超时返回 null
+	 */
+	public Object rightPopAndLeftPush(String source, String destination, long timeout, TimeUnit timeUnit) {
+		if (!isRedisEnable) {
+			return null;
+		}
+		ListOperations<String, Object> listOperations = redisTemplate.opsForList();
+		return listOperations.rightPopAndLeftPush(source, destination, timeout, timeUnit);
+	}
+
+	public Long listRemove(String key, Object value) {
+		if (!isRedisEnable) {
+			return 0L;
+		}
+		ListOperations<String, Object> listOperations = redisTemplate.opsForList();
+		return listOperations.remove(key, 1, value);
+	}
+
+	public List<Object> listRange(String key) {
+		if (!isRedisEnable) {
+			return new ArrayList<>();
+		}
+		ListOperations<String, Object> listOperations = redisTemplate.opsForList();
+		return listOperations.range(key, 0, -1);
+	}
+
+	public Long listSize(String key) {
+		if (!isRedisEnable) {
+			return 0L;
+		}
+		ListOperations<String, Object> listOperations = redisTemplate.opsForList();
+		return listOperations.size(key);
+	}
+
+	public boolean hasKey(String key) {
+		return isRedisEnable && Boolean.TRUE.equals(redisTemplate.hasKey(key));
+	}
+
+	public boolean zAdd(String key, Object value, double score) {
+		if (!isRedisEnable) {
+			return false;
+		}
+		ZSetOperations<String, Object> zSetOperations = redisTemplate.opsForZSet();
+		return Boolean.TRUE.equals(zSetOperations.add(key, value, score));
+	}
+
+	public Long zRemove(String key, Object value) {
+		if (!isRedisEnable) {
+			return 0L;
+		}
+		ZSetOperations<String, Object> zSetOperations = redisTemplate.opsForZSet();
+		return zSetOperations.remove(key, value);
+	}
+
+	public Set<Object> zRangeByScore(String key, double min, double max) {
+		if (!isRedisEnable) {
+			return new HashSet<>();
+		}
+		ZSetOperations<String, Object> zSetOperations = redisTemplate.opsForZSet();
+		return zSetOperations.rangeByScore(key, min, max);
+	}
+
+	public Long zRemoveRangeByScore(String key, double min, double max) {
+		if (!isRedisEnable) {
+			return 0L;
+		}
+		ZSetOperations<String, Object> zSetOperations = redisTemplate.opsForZSet();
+		return zSetOperations.removeRangeByScore(key, min, max);
+	}
+
+	public void hashPut(String key, String hashKey, Object value) {
+		if (!isRedisEnable) {
+			return;
+		}
+		HashOperations<String, String, Object> hashOperations = redisTemplate.opsForHash();
+		hashOperations.put(key, hashKey, value);
+	}
+
+	public Map<String, Object> hashEntries(String key) {
+		if (!isRedisEnable) {
+			return new HashMap<>();
+		}
+		HashOperations<String, String, Object> hashOperations = redisTemplate.opsForHash();
+		return hashOperations.entries(key);
+	}
+
+	public Long hashDelete(String key, Object... hashKeys) {
+		if (!isRedisEnable) {
+			return 0L;
+		}
+		HashOperations<String, String, Object> hashOperations = redisTemplate.opsForHash();
+		return hashOperations.delete(key, hashKeys);
+	}
+
 }
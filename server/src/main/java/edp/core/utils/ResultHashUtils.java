@@ -0,0 +1,105 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.core.utils;
+
+import edp.core.model.Paginate;
+import edp.core.model.PaginateWithQueryColumns;
+import edp.core.model.QueryColumn;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+
+/**
+ * 查询结果摘要
+ * 逐行逐值计算, 不序列化整个结果, 用作接口响应的ETag
+ */
+public class ResultHashUtils {
+
+    private static final byte FIELD_SEPARATOR = 0x1F;
+
+    private static final byte ROW_SEPARATOR = 0x1E;
+
+    private static final byte NULL = 0x00;
+
+    /**
+     * 计算分页结果的ETag
+     *
+     * @param paginate
+     * @return
+     */
+    public static String etag(Paginate<Map<String, Object>> paginate) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("md5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        if (paginate == null) {
+            return toEtag(md.digest());
+        }
+
+        if (paginate instanceof PaginateWithQueryColumns && ((PaginateWithQueryColumns) paginate).getColumns() != null) {
+            for (QueryColumn column : ((PaginateWithQueryColumns) paginate).getColumns()) {
+                update(md, column.getName());
+                update(md, column.getType());
+            }
+        }
+        md.update(ROW_SEPARATOR);
+        update(md, paginate.getPageNo() + "," + paginate.getPageSize() + "," + paginate.getTotalCount());
+        md.update(ROW_SEPARATOR);
+
+        if (paginate.getResultList() != null) {
+            for (Map<String, Object> row : paginate.getResultList()) {
+                if (row != null) {
+                    for (Map.Entry<String, Object> entry : row.entrySet()) {
+                        update(md, entry.getKey());
+                        update(md, entry.getValue());
+                    }
+                }
+                md.update(ROW_SEPARATOR);
+            }
+        }
+
+        return toEtag(md.digest());
+    }
+
+    private static void update(MessageDigest md, Object value) {
+        if (value == null) {
+            md.update(NULL);
+        } else if (value instanceof byte[]) {
+            md.update((byte[]) value);
+        } else {
+            md.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+        }
+        md.update(FIELD_SEPARATOR);
+    }
+
+    private static String toEtag(byte[] digest) {
+        StringBuilder builder = new StringBuilder(digest.length * 2 + 2).append('"');
+        for (byte b : digest) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.append('"').toString();
+    }
+}
@@ -20,7 +20,12 @@ package edp.core.utils;
 
 import com.alibaba.druid.sql.SQLUtils;
 import com.alibaba.druid.util.StringUtils;
+import com.mysql.cj.conf.PropertyKey;
+import com.mysql.cj.conf.RuntimeProperty;
+import com.mysql.cj.jdbc.JdbcConnection;
+import edp.core.common.jdbc.BulkLoader;
 import edp.core.common.jdbc.JdbcDataSource;
+import edp.core.common.jdbc.MysqlBulkLoader;
 import edp.core.consts.Consts;
 import edp.core.enums.DataTypeEnum;
 import edp.core.enums.SqlTypeEnum;
@@ -54,6 +59,7 @@ import java.math.BigDecimal;
 import java.sql.*;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 
 import static edp.core.consts.Consts.*;
@@ -75,6 +81,11 @@ public class SqlUtils {
     @Value("${source.enable-query-log:false}")
     private boolean isQueryLogEnable;
 
+    @Value("${source.batch-size:1000}")
+    private int batchSize;
+
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+
     private static final String TABLE = "TABLE";
 
     private static final String VIEW = "VIEW";
@@ -115,6 +126,7 @@ public class SqlUtils {
                 .withJdbcDataSource(this.jdbcDataSource)
                 .withResultLimit(this.resultLimit)
                 .withIsQueryLogEnable(this.isQueryLogEnable)
+                .withBatchSize(this.batchSize)
                 .build();
     }
 
@@ -134,6 +146,7 @@ public class SqlUtils {
                 .withJdbcDataSource(this.jdbcDataSource)
                 .withResultLimit(this.resultLimit)
                 .withIsQueryLogEnable(this.isQueryLogEnable)
+                .withBatchSize(this.batchSize)
                 .build();
     }
 
@@ -252,6 +265,51 @@ public class SqlUtils {
         return paginateWithQueryColumns;
     }
 
+    /**
+     * 流式读取查询结果, 逐行回调, 不在内存中保留结果集
+     *
+     * @param sql
+     * @param excludeColumns
+     * @param columnsConsumer 读取首行前回调一次
+     * @param rowConsumer
+     * @return 读取的行数
+     */
+    public int queryForEach(String sql, Set<String> excludeColumns, Consumer<List<QueryColumn>> columnsConsumer, Consumer<Map<String, Object>> rowConsumer) {
+        long before = System.currentTimeMillis();
+
+        JdbcTemplate jdbcTemplate = jdbcTemplate();
+        jdbcTemplate.setMaxRows(resultLimit);
+        // special for mysql
+        if (getDataTypeEnum() == DataTypeEnum.MYSQL) {
+            jdbcTemplate.setFetchSize(Integer.MIN_VALUE);
+        }
+
+        Set<String> queryFromsAndJoins = getQueryFromsAndJoins(sql);
+        int[] count = {0};
+        jdbcTemplate.query(sql, rs -> {
+            ResultSetMetaData metaData = rs.getMetaData();
+            if (count[0] == 0) {
+                List<QueryColumn> queryColumns = new ArrayList<>();
+                for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                    String key = getColumnLabel(queryFromsAndJoins, metaData.getColumnLabel(i));
+                    if (!CollectionUtils.isEmpty(excludeColumns) && excludeColumns.contains(key)) {
+                        continue;
+                    }
+                    queryColumns.add(new QueryColumn(key, metaData.getColumnTypeName(i)));
+                }
+                columnsConsumer.accept(queryColumns);
+            }
+            rowConsumer.accept(getResultObjectMap(excludeColumns, rs, metaData, queryFromsAndJoins));
+            count[0]++;
+        });
+
+        if (isQueryLogEnable) {
+            String md5 = MD5Util.getMD5(sql, true, 16);
+            sqlLogger.info("{} query for each row for {} ms, total count:{}, sql:{}", md5, System.currentTimeMillis() - before, count[0], formatSql(sql));
+        }
+        return count[0];
+    }
+
     private void getResultForPaginate(String sql, PaginateWithQueryColumns paginateWithQueryColumns, JdbcTemplate jdbcTemplate, Set<String> excludeColumns, int startRow) {
         Set<String> queryFromsAndJoins = getQueryFromsAndJoins(sql);
         jdbcTemplate.query(sql, rs -> {
@@ -698,6 +756,28 @@ public class SqlUtils {
         }
     }
 
+    /**
+     * 按数据源类型打开原生批量导入, 不支持时返回 null, 由调用方使用 executeBatch
+     *
+     * @param tableName
+     * @param headers
+     * @return
+     */
+    public BulkLoader openBulkLoader(String tableName, Set<QueryColumn> headers) {
+        if (this.jdbcSourceInfo.isExt()) {
+            return null;
+        }
+        try {
+            DataTypeEnum dataTypeEnum = DataTypeEnum.urlOf(this.jdbcSourceInfo.getJdbcUrl());
+            if (dataTypeEnum == MYSQL) {
+                return MysqlBulkLoader.open(this.jdbcSourceInfo, tableName, headers);
+            }
+        } catch (Exception e) {
+            log.warn("Open bulk loader error, jdbcUrl:{}, {}", this.jdbcSourceInfo.getJdbcUrl(), e.getMessage());
+        }
+        return null;
+    }
+
     public void executeBatch(String sql, Set<QueryColumn> headers, List<Map<String, Object>> datas) throws ServerException {
 
         if (StringUtils.isEmpty(sql)) {
@@ -712,101 +792,41 @@ public class SqlUtils {
 
         Connection connection = null;
         PreparedStatement pstmt = null;
+        Boolean batchRewrite = null;
         try {
             connection = sourceUtils.getConnection(this.jdbcSourceInfo);
             if (null != connection) {
                 connection.setAutoCommit(false);
+                batchRewrite = setBatchRewrite(connection, true);
                 pstmt = connection.prepareStatement(sql);
-                //每1000条commit一次
-                int n = 10000;
 
+                // 按列预先确定参数绑定方式
+                List<String> names = new ArrayList<>(headers.size());
+                List<ParamBinder> binders = new ArrayList<>(headers.size());
+                for (QueryColumn queryColumn : headers) {
+                    names.add(queryColumn.getName());
+                    binders.add(getParamBinder(SqlColumnEnum.toJavaType(queryColumn.getType())));
+                }
+
+                int size = this.batchSize > 0 ? this.batchSize : DEFAULT_BATCH_SIZE;
+                int count = 0;
                 for (Map<String, Object> map : datas) {
-                    int i = 1;
-                    for (QueryColumn queryColumn : headers) {
-                        Object obj = map.get(queryColumn.getName());
-                        switch (SqlColumnEnum.toJavaType(queryColumn.getType())) {
-                            case "Short":
-                                pstmt.setShort(i, null == obj || String.valueOf(obj).equals(EMPTY) ? (short) 0 : Short.parseShort(String.valueOf(obj).trim()));
-                                break;
-                            case "Integer":
-                                pstmt.setInt(i, null == obj || String.valueOf(obj).equals(EMPTY) ? 0 : Integer.parseInt(String.valueOf(obj).trim()));
-                                break;
-                            case "Long":
-                                pstmt.setLong(i, null == obj || String.valueOf(obj).equals(EMPTY) ? 0L : Long.parseLong(String.valueOf(obj).trim()));
-                                break;
-                            case "BigDecimal":
-                                pstmt.setBigDecimal(i, null == obj || String.valueOf(obj).equals(EMPTY) ? null : (BigDecimal) obj);
-                                break;
-                            case "Float":
-                                pstmt.setFloat(i, null == obj || String.valueOf(obj).equals(EMPTY) ? 0.0F : Float.parseFloat(String.valueOf(obj).trim()));
-                                break;
-                            case "Double":
-                                pstmt.setDouble(i, null == obj || String.valueOf(obj).equals(EMPTY) ? 0.0D : Double.parseDouble(String.valueOf(obj).trim()));
-                                break;
-                            case "String":
-                                pstmt.setString(i, (String) obj);
-                                break;
-                            case "Boolean":
-                                pstmt.setBoolean(i, null != obj && Boolean.parseBoolean(String.valueOf(obj).trim()));
-                                break;
-                            case "Bytes":
-                                pstmt.setBytes(i, (byte[]) obj);
-                                break;
-                            case "Date":
-                                if (obj == null) {
-                                    pstmt.setDate(i, null);
-                                } else {
-                                    java.util.Date date = (java.util.Date) obj;
-                                    pstmt.setDate(i, DateUtils.toSqlDate(date));
-                                }
-                                break;
-                            case "DateTime":
-                                if (obj == null) {
-                                    pstmt.setTimestamp(i, null);
-                                } else {
-                                    if (obj instanceof LocalDateTime) {
-                                        pstmt.setTimestamp(i, Timestamp.valueOf((LocalDateTime) obj));
-                                    } else {
-                                        DateTime dateTime = (DateTime) obj;
-                                        pstmt.setTimestamp(i, DateUtils.toTimestamp(dateTime));
-                                    }
-                                }
-                                break;
-                            case "Timestamp":
-                                if (obj == null) {
-                                    pstmt.setTimestamp(i, null);
-                                } else {
-                                    if (obj instanceof LocalDateTime) {
-                                        pstmt.setTimestamp(i, Timestamp.valueOf((LocalDateTime) obj));
-                                    } else {
-                                        pstmt.setTimestamp(i, (Timestamp) obj);
-                                    }
-                                }
-                                break;
-                            case "Blob":
-                                pstmt.setBlob(i, null == obj ? null : (Blob) obj);
-                                break;
-                            case "Clob":
-                                pstmt.setClob(i, null == obj ? null : (Clob) obj);
-                                break;
-                            default:
-                                pstmt.setObject(i, obj);
-                        }
-                        i++;
+                    for (int i = 0; i < binders.size(); i++) {
+                        binders.get(i).bind(pstmt, i + 1, map.get(names.get(i)));
                     }
 
                     pstmt.addBatch();
-                    if (i % n == 0) {
-                        try {
-                            pstmt.executeBatch();
-                            connection.commit();
-                        } catch (BatchUpdateException e) {
-                        }
+                    // 每batchSize条commit一次
+                    if (++count % size == 0) {
+                        pstmt.executeBatch();
+                        connection.commit();
                     }
                 }
 
-                pstmt.executeBatch();
-                connection.commit();
+                if (count % size != 0) {
+                    pstmt.executeBatch();
+                    connection.commit();
+                }
             }
         } catch (Exception e) {
             log.error(e.toString(), e);
@@ -827,10 +847,112 @@ public class SqlUtils {
                     throw new ServerException(e.getMessage(), e);
                 }
             }
+            // 连接归还连接池前恢复原设置
+            if (null != batchRewrite) {
+                setBatchRewrite(connection, batchRewrite);
+            }
             SourceUtils.releaseConnection(connection);
         }
     }
 
+    @FunctionalInterface
+    private interface ParamBinder {
+        void bind(PreparedStatement pstmt, int index, Object obj) throws Exception;
+    }
+
+    private static boolean isBlank(Object obj) {
+        return null == obj || (obj instanceof String && EMPTY.equals(obj));
+    }
+
+    /**
+     * 根据列的java类型返回参数绑定方式, 已是目标类型的值直接绑定, 字符串才解析
+     *
+     * @param javaType
+     * @return
+     */
+    private static ParamBinder getParamBinder(String javaType) {
+        if (javaType == null) {
+            return PreparedStatement::setObject;
+        }
+        switch (javaType) {
+            case "Short":
+                return (pstmt, i, obj) -> pstmt.setShort(i, isBlank(obj) ? (short) 0
+                        : obj instanceof Number ? ((Number) obj).shortValue() : Short.parseShort(String.valueOf(obj).trim()));
+            case "Integer":
+                return (pstmt, i, obj) -> pstmt.setInt(i, isBlank(obj) ? 0
+                        : obj instanceof Number ? ((Number) obj).intValue() : Integer.parseInt(String.valueOf(obj).trim()));
+            case "Long":
+                return (pstmt, i, obj) -> pstmt.setLong(i, isBlank(obj) ? 0L
+                        : obj instanceof Number ? ((Number) obj).longValue() : Long.parseLong(String.valueOf(obj).trim()));
+            case "BigDecimal":
+                return (pstmt, i, obj) -> pstmt.setBigDecimal(i, isBlank(obj) ? null
+                        : obj instanceof BigDecimal ? (BigDecimal) obj : new BigDecimal(String.valueOf(obj).trim()));
+            case "Float":
+                return (pstmt, i, obj) -> pstmt.setFloat(i, isBlank(obj) ? 0.0F
+                        : obj instanceof Number ? ((Number) obj).floatValue() : Float.parseFloat(String.valueOf(obj).trim()));
+            case "Double":
+                return (pstmt, i, obj) -> pstmt.setDouble(i, isBlank(obj) ? 0.0D
+                        : obj instanceof Number ? ((Number) obj).doubleValue() : Double.parseDouble(String.valueOf(obj).trim()));
+            case "String":
+                return (pstmt, i, obj) -> pstmt.setString(i, null == obj ? null : obj instanceof String ? (String) obj : String.valueOf(obj));
+            case "Boolean":
+                return (pstmt, i, obj) -> pstmt.setBoolean(i, obj instanceof Boolean ? (Boolean) obj
+                        : null != obj && Boolean.parseBoolean(String.valueOf(obj).trim()));
+            case "Bytes":
+                return (pstmt, i, obj) -> pstmt.setBytes(i, (byte[]) obj);
+            case "Date":
+                return (pstmt, i, obj) -> pstmt.setDate(i, null == obj ? null : DateUtils.toSqlDate((java.util.Date) obj));
+            case "DateTime":
+                return (pstmt, i, obj) -> {
+                    if (obj == null) {
+                        pstmt.setTimestamp(i, null);
+                    } else if (obj instanceof LocalDateTime) {
+                        pstmt.setTimestamp(i, Timestamp.valueOf((LocalDateTime) obj));
+                    } else {
+                        pstmt.setTimestamp(i, DateUtils.toTimestamp((DateTime) obj));
+                    }
+                };
+            case "Timestamp":
+                return (pstmt, i, obj) -> {
+                    if (obj == null) {
+                        pstmt.setTimestamp(i, null);
+                    } else if (obj instanceof LocalDateTime) {
+                        pstmt.setTimestamp(i, Timestamp.valueOf((LocalDateTime) obj));
+                    } else {
+                        pstmt.setTimestamp(i, (Timestamp) obj);
+                    }
+                };
+            case "Blob":
+                return (pstmt, i, obj) -> pstmt.setBlob(i, (Blob) obj);
+            case "Clob":
+                return (pstmt, i, obj) -> pstmt.setClob(i, (Clob) obj);
+            default:
+                return PreparedStatement::setObject;
+        }
+    }
+
+    /**
+     * 设置 MySQL 连接的 rewriteBatchedStatements, 开启时批量插入合并为多值 insert
+     *
+     * @param connection
+     * @param value
+     * @return 原设置, 非 MySQL 连接或设置失败时返回 null
+     */
+    private static Boolean setBatchRewrite(Connection connection, boolean value) {
+        try {
+            if (connection.isWrapperFor(JdbcConnection.class)) {
+                RuntimeProperty<Boolean> property = connection.unwrap(JdbcConnection.class).getPropertySet()
+                        .getBooleanProperty(PropertyKey.rewriteBatchedStatements);
+                Boolean origin = property.getValue();
+                property.setValue(value);
+                return origin;
+            }
+        } catch (Exception e) {
+            log.debug("Set rewriteBatchedStatements error: {}", e.getMessage());
+        }
+        return null;
+    }
+
     public static String getKeywordPrefix(String jdbcUrl, String dbVersion) {
         String keywordPrefix = "";
         CustomDataSource customDataSource = CustomDataSourceUtils.getInstance(jdbcUrl, dbVersion);
@@ -962,6 +1084,7 @@ public class SqlUtils {
         private JdbcDataSource jdbcDataSource;
         private int resultLimit;
         private boolean isQueryLogEnable;
+        private int batchSize;
         private String name;
         private String type;
         private String jdbcUrl;
@@ -994,6 +1117,11 @@ public class SqlUtils {
             return this;
         }
 
+        SqlUtilsBuilder withBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
         SqlUtilsBuilder withName(String name) {
             this.name = name;
             return this;
@@ -1055,6 +1183,7 @@ public class SqlUtils {
             SqlUtils sqlUtils = new SqlUtils(jdbcSourceInfo);
             sqlUtils.jdbcDataSource = this.jdbcDataSource;
             sqlUtils.resultLimit = this.resultLimit;
+            sqlUtils.batchSize = this.batchSize;
             sqlUtils.isQueryLogEnable = this.isQueryLogEnable;
             sqlUtils.sourceUtils = new SourceUtils(this.jdbcDataSource);
 
@@ -19,9 +19,22 @@
 
 package edp.davinci.common.controller;
 
+import edp.core.model.Paginate;
+import edp.core.utils.ResultHashUtils;
 import edp.core.utils.TokenUtils;
+import edp.davinci.core.common.ResultMap;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Map;
+
+import static edp.core.consts.Consts.TOKEN_HEADER_STRING;
 
 @Component
 public class BaseController {
@@ -35,4 +48,60 @@ public class BaseController {
         }
         return false;
     }
+
+    /**
+     * 查询结果响应, 以结果摘要作为ETag, If-None-Match 命中时返回304
+     * 304无响应体, 前端复用上次的响应, 刷新的token放在响应头中; If-None-Match 为 * 时返回412
+     *
+     * @param paginate
+     * @param refreshToken
+     * @param request
+     * @return
+     */
+    public ResponseEntity resultResponse(Paginate<Map<String, Object>> paginate, boolean refreshToken, HttpServletRequest request) {
+        if (isAnyMatch(request)) {
+            return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
+        }
+
+        String etag = ResultHashUtils.etag(paginate);
+        CacheControl cacheControl = refreshToken ? CacheControl.noCache().cachePrivate() : CacheControl.noCache();
+        if (isNotModified(request, etag)) {
+            ResponseEntity.BodyBuilder builder = ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(cacheControl);
+            if (refreshToken) {
+                builder.header(TOKEN_HEADER_STRING, tokenUtils.refreshToken(request.getHeader(TOKEN_HEADER_STRING)));
+            }
+            return builder.build();
+        }
+
+        ResultMap resultMap = refreshToken ? new ResultMap(tokenUtils).successAndRefreshToken(request) : new ResultMap().success();
+        return ResponseEntity.ok().eTag(etag).cacheControl(cacheControl).body(resultMap.payload(paginate));
+    }
+
+    public boolean isNotModified(HttpServletRequest request, String etag) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (StringUtils.isEmpty(ifNoneMatch)) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (etag.equals(tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * If-None-Match 为 *, 查询接口为 POST, 按 RFC 7232 应返回412而不是304
+     *
+     * @param request
+     * @return
+     */
+    public boolean isAnyMatch(HttpServletRequest request) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        return ifNoneMatch != null && "*".equals(ifNoneMatch.trim());
+    }
 }
@@ -22,19 +22,33 @@ package edp.davinci.common.utils;
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import edp.core.exception.ServerException;
+import edp.core.utils.MD5Util;
 import edp.davinci.core.common.Constants;
 import edp.davinci.core.model.ExcelHeader;
 import edp.davinci.dto.viewDto.Param;
 import edp.davinci.dto.viewDto.SimpleView;
 import edp.davinci.dto.viewDto.ViewExecuteParam;
 import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Engine;
 import org.graalvm.polyglot.Source;
 import org.graalvm.polyglot.Value;
 
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * 脚本执行
+ * Context 不能被多个线程同时使用, 按 CPU 核数维护一组 Context 轮流借用,
+ * 相同入参的结果缓存后直接返回, 每次返回新解析的对象
+ */
 public class ScriptUtils {
 
     private static final String LANGUAGE = "js";
@@ -43,45 +57,109 @@ public class ScriptUtils {
 
     private static final ClassLoader classLoader = ScriptUtils.class.getClassLoader();
 
-    private enum ScriptEnum {
-        INSTANCE;
+    private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors();
+
+    // 共享 Engine, 各 Context 复用已解析的代码
+    private static final Engine ENGINE = Engine.create();
+
+    private static final BlockingQueue<ScriptEngine> ENGINES = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    private static final AtomicInteger CREATED = new AtomicInteger(0);
+
+    private static final Cache<String, String> RESULT_CACHE = CacheBuilder.newBuilder()
+            .maximumSize(2048)
+            .expireAfterAccess(10, TimeUnit.MINUTES)
+            .build();
+
+    private static final class ScriptEngine {
 
-        private Value tableFormatJs;
-        private Value executeParamFormatJs;
+        private final Value tableFormatJs;
+        private final Value executeParamFormatJs;
 
-        ScriptEnum() {
+        ScriptEngine() {
+            tableFormatJs = createScriptEngine(Constants.TABLE_FORMAT_JS, FUNC_FIELDS_HEADER);
+            executeParamFormatJs = createScriptEngine(Constants.EXECUTE_PARAM_FORMAT_JS, FUNC_DASHBOARD_ITEM_EXECUTE_PARAM);
+        }
+
+        private static Value createScriptEngine(String sourcePath, String member) {
             try {
-                tableFormatJs = createScriptEngine(Constants.TABLE_FORMAT_JS, FUNC_FIELDS_HEADER);
-                executeParamFormatJs = createScriptEngine(Constants.EXECUTE_PARAM_FORMAT_JS, FUNC_DASHBOARD_ITEM_EXECUTE_PARAM);
+                Context context = Context.newBuilder(LANGUAGE).engine(ENGINE).build();
+                Source source = Source.newBuilder(LANGUAGE, Objects.requireNonNull(classLoader.getResource(sourcePath))).build();
+                context.eval(source);
+                Value function = context.getBindings(LANGUAGE).getMember(member);
+                return function.canExecute() ? function : null;
             } catch (Exception e) {
-                e.printStackTrace();
+                throw new ServerException("Load script " + sourcePath + " error", e);
+            }
+        }
+    }
+
+    private static ScriptEngine borrow() {
+        ScriptEngine engine = ENGINES.poll();
+        if (engine != null) {
+            return engine;
+        }
+
+        if (CREATED.incrementAndGet() <= POOL_SIZE) {
+            try {
+                return new ScriptEngine();
+            } catch (RuntimeException e) {
+                CREATED.decrementAndGet();
+                throw e;
             }
         }
+        CREATED.decrementAndGet();
 
-        private static Value createScriptEngine(String sourcePath, String member) throws Exception {
-            Context context = Context.create(LANGUAGE);
-            Source source = Source.newBuilder(LANGUAGE, Objects.requireNonNull(classLoader.getResource(sourcePath))).build();
-            context.eval(source);
-            Value function = context.getBindings(LANGUAGE).getMember(member);
-            return function.canExecute() ? function : null;
+        try {
+            return ENGINES.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServerException("Interrupted while waiting for script engine");
         }
     }
 
+    private static void giveBack(ScriptEngine engine) {
+        ENGINES.offer(engine);
+    }
+
+    public static ViewExecuteParam getViewExecuteParam(String dashboardConfig, String widgetConfig, Set<SimpleView> views,
+                                                       Long relationId) {
 
-    public static synchronized ViewExecuteParam getViewExecuteParam(String dashboardConfig, String widgetConfig, Set<SimpleView> views,
-                                                                    Long relationId) {
+        String viewsJson = JSON.toJSONString(views);
+        String key = MD5Util.getMD5("param@" + dashboardConfig + "@" + widgetConfig + "@" + viewsJson + "@" + relationId, true, 32);
+        String json = RESULT_CACHE.getIfPresent(key);
+        if (json == null) {
+            ScriptEngine engine = borrow();
+            try {
+                Value result = engine.executeParamFormatJs.execute(dashboardConfig, widgetConfig, viewsJson, relationId);
+                json = result.asString();
+            } finally {
+                giveBack(engine);
+            }
+            RESULT_CACHE.put(key, json);
+        }
 
-        Value js = ScriptEnum.INSTANCE.executeParamFormatJs;
-        Value result = js.execute(dashboardConfig, widgetConfig, JSON.toJSONString(views), relationId);
-        ViewExecuteParam viewExecuteParam = JSONObject.parseObject(result.asString(), ViewExecuteParam.class);
+        ViewExecuteParam viewExecuteParam = JSONObject.parseObject(json, ViewExecuteParam.class);
         return viewExecuteParam;
     }
 
-    public static synchronized List<ExcelHeader> formatHeader(String widgetConfig, List<Param> params) {
+    public static List<ExcelHeader> formatHeader(String widgetConfig, List<Param> params) {
+
+        String paramsJson = JSON.toJSONString(params);
+        String key = MD5Util.getMD5("header@" + widgetConfig + "@" + paramsJson, true, 32);
+        String json = RESULT_CACHE.getIfPresent(key);
+        if (json == null) {
+            ScriptEngine engine = borrow();
+            try {
+                Value result = engine.tableFormatJs.execute(widgetConfig, paramsJson);
+                json = result.toString();
+            } finally {
+                giveBack(engine);
+            }
+            RESULT_CACHE.put(key, json);
+        }
 
-        Value js = ScriptEnum.INSTANCE.tableFormatJs;
-        Value result = js.execute(widgetConfig, JSON.toJSONString(params));
-        List<ExcelHeader> excelHeaders = JSONArray.parseArray(result.toString(), ExcelHeader.class);
+        List<ExcelHeader> excelHeaders = JSONArray.parseArray(json, ExcelHeader.class);
         return excelHeaders;
     }
 }
\ No newline at end of file
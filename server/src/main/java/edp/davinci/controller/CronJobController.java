@@ -24,6 +24,7 @@ import edp.core.annotation.CurrentUser;
 import edp.davinci.common.controller.BaseController;
 import edp.davinci.core.common.Constants;
 import edp.davinci.core.common.ResultMap;
+import edp.davinci.dto.cronJobDto.CronJobAdmission;
 import edp.davinci.dto.cronJobDto.CronJobBaseInfo;
 import edp.davinci.dto.cronJobDto.CronJobInfo;
 import edp.davinci.dto.cronJobDto.CronJobUpdate;
@@ -137,6 +138,29 @@ public class CronJobController extends BaseController {
     }
 
 
+    /**
+     * 获取 cronjob 的排队情况
+     *
+     * @param id
+     * @param user
+     * @param request
+     * @return
+     */
+    @ApiOperation(value = "get job admission")
+    @GetMapping("/{id}/admission")
+    public ResponseEntity getCronJobAdmission(@PathVariable Long id,
+                                              @ApiIgnore @CurrentUser User user,
+                                              HttpServletRequest request) {
+        if (invalidId(id)) {
+            ResultMap resultMap = new ResultMap(tokenUtils).failAndRefreshToken(request).message("Invalid cronjob id");
+            return ResponseEntity.status(resultMap.getCode()).body(resultMap);
+        }
+
+        CronJobAdmission admission = cronJobService.getCronJobAdmission(id, user);
+        return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request).payload(admission));
+    }
+
+
     /**
      * 更新 cron job
      *
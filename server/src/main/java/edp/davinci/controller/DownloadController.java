@@ -22,7 +22,7 @@ package edp.davinci.controller;
 import edp.core.annotation.AuthIgnore;
 import edp.core.annotation.AuthShare;
 import edp.core.annotation.CurrentUser;
-import edp.core.utils.FileUtils;
+import edp.core.utils.FileRangeUtils;
 import edp.davinci.common.controller.BaseController;
 import edp.davinci.core.common.Constants;
 import edp.davinci.core.common.ResultMap;
@@ -41,7 +41,6 @@ import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.tomcat.util.http.fileupload.util.Streams;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -52,7 +51,6 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
@@ -96,15 +94,11 @@ public class DownloadController extends BaseController {
                                                 HttpServletRequest request,
                                                 HttpServletResponse response) {
         DownloadRecord record = downloadService.downloadById(id, token);
-        FileInputStream is = null;
         try {
             encodeFileName(request, response, record.getName() + FileTypeEnum.XLSX.getFormat());
-            is = new FileInputStream(new File(record.getPath()));
-            Streams.copy(is, response.getOutputStream(), true);
+            FileRangeUtils.download(new File(record.getPath()), request, response);
         } catch (Exception e) {
             log.error("GetDownloadRecordFile error, id=" + id, e);
-        } finally {
-            FileUtils.closeCloseable(is);
         }
         return null;
     }
@@ -149,15 +143,11 @@ public class DownloadController extends BaseController {
                                                      HttpServletRequest request,
                                                      HttpServletResponse response) {
         ShareDownloadRecord record = shareDownloadService.downloadById(id, uuid);
-        FileInputStream is = null;
         try {
             encodeFileName(request, response, record.getName() + FileTypeEnum.XLSX.getFormat());
-            is = new FileInputStream(new File(record.getPath()));
-            Streams.copy(is, response.getOutputStream(), true);
+            FileRangeUtils.download(new File(record.getPath()), request, response);
         } catch (Exception e) {
             log.error("GetShareDownloadRecordFile error, id=" + id, e);
-        } finally {
-            FileUtils.closeCloseable(is);
         }
         return null;
     }
@@ -34,14 +34,20 @@ import edp.davinci.dto.viewDto.DistinctParam;
 import edp.davinci.dto.viewDto.ViewExecuteParam;
 import edp.davinci.model.User;
 import edp.davinci.service.ShareService;
+import edp.davinci.service.share.ShareFactor;
 import edp.davinci.service.share.ShareOperation;
+import edp.davinci.service.share.ShareResponseCache;
 import edp.davinci.service.share.ShareType;
+import edp.davinci.service.share.aspect.ShareAuthAspect;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.BindingResult;
@@ -49,10 +55,13 @@ import org.springframework.web.bind.annotation.*;
 import springfox.documentation.annotations.ApiIgnore;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
+import java.io.IOException;
 import java.sql.SQLException;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 
 @Api(value = "/share", tags = "share", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
@@ -66,6 +75,9 @@ public class ShareController extends BaseController {
     @Autowired
     private ShareService shareService;
 
+    @Autowired
+    private ShareResponseCache shareResponseCache;
+
     @ApiOperation(value = "share preflight")
     @AuthShare(type = ShareType.LOGIN)
     @GetMapping(value = "/preflight/{token}")
@@ -202,14 +214,24 @@ public class ShareController extends BaseController {
                                        @RequestParam(required = false) String password,
                                        @RequestBody(required = false) ViewExecuteParam executeParam,
                                        @ApiIgnore @CurrentUser User user,
-                                       HttpServletRequest request) throws SQLException {
+                                       HttpServletRequest request,
+                                       @ApiIgnore HttpServletResponse response) throws SQLException, IOException {
 
-        Paginate<Map<String, Object>> shareData = shareService.getShareData(executeParam, user);
-        if (null == user || user.getId() == null) {
-            return ResponseEntity.ok(new ResultMap().success().payload(shareData));
-        } else {
-            return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request).payload(shareData));
+        if (isAnyMatch(request)) {
+            return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
         }
+
+        ShareFactor shareFactor = ShareAuthAspect.SHARE_FACTOR_THREAD_LOCAL.get();
+        if (shareResponseCache.isCacheable(shareFactor, user)) {
+            String key = shareResponseCache.key(token, password, executeParam);
+            ShareResponseCache.CachedResponse cached = shareResponseCache.get(key,
+                    () -> new ResultMap().success().payload(shareService.getShareData(executeParam, user)));
+            writeCachedResponse(cached, shareFactor, request, response);
+            return null;
+        }
+
+        Paginate<Map<String, Object>> shareData = shareService.getShareData(executeParam, user);
+        return resultResponse(shareData, null != user && user.getId() != null, request);
     }
 
 
@@ -239,4 +261,34 @@ public class ShareController extends BaseController {
             return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request).payloads(resultList));
         }
     }
+
+    /**
+     * 直接输出缓存的序列化响应, If-None-Match 命中时返回304
+     * 只有普通模式的分享允许共享缓存, 其余只允许浏览器私有缓存
+     *
+     * @param cached
+     * @param shareFactor
+     * @param request
+     * @param response
+     * @throws IOException
+     */
+    private void writeCachedResponse(ShareResponseCache.CachedResponse cached, ShareFactor shareFactor,
+                                     HttpServletRequest request, HttpServletResponse response) throws IOException {
+        long maxAgeSeconds = shareResponseCache.getMaxAgeSeconds();
+        CacheControl cacheControl = maxAgeSeconds > 0 ? CacheControl.maxAge(maxAgeSeconds, TimeUnit.SECONDS) : CacheControl.noCache();
+        cacheControl = shareResponseCache.isPublic(shareFactor) ? cacheControl.cachePublic() : cacheControl.cachePrivate();
+
+        response.setHeader(HttpHeaders.ETAG, cached.getEtag());
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl.getHeaderValue());
+        if (isNotModified(request, cached.getEtag())) {
+            response.setStatus(HttpStatus.NOT_MODIFIED.value());
+            return;
+        }
+
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+        response.setContentLength(cached.getBody().length);
+        response.getOutputStream().write(cached.getBody());
+        response.flushBuffer();
+    }
 }
@@ -301,6 +301,36 @@ public class SourceController extends BaseController {
         return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request));
     }
 
+    /**
+     * 获取数据上传进度
+     *
+     * @param id
+     * @param tableName
+     * @param user
+     * @param request
+     * @return
+     */
+    @ApiOperation(value = "get upload progress")
+    @GetMapping("{id}/upload/progress")
+    public ResponseEntity getUploadProgress(@PathVariable Long id,
+                                            @RequestParam String tableName,
+                                            @ApiIgnore @CurrentUser User user,
+                                            HttpServletRequest request) {
+
+        if (invalidId(id)) {
+            ResultMap resultMap = new ResultMap(tokenUtils).failAndRefreshToken(request).message("Invalid source id");
+            return ResponseEntity.status(resultMap.getCode()).body(resultMap);
+        }
+
+        if (StringUtils.isEmpty(tableName)) {
+            ResultMap resultMap = new ResultMap(tokenUtils).failAndRefreshToken(request).message("Table name can not be empty");
+            return ResponseEntity.status(resultMap.getCode()).body(resultMap);
+        }
+
+        UploadProgress progress = sourceService.getUploadProgress(id, tableName, user);
+        return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request).payload(progress));
+    }
+
 
     /**
      * source 的数据库
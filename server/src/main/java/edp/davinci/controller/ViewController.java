@@ -241,7 +241,7 @@ public class ViewController extends BaseController {
         }
 
         Paginate<Map<String, Object>> paginate = viewService.getData(id, executeParam, user);
-        return ResponseEntity.ok().body(new ResultMap(tokenUtils).successAndRefreshToken(request).payload(paginate));
+        return resultResponse(paginate, true, request);
     }
 
 
@@ -30,7 +30,9 @@ public enum DownloadTaskStatus {
     PROCESSING((short) 1),
     SUCCESS((short) 2),
     FAILED((short) 3),
-    DOWNLOADED((short) 4);
+    DOWNLOADED((short) 4),
+    QUEUED((short) 5),
+    REJECTED((short) 6);
 
     private short status;
 
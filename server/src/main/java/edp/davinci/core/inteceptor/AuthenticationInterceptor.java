@@ -28,8 +28,8 @@ import edp.core.utils.TokenUtils;
 import edp.davinci.core.common.Constants;
 import edp.davinci.core.common.ErrorMsg;
 import edp.davinci.core.common.ResultMap;
+import edp.davinci.core.service.PrincipalCache;
 import edp.davinci.model.User;
-import edp.davinci.service.UserService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.method.HandlerMethod;
@@ -47,7 +47,7 @@ public class AuthenticationInterceptor implements HandlerInterceptor {
     private TokenUtils tokenUtils;
 
     @Autowired
-    private UserService userService;
+    private PrincipalCache principalCache;
 
     @Override
     public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
@@ -73,8 +73,8 @@ public class AuthenticationInterceptor implements HandlerInterceptor {
         AuthShare authShareMethod = method.getAnnotation(AuthShare.class);
         if (null != authShareMethod) {
             if (!StringUtils.isEmpty(token) && token.startsWith(Constants.TOKEN_PREFIX)) {
-                String username = tokenUtils.getUsername(token);
-                User user = userService.getByUsername(username);
+                String username = principalCache.getUsername(token);
+                User user = principalCache.getUser(username);
                 request.setAttribute(Constants.CURRENT_USER, user);
             }
             return true;
@@ -88,8 +88,8 @@ public class AuthenticationInterceptor implements HandlerInterceptor {
             response.getWriter().print(ErrorMsg.ERR_MSG_AUTHENTICATION);
             return false;
         }
-        String username = tokenUtils.getUsername(token);
-        User user = userService.getByUsername(username);
+        String username = principalCache.getUsername(token);
+        User user = principalCache.getUser(username);
         if (null == user) {
             if (!request.getServletPath().endsWith("/download/page")) {
                 log.debug("{} : token user not found", request.getServletPath());
@@ -99,7 +99,7 @@ public class AuthenticationInterceptor implements HandlerInterceptor {
             return false;
 
         }
-        if (!tokenUtils.validateToken(token, user)) {
+        if (!principalCache.validateToken(token, user)) {
             if (!request.getServletPath().endsWith("/download/page")) {
                 log.debug("{} : token validation fails", request.getServletPath());
             }
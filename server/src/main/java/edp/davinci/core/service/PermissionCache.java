@@ -0,0 +1,180 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.davinci.core.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import edp.core.utils.RedisUtils;
+import edp.davinci.core.model.RedisMessageEntity;
+import edp.davinci.service.impl.PermissionMessageHandler;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static edp.davinci.core.common.Constants.DAVINCI_TOPIC_CHANNEL;
+
+/**
+ * 权限判定缓存
+ * 缓存项目访问判定和用户在view上的角色权限, 角色、成员、项目、组织和view权限变更后整体失效, 集群下通过redis通知其他节点
+ */
+@Slf4j
+@Component
+public class PermissionCache {
+
+    private static final Object NULL = new Object();
+
+    @Value("${auth.permission-cache.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    @Value("${auth.permission-cache.max-size:20000}")
+    private long maxSize;
+
+    @Autowired
+    private RedisUtils redisUtils;
+
+    private final String nodeId = UUID.randomUUID().toString().replace("-", "");
+
+    // 失效计数, 加载期间发生失效的结果不写入缓存
+    private final AtomicLong generation = new AtomicLong(0);
+
+    private Cache<String, Object> decisions;
+
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    @PostConstruct
+    public void init() {
+        decisions = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(maxSize, 1))
+                .expireAfterWrite(Math.max(ttlSeconds, 1), TimeUnit.SECONDS)
+                .build();
+    }
+
+    public boolean isEnable() {
+        return ttlSeconds > 0;
+    }
+
+    public static String key(String type, Object... ids) {
+        StringBuilder builder = new StringBuilder(type);
+        for (Object id : ids) {
+            builder.append(":").append(id);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 获取判定结果, 未命中时加载, 加载抛出异常时不缓存
+     *
+     * @param key
+     * @param loader
+     * @param <T>
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key, Supplier<T> loader) {
+        if (!isEnable()) {
+            return loader.get();
+        }
+
+        Object value = decisions.getIfPresent(key);
+        if (value != null) {
+            return value == NULL ? null : (T) value;
+        }
+
+        long current = generation.get();
+        T result = loader.get();
+        if (current == generation.get()) {
+            decisions.put(key, result == null ? NULL : result);
+        }
+        return result;
+    }
+
+    /**
+     * 注册失效监听, 本节点或其他节点失效时调用
+     *
+     * @param listener
+     */
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * 权限相关数据变更后失效, 在事务结束后执行
+     */
+    public void invalidate() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    publish();
+                }
+            });
+        } else {
+            publish();
+        }
+    }
+
+    private void publish() {
+        invalidateLocal();
+        if (!redisUtils.isRedisEnable()) {
+            return;
+        }
+        try {
+            redisUtils.convertAndSend(DAVINCI_TOPIC_CHANNEL, new RedisMessageEntity(PermissionMessageHandler.class, nodeId, nodeId));
+        } catch (Exception e) {
+            log.warn("Publish permission invalidation error: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 失效本节点缓存, 来自本节点的通知忽略
+     *
+     * @param flag
+     */
+    public void invalidateLocal(String flag) {
+        if (nodeId.equals(flag)) {
+            return;
+        }
+        invalidateLocal();
+    }
+
+    private void invalidateLocal() {
+        generation.incrementAndGet();
+        decisions.invalidateAll();
+        for (Runnable listener : listeners) {
+            try {
+                listener.run();
+            } catch (Exception e) {
+                log.warn("Permission invalidation listener error: {}", e.getMessage());
+            }
+        }
+    }
+}
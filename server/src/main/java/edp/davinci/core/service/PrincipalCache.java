@@ -0,0 +1,247 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.davinci.core.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import edp.core.utils.RedisUtils;
+import edp.core.utils.TokenUtils;
+import edp.davinci.core.model.RedisMessageEntity;
+import edp.davinci.dao.UserMapper;
+import edp.davinci.model.User;
+import edp.davinci.service.impl.PrincipalMessageHandler;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static edp.davinci.core.common.Constants.DAVINCI_TOPIC_CHANNEL;
+
+/**
+ * 登录用户缓存
+ * 已验签的token只解析一次, token刷新后按用户名复用用户信息, 短时过期
+ * 修改密码、激活、修改资料和角色变更时失效, 集群下通过redis通知其他节点
+ */
+@Slf4j
+@Component
+public class PrincipalCache {
+
+    @Value("${auth.principal-cache.ttl-seconds:60}")
+    private long ttlSeconds;
+
+    @Value("${auth.principal-cache.max-size:10000}")
+    private long maxSize;
+
+    @Autowired
+    private TokenUtils tokenUtils;
+
+    @Autowired
+    private UserMapper userMapper;
+
+    @Autowired
+    private RedisUtils redisUtils;
+
+    private final String nodeId = UUID.randomUUID().toString().replace("-", "");
+
+    // 失效计数, 加载期间发生失效的用户不写入缓存
+    private final AtomicLong generation = new AtomicLong(0);
+
+    private Cache<String, Principal> tokens;
+
+    private Cache<String, User> users;
+
+    @PostConstruct
+    public void init() {
+        tokens = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(maxSize, 1))
+                .expireAfterWrite(Math.max(ttlSeconds, 1), TimeUnit.SECONDS)
+                .build();
+        users = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(maxSize, 1))
+                .expireAfterWrite(Math.max(ttlSeconds, 1), TimeUnit.SECONDS)
+                .build();
+    }
+
+    public boolean isEnable() {
+        return ttlSeconds > 0;
+    }
+
+    /**
+     * 解析 token 用户名
+     *
+     * @param token
+     * @return
+     */
+    public String getUsername(String token) {
+        Principal principal = getPrincipal(token);
+        return principal == null ? null : principal.username;
+    }
+
+    /**
+     * 获取用户, 返回副本
+     *
+     * @param username
+     * @return
+     */
+    public User getUser(String username) {
+        if (StringUtils.isEmpty(username)) {
+            return null;
+        }
+        if (!isEnable()) {
+            return userMapper.selectByUsername(username);
+        }
+
+        User user = users.getIfPresent(username);
+        if (user == null) {
+            long current = generation.get();
+            user = userMapper.selectByUsername(username);
+            if (user == null) {
+                return null;
+            }
+            if (current == generation.get()) {
+                users.put(username, user);
+            }
+        }
+        return copy(user);
+    }
+
+    /**
+     * 根据用户验证 token
+     *
+     * @param token
+     * @param user
+     * @return
+     */
+    public boolean validateToken(String token, User user) {
+        Principal principal = getPrincipal(token);
+        if (principal == null) {
+            return false;
+        }
+        return principal.username.equals(user.getUsername())
+                && principal.password != null && principal.password.equals(user.getPassword())
+                && (principal.expiration == null || principal.expiration.after(new Date()));
+    }
+
+    /**
+     * 用户信息变更后失效, 在事务提交后执行
+     *
+     * @param userId
+     */
+    public void invalidate(Long userId) {
+        if (userId == null) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    publish(userId);
+                }
+            });
+        } else {
+            publish(userId);
+        }
+    }
+
+    private void publish(Long userId) {
+        invalidateLocal(userId);
+        if (!redisUtils.isRedisEnable()) {
+            return;
+        }
+        try {
+            redisUtils.convertAndSend(DAVINCI_TOPIC_CHANNEL, new RedisMessageEntity(PrincipalMessageHandler.class, String.valueOf(userId), nodeId));
+        } catch (Exception e) {
+            log.warn("Publish principal invalidation of user({}) error: {}", userId, e.getMessage());
+        }
+    }
+
+    /**
+     * 失效本节点缓存, 来自本节点的通知忽略
+     *
+     * @param userId
+     * @param flag
+     */
+    public void invalidateLocal(Long userId, String flag) {
+        if (nodeId.equals(flag)) {
+            return;
+        }
+        invalidateLocal(userId);
+    }
+
+    private void invalidateLocal(Long userId) {
+        generation.incrementAndGet();
+        users.asMap().values().removeIf(user -> userId.equals(user.getId()));
+    }
+
+    private Principal getPrincipal(String token) {
+        if (StringUtils.isEmpty(token)) {
+            return null;
+        }
+        if (isEnable()) {
+            Principal principal = tokens.getIfPresent(token);
+            if (principal != null) {
+                return principal;
+            }
+        }
+
+        // 解析失败(验签不通过或已过期)时用户名为空, 不缓存
+        String username = tokenUtils.getUsername(token);
+        if (username == null) {
+            return null;
+        }
+        Principal principal = new Principal(username, tokenUtils.getPassword(token), tokenUtils.getExpirationDate(token));
+        if (isEnable()) {
+            tokens.put(token, principal);
+        }
+        return principal;
+    }
+
+    private static User copy(User user) {
+        User copy = new User();
+        BeanUtils.copyProperties(user, copy);
+        return copy;
+    }
+
+    private static class Principal {
+
+        private final String username;
+
+        private final String password;
+
+        private final Date expiration;
+
+        Principal(String username, String password, Date expiration) {
+            this.username = username;
+            this.password = password;
+            this.expiration = expiration;
+        }
+    }
+}
@@ -53,6 +53,41 @@ public class CsvUtils {
      */
     public static DataUploadEntity parseCsvWithFirstAsHeader(MultipartFile csvFile, String charsetName) throws ServerException {
 
+        DataUploadEntity dataUploadEntity = null;
+        CsvBatchReader reader = null;
+        try {
+            reader = openCsvWithFirstAsHeader(csvFile, charsetName);
+            if (null != reader.getHeaders()) {
+                List<Map<String, Object>> values = null;
+                List<Map<String, Object>> batch;
+                while (!(batch = reader.nextBatch(Integer.MAX_VALUE)).isEmpty()) {
+                    if (values == null) {
+                        values = new ArrayList<>();
+                    }
+                    values.addAll(batch);
+                }
+
+                dataUploadEntity = new DataUploadEntity();
+                dataUploadEntity.setHeaders(reader.getHeaders());
+                dataUploadEntity.setValues(values);
+            }
+        } finally {
+            FileUtils.closeCloseable(reader);
+        }
+
+        return dataUploadEntity;
+    }
+
+    /**
+     * 流式读取Csv, 第一行为列名, 第二行为列类型, 之后按批读取数据行
+     *
+     * @param csvFile
+     * @param charsetName
+     * @return
+     * @throws ServerException
+     */
+    public static CsvBatchReader openCsvWithFirstAsHeader(MultipartFile csvFile, String charsetName) throws ServerException {
+
         if (null == csvFile) {
             throw new ServerException("Invalid csv file");
         }
@@ -61,51 +96,94 @@ public class CsvUtils {
             throw new ServerException("Invalid csv file");
         }
 
-        DataUploadEntity dataUploadEntity = null;
         BufferedReader reader = null;
-        CSVParser csvParser = null;
         try {
             reader = new BufferedReader(new InputStreamReader(csvFile.getInputStream(), charsetName));
-            csvParser = new CSVParser(reader, CSVFormat.DEFAULT
+            CSVParser csvParser = new CSVParser(reader, CSVFormat.DEFAULT
                     .withFirstRecordAsHeader()
                     .withIgnoreHeaderCase()
                     .withTrim());
+            return new CsvBatchReader(csvParser);
+        } catch (Exception e) {
+            FileUtils.closeCloseable(reader);
+            throw new ServerException(e.getMessage());
+        }
+    }
+
+    public static class CsvBatchReader implements Closeable {
 
-            Set<String> csvHeaders = csvParser.getHeaderMap().keySet();
+        private final CSVParser csvParser;
 
-            List<CSVRecord> records = csvParser.getRecords();
-            List<Map<String, Object>> values = null;
-            Set<QueryColumn> headers = null;
+        private final Iterator<CSVRecord> iterator;
 
-            if (!CollectionUtils.isEmpty(records)) {
+        // 原始列名 -> 去除BOM后的列名
+        private final Map<String, String> columnNames = new LinkedHashMap<>();
+
+        private CSVRecord typeRecord;
+
+        private Set<QueryColumn> headers;
+
+        private long rowCount = 0L;
+
+        private CsvBatchReader(CSVParser csvParser) {
+            this.csvParser = csvParser;
+            this.iterator = csvParser.iterator();
+
+            for (String key : csvParser.getHeaderMap().keySet()) {
+                columnNames.put(key, key.replace("\uFEFF", EMPTY));
+            }
+
+            if (iterator.hasNext()) {
+                typeRecord = iterator.next();
                 headers = new HashSet<>();
-                for (String key : csvHeaders) {
-                    headers.add(new QueryColumn(key.replace("\uFEFF", EMPTY), SqlUtils.formatSqlType(records.get(0).get(key))));
-                }
-                if (records.size() > 1) {
-                    values = new ArrayList<>();
-                    for (int i = 1; i < records.size(); i++) {
-                        Map<String, Object> item = new HashMap<>();
-                        for (String key : csvHeaders) {
-                            item.put(key.replace("\uFEFF", EMPTY), SqlColumnEnum.formatValue(records.get(0).get(key), records.get(i).get(key)));
-                        }
-                        values.add(item);
-                    }
-                }
+                columnNames.forEach((key, name) -> headers.add(new QueryColumn(name, SqlUtils.formatSqlType(typeRecord.get(key)))));
+            }
+        }
 
-                dataUploadEntity = new DataUploadEntity();
-                dataUploadEntity.setHeaders(headers);
-                dataUploadEntity.setValues(values);
+        /**
+         * 列信息, 文件没有类型行时为 null
+         *
+         * @return
+         */
+        public Set<QueryColumn> getHeaders() {
+            return headers;
+        }
+
+        public long getRowCount() {
+            return rowCount;
+        }
+
+        /**
+         * 读取下一批数据, 读完时返回空列表
+         *
+         * @param batchSize
+         * @return
+         * @throws ServerException
+         */
+        public List<Map<String, Object>> nextBatch(int batchSize) throws ServerException {
+            List<Map<String, Object>> values = new ArrayList<>(Math.min(batchSize, 1024));
+            if (typeRecord == null) {
+                return values;
             }
 
-        } catch (Exception e) {
-            throw new ServerException(e.getMessage());
-        } finally {
-            FileUtils.closeCloseable(csvParser);
-            FileUtils.closeCloseable(reader);
+            try {
+                while (values.size() < batchSize && iterator.hasNext()) {
+                    CSVRecord record = iterator.next();
+                    Map<String, Object> item = new HashMap<>();
+                    columnNames.forEach((key, name) -> item.put(name, SqlColumnEnum.formatValue(typeRecord.get(key), record.get(key))));
+                    values.add(item);
+                }
+            } catch (Exception e) {
+                throw new ServerException(e.getMessage());
+            }
+            rowCount += values.size();
+            return values;
         }
 
-        return dataUploadEntity;
+        @Override
+        public void close() throws IOException {
+            csvParser.close();
+        }
     }
 
 
@@ -21,6 +21,7 @@ package edp.davinci.dao;
 
 import edp.davinci.model.DownloadRecord;
 import org.apache.ibatis.annotations.Delete;
+import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
 import org.apache.ibatis.annotations.Update;
 import org.springframework.stereotype.Component;
@@ -54,12 +55,33 @@ public interface DownloadRecordMapper {
     })
     List<DownloadRecord> getDownloadRecordsByUser(Long userId);
 
+    @Select({
+            "select path from download_record where path is not null and create_time > DATE_FORMAT((NOW() - INTERVAL #{days} DAY),'%Y%m%d')"
+    })
+    List<String> getRecentPaths(@Param("days") int days);
+
     @Update({
             "update download_record",
             "set path = #{path,jdbcType=VARCHAR},",
             "status = #{status,jdbcType=SMALLINT},",
-            "last_download_time = #{lastDownloadTime,jdbcType=TIMESTAMP}",
+            "last_download_time = #{lastDownloadTime,jdbcType=TIMESTAMP},",
+            "exported_rows = #{exportedRows,jdbcType=BIGINT}",
             "where id = #{id,jdbcType=BIGINT}"
     })
     int updateById(DownloadRecord downloadRecord);
-}
\ No newline at end of file
+
+    @Update({
+            "update download_record",
+            "set status = #{status,jdbcType=SMALLINT},",
+            "exported_rows = #{exportedRows,jdbcType=BIGINT}",
+            "where id = #{id,jdbcType=BIGINT}"
+    })
+    int updateProgress(@Param("id") Long id, @Param("status") Short status, @Param("exportedRows") Long exportedRows);
+
+    @Update({
+            "update download_record",
+            "set status = #{status,jdbcType=SMALLINT}",
+            "where path = #{path,jdbcType=VARCHAR}"
+    })
+    int updateStatusByPath(@Param("path") String path, @Param("status") Short status);
+}
@@ -45,6 +45,14 @@ public interface RelRoleDashboardMapper {
     })
     List<RoleDisableViz> getDisableByUser(@Param("userId") Long userId, @Param("portalId") Long portalId);
 
+    @Select({
+            "select rrd.role_id as roleId, rrd.dashboard_id as vizId",
+            "from rel_role_dashboard rrd",
+            "   inner join dashboard d on d.id  = rrd.dashboard_id",
+            "where rrd.visible = 0 and d.dashboard_portal_id = #{portalId}"
+    })
+    List<RoleDisableViz> getDisableByPortal(@Param("portalId") Long portalId);
+
     @Select("select role_id from rel_role_dashboard where dashboard_id = #{dashboardId} and visible = 0")
     List<Long> getExcludeRoles(@Param("dashboardId") Long dashboardId);
 
@@ -49,6 +49,14 @@ public interface RelRoleDisplayMapper {
     })
     List<RoleDisableViz> getDisableDisplayByUser(@Param("userId") Long userId, @Param("projectId") Long projectId);
 
+    @Select({
+            "select rrd.role_id as roleId, rrd.display_id as vizId",
+            "from rel_role_display rrd",
+            "       inner join display d on d.id = rrd.display_id",
+            "where rrd.visible = 0 and d.project_id = #{projectId}"
+    })
+    List<RoleDisableViz> getDisableDisplayByProject(@Param("projectId") Long projectId);
+
     @Select({
             "select role_id from rel_role_display where display_id = #{display_id} and visible = 0"
     })
@@ -45,6 +45,14 @@ public interface RelRolePortalMapper {
     })
     List<RoleDisableViz> getDisablePortalByUser(@Param("userId") Long userId, @Param("projectId") Long projectId);
 
+    @Select({
+            "select rrp.role_id as roleId, rrp.portal_id as vizId",
+            "from rel_role_portal rrp",
+            "       inner join dashboard_portal p on p.id = rrp.portal_id",
+            "where rrp.visible = 0 and p.project_id = #{projectId}"
+    })
+    List<RoleDisableViz> getDisablePortalByProject(@Param("projectId") Long projectId);
+
     @Delete({"delete from rel_role_portal where portal_id = #{portalId}"})
     int deleteByPortalId(@Param("portalId") Long portalId);
 
@@ -48,6 +48,14 @@ public interface RelRoleSlideMapper {
     })
     List<RoleDisableViz> getDisableSlides(@Param("userId") Long userId, @Param("displayId") Long displayId);
 
+    @Select({
+            "select rrs.role_id as roleId, rrs.slide_id as vizId",
+            "from rel_role_slide rrs",
+            "inner join display_slide s on s.id = rrs.slide_id",
+            "where rrs.visible = 0 and s.display_id = #{displayId}"
+    })
+    List<RoleDisableViz> getDisableSlidesByDisplay(@Param("displayId") Long displayId);
+
     @Select({
             "select role_id from rel_role_slide where slide_id = #{slideId} and visible = 0"
     })
@@ -76,5 +76,10 @@ public interface RelRoleUserMapper {
     })
     List<Long> getUserIdsByRoleId(Long roleId);
 
+    @Select({
+            "select role_id from rel_role_user where user_id = #{userId}"
+    })
+    List<Long> getRoleIdsByUserId(@Param("userId") Long userId);
+
     int deleteByRoleIdAndMemberIds(@Param("roleId") Long roleId, @Param("userIds") List<Long> userIds);
 }
\ No newline at end of file
@@ -100,6 +100,26 @@ public interface RoleMapper {
     })
     List<Long> getRolesByUserAndProject(@Param("userId") Long userId, @Param("projectId") Long projectId);
 
+    @Select({
+            "SELECT DISTINCT rrp.role_id FROM rel_role_project rrp",
+            "WHERE rrp.project_id = #{projectId}"
+    })
+    List<Long> getRolesByProject(@Param("projectId") Long projectId);
+
+    @Select({
+            "SELECT DISTINCT rrp.role_id FROM rel_role_project rrp",
+            "INNER JOIN dashboard_portal p on p.project_id = rrp.project_id",
+            "WHERE p.id = #{portalId}"
+    })
+    List<Long> getRolesByPortal(@Param("portalId") Long portalId);
+
+    @Select({
+            "SELECT DISTINCT rrp.role_id FROM rel_role_project rrp",
+            "INNER JOIN display d on d.project_id = rrp.project_id",
+            "WHERE d.id = #{displayId}"
+    })
+    List<Long> getRolesByDisplay(@Param("displayId") Long displayId);
+
     @Select({
             "SELECT r.* FROM role r",
             "LEFT JOIN rel_role_user rru on rru.role_id = r.id",
@@ -47,15 +47,29 @@ public interface ShareDownloadRecordMapper {
     })
     List<ShareDownloadRecord> getShareDownloadRecordsByUuid(@Param("uuid") String uuid);
 
+    @Select({
+            "SELECT path FROM share_download_record WHERE path IS NOT NULL and create_time > DATE_FORMAT((NOW() - INTERVAL #{days} DAY),'%Y%m%d')"
+    })
+    List<String> getRecentPaths(@Param("days") int days);
+
     @Update({
             "update share_download_record",
             "set path = #{path,jdbcType=VARCHAR},",
             "status = #{status,jdbcType=SMALLINT},",
-            "last_download_time = #{lastDownloadTime,jdbcType=TIMESTAMP}",
+            "last_download_time = #{lastDownloadTime,jdbcType=TIMESTAMP},",
+            "exported_rows = #{exportedRows,jdbcType=BIGINT}",
             "where id = #{id,jdbcType=BIGINT}"
     })
     int updateById(ShareDownloadRecord record);
 
+    @Update({
+            "update share_download_record",
+            "set status = #{status,jdbcType=SMALLINT},",
+            "exported_rows = #{exportedRows,jdbcType=BIGINT}",
+            "where id = #{id,jdbcType=BIGINT}"
+    })
+    int updateProgress(@Param("id") Long id, @Param("status") Short status, @Param("exportedRows") Long exportedRows);
+
     @Select({"SELECT * FROM share_download_record WHERE id NOT IN\n" +
             "(\n" +
             "    SELECT tmp.id\n" +
@@ -79,4 +93,10 @@ public interface ShareDownloadRecordMapper {
             ")\n"})
     List<ShareDownloadRecord> getShareDownloadRecords();
 
-}
\ No newline at end of file
+    @Update({
+            "update share_download_record",
+            "set status = #{status,jdbcType=SMALLINT}",
+            "where path = #{path,jdbcType=VARCHAR}"
+    })
+    int updateStatusByPath(@Param("path") String path, @Param("status") Short status);
+}
@@ -0,0 +1,46 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.dto.cronJobDto;
+
+import lombok.Data;
+
+import java.util.Date;
+
+@Data
+public class CronJobAdmission {
+
+    private Long jobId;
+
+    // WAITING, RUNNING
+    private String state;
+
+    // 等待队列中的位置, 从1开始, 运行中为0
+    private int position;
+
+    private int waiting;
+
+    private int running;
+
+    private Date firedTime;
+
+    private Date expectedStartTime;
+
+    private Date deadline;
+}
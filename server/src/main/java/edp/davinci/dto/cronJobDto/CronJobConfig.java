@@ -35,5 +35,8 @@ public class CronJobConfig {
     private String webHookUrl;
 
     private Integer imageWidth;
+
+    // 触发高峰时优先调度, 越大越优先, 取值 0~10
+    private Integer priority;
     private List<CronJobContent> contentList;
 }
@@ -0,0 +1,50 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.davinci.dto.sourceDto;
+
+import lombok.Data;
+
+/**
+ * 数据上传进度
+ */
+@Data
+public class UploadProgress {
+
+    public static final String RUNNING = "running";
+
+    public static final String SUCCESS = "success";
+
+    public static final String FAILED = "failed";
+
+    private String tableName;
+
+    private String status;
+
+    private long rows;
+
+    private long rowsPerSecond;
+
+    private long startTime;
+
+    private long updateTime;
+
+    private String error;
+}
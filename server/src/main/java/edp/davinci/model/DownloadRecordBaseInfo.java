@@ -37,4 +37,6 @@ public class DownloadRecordBaseInfo {
     private Date createTime;
 
     private Date lastDownloadTime;
+
+    private Long exportedRows;
 }
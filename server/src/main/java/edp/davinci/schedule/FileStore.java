@@ -0,0 +1,352 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.schedule;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import edp.core.consts.Consts;
+import edp.core.utils.FileUtils;
+import edp.davinci.core.enums.DownloadTaskStatus;
+import edp.davinci.core.enums.FileTypeEnum;
+import edp.davinci.dao.DownloadRecordMapper;
+import edp.davinci.dao.ShareDownloadRecordMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 导出文件和截图等临时文件的磁盘管理
+ * 定期扫描下载、分享下载、邮件、临时和 csv 目录, 删除超过保留期的文件;
+ * 占用超过配额时按最近访问时间淘汰, 被下载记录引用的文件最后淘汰, 新生成的文件在最短保留时间内不淘汰;
+ * 被引用的文件删除时, 同时将下载记录置为失败
+ */
+@Slf4j
+@Component
+public class FileStore {
+
+    // 超出配额时淘汰到配额的此比例以下
+    private static final double LOW_WATERMARK = 0.9;
+
+    @Value("${file.store.quota-mb:10240}")
+    private long quotaMb;
+
+    @Value("${file.store.sweep-seconds:60}")
+    private int sweepSeconds;
+
+    @Value("${file.store.min-age-seconds:600}")
+    private int minAgeSeconds;
+
+    @Value("${file.store.download-retain-days:7}")
+    private int downloadRetainDays;
+
+    @Value("${file.store.share-download-retain-days:2}")
+    private int shareDownloadRetainDays;
+
+    @Value("${file.store.temp-retain-hours:24}")
+    private int tempRetainHours;
+
+    @Autowired
+    private FileUtils fileUtils;
+
+    @Autowired
+    private DownloadRecordMapper downloadRecordMapper;
+
+    @Autowired
+    private ShareDownloadRecordMapper shareDownloadRecordMapper;
+
+    private final List<Root> roots = new ArrayList<>();
+
+    // 下载时记录的访问时间, 其余文件以修改时间为准
+    private final Map<String, Long> accessTimes = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService sweeper;
+
+    private volatile Map<String, Object> metrics = new LinkedHashMap<>();
+
+    private long evictedFiles = 0;
+
+    private long evictedBytes = 0;
+
+    @PostConstruct
+    public void init() {
+        String base = fileUtils.fileBasePath;
+        roots.add(new Root("download", new File(base + Consts.DIR_DOWNLOAD), TimeUnit.DAYS.toMillis(downloadRetainDays)));
+        roots.add(new Root("share_download", new File(base + Consts.DIR_SHARE_DOWNLOAD), TimeUnit.DAYS.toMillis(shareDownloadRetainDays)));
+        roots.add(new Root("email", new File(base + Consts.DIR_EMAIL), TimeUnit.HOURS.toMillis(tempRetainHours)));
+        roots.add(new Root("temp", new File(base + Consts.DIR_TEMP), TimeUnit.HOURS.toMillis(tempRetainHours)));
+        roots.add(new Root("csv", new File(base + File.separator + FileTypeEnum.CSV.getType()), TimeUnit.HOURS.toMillis(tempRetainHours)));
+
+        sweeper = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("File-store-sweeper-%d").setDaemon(true).build());
+        sweeper.scheduleWithFixedDelay(() -> {
+            try {
+                sweep();
+            } catch (Exception e) {
+                log.error("File store sweep error", e);
+            }
+        }, sweepSeconds, Math.max(sweepSeconds, 1), TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        sweeper.shutdownNow();
+    }
+
+    /**
+     * 记录文件被访问, 用于按最近访问时间淘汰
+     *
+     * @param path
+     */
+    public void touch(String path) {
+        if (!StringUtils.isEmpty(path)) {
+            accessTimes.put(new File(path).getAbsolutePath(), System.currentTimeMillis());
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        return metrics;
+    }
+
+    synchronized void sweep() {
+        long start = System.currentTimeMillis();
+        long minAgeMillis = minAgeSeconds * 1000L;
+        Map<String, Set<String>> refs = loadRefs();
+
+        List<Entry> entries = new ArrayList<>();
+        Map<String, Long> rootBytes = new LinkedHashMap<>();
+        int expiredFiles = 0;
+        long expiredBytes = 0;
+        for (Root root : roots) {
+            List<File> files = new ArrayList<>();
+            listFiles(root.dir, files);
+            long bytes = 0;
+            for (File file : files) {
+                String path = file.getAbsolutePath();
+                long modified = file.lastModified();
+                long size = file.length();
+                // 超过保留期
+                if (start - modified > root.retainMillis) {
+                    if (file.delete()) {
+                        expiredFiles++;
+                        expiredBytes += size;
+                        accessTimes.remove(path);
+                        expireRecords(refs.get(path));
+                    }
+                    continue;
+                }
+                Long accessed = accessTimes.get(path);
+                entries.add(new Entry(file, size, modified, accessed == null ? modified : Math.max(accessed, modified), refs.get(path)));
+                bytes += size;
+            }
+            rootBytes.put(root.name, bytes);
+        }
+
+        long used = entries.stream().mapToLong(e -> e.size).sum();
+        long quota = quotaMb * 1024 * 1024;
+        int lruFiles = 0;
+        long lruBytes = 0;
+        if (quota > 0 && used > quota) {
+            // 先淘汰未被引用的, 再按最近访问时间
+            List<Entry> candidates = new ArrayList<>();
+            for (Entry entry : entries) {
+                if (start - entry.modified >= minAgeMillis) {
+                    candidates.add(entry);
+                }
+            }
+            candidates.sort(Comparator.comparing((Entry e) -> e.isReferenced()).thenComparingLong(e -> e.accessed));
+
+            long target = (long) (quota * LOW_WATERMARK);
+            for (Entry entry : candidates) {
+                if (used <= target) {
+                    break;
+                }
+                if (entry.file.delete()) {
+                    used -= entry.size;
+                    lruFiles++;
+                    lruBytes += entry.size;
+                    accessTimes.remove(entry.file.getAbsolutePath());
+                    expireRecords(entry.recordPaths);
+                }
+            }
+            if (used > quota) {
+                log.warn("File store usage {} bytes still exceeds quota {} bytes, files younger than {}s are kept", used, quota, minAgeSeconds);
+            }
+        }
+
+        for (Root root : roots) {
+            deleteEmptyDirs(root.dir, true, start - minAgeMillis);
+        }
+
+        // 清理已删除文件的访问时间
+        Set<String> paths = new HashSet<>();
+        entries.forEach(entry -> paths.add(entry.file.getAbsolutePath()));
+        accessTimes.keySet().retainAll(paths);
+
+        evictedFiles += expiredFiles + lruFiles;
+        evictedBytes += expiredBytes + lruBytes;
+
+        Map<String, Object> current = new LinkedHashMap<>();
+        current.put("quotaBytes", quota);
+        current.put("usedBytes", used);
+        current.put("files", entries.size() - lruFiles);
+        current.put("referencedFiles", entries.stream().filter(Entry::isReferenced).count());
+        current.put("rootBytes", rootBytes);
+        current.put("usableBytes", new File(fileUtils.fileBasePath).getUsableSpace());
+        current.put("evictedFiles", evictedFiles);
+        current.put("evictedBytes", evictedBytes);
+        current.put("lastSweepCost", System.currentTimeMillis() - start);
+        metrics = current;
+
+        if (expiredFiles + lruFiles > 0) {
+            log.info("File store swept, expired:{}({} bytes), evicted:{}({} bytes), metrics:{}",
+                    expiredFiles, expiredBytes, lruFiles, lruBytes, current);
+        }
+    }
+
+    /**
+     * 下载记录引用的文件
+     *
+     * @return 文件绝对路径对应记录中的路径
+     */
+    private Map<String, Set<String>> loadRefs() {
+        Map<String, Set<String>> refs = new HashMap<>();
+        List<String> paths = new ArrayList<>();
+        try {
+            paths.addAll(downloadRecordMapper.getRecentPaths(downloadRetainDays));
+            paths.addAll(shareDownloadRecordMapper.getRecentPaths(shareDownloadRetainDays));
+        } catch (Exception e) {
+            log.warn("File store load download record paths error: {}", e.getMessage());
+        }
+        for (String path : paths) {
+            if (!StringUtils.isEmpty(path)) {
+                refs.computeIfAbsent(new File(path).getAbsolutePath(), k -> new HashSet<>()).add(path);
+            }
+        }
+        return refs;
+    }
+
+    /**
+     * 文件已删除, 引用它的下载记录置为失败, 避免留下无法下载的成功记录
+     *
+     * @param recordPaths
+     */
+    private void expireRecords(Set<String> recordPaths) {
+        if (recordPaths == null) {
+            return;
+        }
+        short status = DownloadTaskStatus.FAILED.getStatus();
+        for (String path : recordPaths) {
+            try {
+                int updated = downloadRecordMapper.updateStatusByPath(path, status)
+                        + shareDownloadRecordMapper.updateStatusByPath(path, status);
+                log.info("File store expired referenced file {}, records:{}", path, updated);
+            } catch (Exception e) {
+                log.warn("File store expire download records of {} error: {}", path, e.getMessage());
+            }
+        }
+    }
+
+    private static void listFiles(File dir, List<File> files) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                listFiles(child, files);
+            } else if (child.isFile()) {
+                files.add(child);
+            }
+        }
+    }
+
+    /**
+     * 删除空目录, 刚创建的目录可能即将写入文件, 不删除
+     *
+     * @param dir
+     * @param root
+     * @param before
+     * @return 目录是否已删除
+     */
+    private static boolean deleteEmptyDirs(File dir, boolean root, long before) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return false;
+        }
+        boolean empty = true;
+        for (File child : children) {
+            if (!child.isDirectory() || !deleteEmptyDirs(child, false, before)) {
+                empty = false;
+            }
+        }
+        return empty && !root && dir.lastModified() < before && dir.delete();
+    }
+
+    private static class Root {
+
+        private final String name;
+
+        private final File dir;
+
+        private final long retainMillis;
+
+        Root(String name, File dir, long retainMillis) {
+            this.name = name;
+            this.dir = dir;
+            this.retainMillis = retainMillis;
+        }
+    }
+
+    private static class Entry {
+
+        private final File file;
+
+        private final long size;
+
+        private final long modified;
+
+        private final long accessed;
+
+        // 引用该文件的下载记录中的路径
+        private final Set<String> recordPaths;
+
+        Entry(File file, long size, long modified, long accessed, Set<String> recordPaths) {
+            this.file = file;
+            this.size = size;
+            this.modified = modified;
+            this.accessed = accessed;
+            this.recordPaths = recordPaths;
+        }
+
+        boolean isReferenced() {
+            return recordPaths != null;
+        }
+    }
+}
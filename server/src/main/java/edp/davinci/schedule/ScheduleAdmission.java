@@ -0,0 +1,345 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.schedule;
+
+import com.alibaba.fastjson.JSON;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import edp.core.model.ScheduleJob;
+import edp.core.utils.DateUtils;
+import edp.davinci.core.enums.LogNameEnum;
+import edp.davinci.dao.CronJobMapper;
+import edp.davinci.dto.cronJobDto.CronJobAdmission;
+import edp.davinci.dto.cronJobDto.CronJobConfig;
+import edp.davinci.model.CronJob;
+import edp.davinci.service.excel.ExecutorUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 定时任务准入
+ * 同时运行的任务数受限, 高峰时触发的任务在窗口内随机延后开始, 按优先级和截止时间出队
+ * 截止时间为触发时间加窗口, 超过截止时间的任务最先出队
+ */
+@Slf4j
+@Component
+public class ScheduleAdmission {
+
+    private static final Logger scheduleLogger = LoggerFactory.getLogger(LogNameEnum.BUSINESS_SCHEDULE.getName());
+
+    private static final String WAITING = "WAITING";
+
+    private static final String RUNNING = "RUNNING";
+
+    // 估算开始时间用的平均执行时长初始值
+    private static final long DEFAULT_DURATION_MILLIS = 60_000L;
+
+    // 优先级高的先出队, 其次截止时间早的
+    private static final Comparator<Entry> ORDER = Comparator.comparingInt((Entry e) -> -e.priority)
+            .thenComparingLong(e -> e.deadline)
+            .thenComparingLong(e -> e.sequence);
+
+    // 优先级取值上限
+    private static final int MAX_PRIORITY = 10;
+
+    // JOB_WORKERS 中留给手动执行等任务的线程数
+    private static final int RESERVED_WORKERS = 2;
+
+    @Value("${schedule.admission.max-running:6}")
+    private int maxRunning;
+
+    @Value("${schedule.admission.window-seconds:300}")
+    private int windowSeconds;
+
+    @Autowired
+    private CronJobMapper cronJobMapper;
+
+    private final List<Entry> waiting = new ArrayList<>();
+
+    private final Map<Long, Entry> running = new HashMap<>();
+
+    private long sequence = 0;
+
+    private volatile double avgDurationMillis = DEFAULT_DURATION_MILLIS;
+
+    private Thread dispatcher;
+
+    private volatile boolean stopped = false;
+
+    @PostConstruct
+    public void init() {
+        int limit = ExecutorUtils.JOB_WORKERS_SIZE - RESERVED_WORKERS;
+        if (maxRunning > limit || maxRunning < 1) {
+            scheduleLogger.warn("schedule.admission.max-running({}) is out of range, use {}", maxRunning, limit);
+            maxRunning = limit;
+        }
+        dispatcher = new ThreadFactoryBuilder().setNameFormat("Schedule-admission-%d").setDaemon(true).build()
+                .newThread(this::dispatchLoop);
+        dispatcher.start();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        stopped = true;
+        dispatcher.interrupt();
+    }
+
+    /**
+     * 提交触发的任务, 同一任务已在等待时合并
+     *
+     * @param scheduleJob
+     * @param task
+     */
+    public void admit(ScheduleJob scheduleJob, Runnable task) {
+        long now = System.currentTimeMillis();
+        int priority = getPriority(scheduleJob);
+        long windowMillis = windowSeconds * 1000L;
+
+        Entry entry;
+        int backlog;
+        synchronized (this) {
+            for (Entry e : waiting) {
+                if (e.jobId.equals(scheduleJob.getId())) {
+                    scheduleLogger.warn("ScheduleJob({}) is still waiting since {}, skipped", e.jobId, DateUtils.toyyyyMMddHHmmss(e.firedTime));
+                    return;
+                }
+            }
+
+            backlog = running.size() + waiting.size();
+            long jitter = 0L;
+            if (windowMillis > 0 && backlog >= maxRunning) {
+                // 高峰时在窗口内随机延后, 优先级越高延后越少
+                jitter = ThreadLocalRandom.current().nextLong(Math.max(1L, windowMillis / (1 + priority)));
+            }
+            entry = new Entry(scheduleJob.getId(), priority, now, now + jitter, now + windowMillis, sequence++, task);
+            waiting.add(entry);
+            notifyAll();
+        }
+
+        if (backlog >= maxRunning) {
+            CronJobAdmission admission = getAdmission(entry.jobId);
+            if (admission != null && WAITING.equals(admission.getState())) {
+                String message = "Waiting for admission, position:" + admission.getPosition() + "/" + admission.getWaiting()
+                        + ", expected start:" + DateUtils.toyyyyMMddHHmmss(admission.getExpectedStartTime());
+                scheduleLogger.info("ScheduleJob({}) {}", entry.jobId, message);
+                try {
+                    cronJobMapper.updateExecLog(entry.jobId, message);
+                } catch (Exception e) {
+                    log.warn("ScheduleJob({}) update exec log error: {}", entry.jobId, e.getMessage());
+                }
+            }
+        }
+    }
+
+    public synchronized int getWaitingCount() {
+        return waiting.size();
+    }
+
+    public synchronized int getRunningCount() {
+        return running.size();
+    }
+
+    /**
+     * 任务在本节点的排队情况
+     *
+     * @param jobId
+     * @return 不在队列中时返回 null
+     */
+    public synchronized CronJobAdmission getAdmission(Long jobId) {
+        long now = System.currentTimeMillis();
+
+        Entry current = running.get(jobId);
+        if (current != null) {
+            return toAdmission(current, RUNNING, 0, new Date(current.startTime));
+        }
+
+        List<Entry> ordered = new ArrayList<>(waiting);
+        ordered.sort(Comparator.comparingLong((Entry e) -> Math.max(Math.min(e.notBefore, e.deadline), now))
+                .thenComparing(ORDER));
+        for (int i = 0; i < ordered.size(); i++) {
+            Entry entry = ordered.get(i);
+            if (!entry.jobId.equals(jobId)) {
+                continue;
+            }
+            // 前面的任务按平均时长依次占用空闲的运行槽
+            int free = Math.max(maxRunning - running.size(), 0);
+            long expected = now;
+            if (i >= free) {
+                long rounds = (i - free) / Math.max(maxRunning, 1) + 1;
+                expected = now + (long) (rounds * avgDurationMillis);
+            }
+            expected = Math.max(expected, Math.min(entry.notBefore, entry.deadline));
+            return toAdmission(entry, WAITING, i + 1, new Date(expected));
+        }
+        return null;
+    }
+
+    private CronJobAdmission toAdmission(Entry entry, String state, int position, Date expectedStartTime) {
+        CronJobAdmission admission = new CronJobAdmission();
+        admission.setJobId(entry.jobId);
+        admission.setState(state);
+        admission.setPosition(position);
+        admission.setWaiting(waiting.size());
+        admission.setRunning(running.size());
+        admission.setFiredTime(new Date(entry.firedTime));
+        admission.setExpectedStartTime(expectedStartTime);
+        admission.setDeadline(new Date(entry.deadline));
+        return admission;
+    }
+
+    private void dispatchLoop() {
+        while (!stopped) {
+            try {
+                Entry entry = take();
+                try {
+                    ExecutorUtils.getJobWorkers().execute(() -> {
+                        try {
+                            entry.task.run();
+                        } finally {
+                            finish(entry);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    scheduleLogger.error("ScheduleJob({}) rejected by job workers", entry.jobId);
+                    finish(entry);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("Schedule admission dispatch error", e);
+            }
+        }
+    }
+
+    /**
+     * 等待运行槽和到期的任务, 取优先级最高的一个
+     *
+     * @return
+     * @throws InterruptedException
+     */
+    private synchronized Entry take() throws InterruptedException {
+        while (true) {
+            long now = System.currentTimeMillis();
+            long wakeUp = Long.MAX_VALUE;
+            Entry best = null;
+            if (running.size() < maxRunning) {
+                for (Entry entry : waiting) {
+                    // 同一任务不并发执行
+                    if (running.containsKey(entry.jobId)) {
+                        continue;
+                    }
+                    long readyTime = Math.min(entry.notBefore, entry.deadline);
+                    if (readyTime > now) {
+                        wakeUp = Math.min(wakeUp, readyTime);
+                        continue;
+                    }
+                    if (best == null || compare(entry, best, now) < 0) {
+                        best = entry;
+                    }
+                }
+            }
+
+            if (best != null) {
+                waiting.remove(best);
+                best.startTime = now;
+                running.put(best.jobId, best);
+                if (now - best.firedTime > 1000L) {
+                    scheduleLogger.info("ScheduleJob({}) admitted after {}ms, waiting:{}, running:{}",
+                            best.jobId, now - best.firedTime, waiting.size(), running.size());
+                }
+                return best;
+            }
+
+            if (wakeUp == Long.MAX_VALUE) {
+                wait();
+            } else {
+                wait(Math.max(wakeUp - now, 1L));
+            }
+        }
+    }
+
+    private synchronized void finish(Entry entry) {
+        running.remove(entry.jobId);
+        long duration = System.currentTimeMillis() - entry.startTime;
+        avgDurationMillis = avgDurationMillis * 0.8 + duration * 0.2;
+        notifyAll();
+    }
+
+    private static int compare(Entry a, Entry b, long now) {
+        boolean aOverdue = a.deadline <= now;
+        boolean bOverdue = b.deadline <= now;
+        if (aOverdue != bOverdue) {
+            return aOverdue ? -1 : 1;
+        }
+        return ORDER.compare(a, b);
+    }
+
+    private static int getPriority(ScheduleJob scheduleJob) {
+        if (!(scheduleJob instanceof CronJob) || StringUtils.isEmpty(((CronJob) scheduleJob).getConfig())) {
+            return 0;
+        }
+        try {
+            CronJobConfig config = JSON.parseObject(((CronJob) scheduleJob).getConfig(), CronJobConfig.class);
+            return config.getPriority() == null ? 0 : Math.min(Math.max(config.getPriority(), 0), MAX_PRIORITY);
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    private static class Entry {
+
+        private final Long jobId;
+
+        private final int priority;
+
+        private final long firedTime;
+
+        private final long notBefore;
+
+        private final long deadline;
+
+        private final long sequence;
+
+        private final Runnable task;
+
+        private long startTime;
+
+        Entry(Long jobId, int priority, long firedTime, long notBefore, long deadline, long sequence, Runnable task) {
+            this.jobId = jobId;
+            this.priority = priority;
+            this.firedTime = firedTime;
+            this.notBefore = notBefore;
+            this.deadline = deadline;
+            this.sequence = sequence;
+            this.task = task;
+        }
+    }
+}
@@ -0,0 +1,474 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.schedule;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import edp.core.common.quartz.QuartzJobExecutor;
+import edp.core.exception.ServerException;
+import edp.core.model.ScheduleJob;
+import edp.core.utils.CollectionUtils;
+import edp.core.utils.QuartzHandler;
+import edp.core.utils.RedisUtils;
+import edp.davinci.core.enums.LogNameEnum;
+import edp.davinci.core.model.RedisMessageEntity;
+import edp.davinci.dao.CronJobMapper;
+import edp.davinci.model.CronJob;
+import edp.davinci.service.impl.ScheduleMessageHandler;
+import lombok.extern.slf4j.Slf4j;
+import org.quartz.SchedulerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static edp.davinci.core.common.Constants.DAVINCI_TOPIC_CHANNEL;
+
+/**
+ * 定时任务集群分片
+ * 节点通过redis心跳维护成员列表, 任务按一致性哈希只在所属节点注册触发器, 成员变化时重新分配
+ * 所属节点的准入队列积压时, 触发的任务转交给负载最低的节点执行
+ */
+@Slf4j
+@Component
+public class ScheduleCluster {
+
+    private static final Logger scheduleLogger = LoggerFactory.getLogger(LogNameEnum.BUSINESS_SCHEDULE.getName());
+
+    private static final String NODES_KEY = "davinci:schedule:nodes";
+
+    private static final String LOADS_KEY = "davinci:schedule:loads";
+
+    private static final String VERSION_KEY_PREFIX = "davinci:schedule:version:";
+
+    // 连续多少个心跳周期未更新视为节点离开
+    private static final int HEARTBEAT_MISSES = 3;
+
+    // 每隔多少个心跳周期按数据库全量校对一次触发器
+    private static final int RECONCILE_HEARTBEATS = 6;
+
+    static final String ACTION_SCHEDULE = "schedule";
+
+    static final String ACTION_UNSCHEDULE = "unschedule";
+
+    static final String ACTION_EXECUTE = "execute";
+
+    static final String ACTION_ACK = "ack";
+
+    @Value("${schedule.cluster.enable:false}")
+    private boolean enable;
+
+    @Value("${schedule.cluster.heartbeat-seconds:10}")
+    private int heartbeatSeconds;
+
+    @Value("${schedule.cluster.virtual-nodes:160}")
+    private int virtualNodes;
+
+    @Value("${schedule.cluster.handoff-queue-depth:8}")
+    private int handoffQueueDepth;
+
+    @Value("${schedule.cluster.handoff-ack-seconds:5}")
+    private int handoffAckSeconds;
+
+    @Autowired
+    private RedisUtils redisUtils;
+
+    @Autowired
+    private CronJobMapper cronJobMapper;
+
+    @Autowired
+    private QuartzHandler quartzHandler;
+
+    @Autowired
+    private ScheduleAdmission scheduleAdmission;
+
+    private final String nodeId = generateNodeId();
+
+    private volatile TreeMap<Long, String> ring = new TreeMap<>();
+
+    private volatile Set<String> members = new HashSet<>();
+
+    private volatile Map<String, Long> loads = new HashMap<>();
+
+    // 任务触发器最近一次变更的版本, 早于该版本的注册/移除消息直接丢弃
+    private final Map<Long, Long> versions = new ConcurrentHashMap<>();
+
+    // 已转交但未收到确认的任务
+    private final Map<String, ScheduleJob> pendingHandoffs = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService heartbeat;
+
+    private int beats = 0;
+
+    @PostConstruct
+    public void init() {
+        if (!isEnable()) {
+            return;
+        }
+        heartbeat = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("Schedule-cluster-%d").setDaemon(true).build());
+        // 启动时只加入成员列表, 本节点的任务由启动流程按分片注册
+        refreshMembers();
+        heartbeat.scheduleWithFixedDelay(this::beat, heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+        scheduleLogger.info("Schedule cluster node({}) joined, members:{}", nodeId, members);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (heartbeat == null) {
+            return;
+        }
+        heartbeat.shutdownNow();
+        try {
+            redisUtils.zRemove(NODES_KEY, nodeId);
+            redisUtils.hashDelete(LOADS_KEY, nodeId);
+        } catch (Exception e) {
+            log.warn("Schedule cluster node({}) leave error: {}", nodeId, e.getMessage());
+        }
+    }
+
+    public boolean isEnable() {
+        return enable && redisUtils.isRedisEnable();
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * 任务是否由当前节点负责, 未开启集群时所有任务都在本地
+     *
+     * @param jobId
+     * @return
+     */
+    public boolean isLocal(Long jobId) {
+        if (!isEnable()) {
+            return true;
+        }
+        String owner = getOwner(jobId);
+        return owner == null || nodeId.equals(owner);
+    }
+
+    public String getOwner(Long jobId) {
+        TreeMap<Long, String> current = ring;
+        if (current.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> entry = current.ceilingEntry(hash("CRONJOB_" + jobId));
+        return entry != null ? entry.getValue() : current.firstEntry().getValue();
+    }
+
+    /**
+     * 通知所属节点注册触发器
+     *
+     * @param scheduleJob
+     */
+    public void dispatch(ScheduleJob scheduleJob) {
+        publish(ACTION_SCHEDULE, scheduleJob, getOwner(scheduleJob.getId()), touch(scheduleJob.getId()), null);
+    }
+
+    /**
+     * 通知其他节点移除触发器
+     *
+     * @param scheduleJob
+     */
+    public void broadcastRemove(ScheduleJob scheduleJob) {
+        publish(ACTION_UNSCHEDULE, scheduleJob, null, touch(scheduleJob.getId()), null);
+    }
+
+    /**
+     * 记录任务触发器在本节点的变更, 之前发出的注册/移除消息不再生效
+     * 版本由redis按任务递增, 各节点取值一致, 不受节点时钟偏差影响
+     *
+     * @param jobId
+     * @return 本次变更的版本
+     */
+    public long touch(Long jobId) {
+        long version;
+        try {
+            version = redisUtils.incrementDelta(VERSION_KEY_PREFIX + jobId, 1);
+        } catch (Exception e) {
+            // redis 不可用时集群消息也无法送达, 只保证本地版本递增
+            scheduleLogger.warn("ScheduleJob({}) increase version error: {}", jobId, e.getMessage());
+            version = versions.getOrDefault(jobId, 0L) + 1;
+        }
+        return versions.merge(jobId, version, Math::max);
+    }
+
+    /**
+     * 本地任务队列积压时转交给负载最低的节点执行
+     *
+     * @param scheduleJob
+     * @return 已转交返回 true
+     */
+    public boolean handoff(ScheduleJob scheduleJob) {
+        if (!isEnable()) {
+            return false;
+        }
+
+        long local = getLocalLoad();
+        if (local < handoffQueueDepth) {
+            return false;
+        }
+
+        String target = null;
+        long min = local - 1;
+        for (Map.Entry<String, Long> entry : loads.entrySet()) {
+            if (!nodeId.equals(entry.getKey()) && members.contains(entry.getKey()) && entry.getValue() < min) {
+                min = entry.getValue();
+                target = entry.getKey();
+            }
+        }
+        if (target == null) {
+            return false;
+        }
+
+        String node = target;
+        String handoffId = UUID.randomUUID().toString();
+        pendingHandoffs.put(handoffId, scheduleJob);
+        if (!publish(ACTION_EXECUTE, scheduleJob, node, 0L, handoffId)) {
+            pendingHandoffs.remove(handoffId);
+            return false;
+        }
+
+        scheduleLogger.info("ScheduleJob({}) handoff to node({}), local load:{}, target load:{}", scheduleJob.getId(), target, local, min);
+        // 对方执行前先计入负载, 避免同一周期内的任务都转交到同一节点
+        loads.put(target, min + 1);
+        // 超时未确认时在本节点执行, 重复执行由任务执行锁兜底
+        heartbeat.schedule(() -> {
+            ScheduleJob job = pendingHandoffs.remove(handoffId);
+            if (job != null) {
+                scheduleLogger.warn("ScheduleJob({}) handoff to node({}) not acknowledged, execute locally", job.getId(), node);
+                QuartzJobExecutor.submit(job);
+            }
+        }, handoffAckSeconds, TimeUnit.SECONDS);
+        return true;
+    }
+
+    /**
+     * 处理其他节点发来的集群消息
+     *
+     * @param action
+     * @param scheduleJob
+     * @param origin      发送节点
+     * @param version     注册/移除消息的版本
+     * @param handoffId   转交执行的确认标识
+     * @param target      目标节点, 为空时发给所有节点
+     */
+    public void receive(String action, ScheduleJob scheduleJob, String origin, long version, String handoffId, String target) {
+        // redis 会把消息回送给发送节点, 本节点发出的消息已在本地处理过
+        if (nodeId.equals(origin) || (target != null && !nodeId.equals(target))) {
+            return;
+        }
+        try {
+            switch (action) {
+                case ACTION_SCHEDULE:
+                    if (isStale(scheduleJob.getId(), version)) {
+                        return;
+                    }
+                    if (!quartzHandler.isStarted(scheduleJob)) {
+                        quartzHandler.addLocalJob(scheduleJob);
+                    }
+                    break;
+                case ACTION_UNSCHEDULE:
+                    if (isStale(scheduleJob.getId(), version)) {
+                        return;
+                    }
+                    quartzHandler.removeLocalJob(scheduleJob);
+                    break;
+                case ACTION_EXECUTE:
+                    publish(ACTION_ACK, scheduleJob, origin, 0L, handoffId);
+                    QuartzJobExecutor.submit(scheduleJob);
+                    break;
+                case ACTION_ACK:
+                    if (handoffId != null) {
+                        pendingHandoffs.remove(handoffId);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        } catch (Exception e) {
+            scheduleLogger.warn("ScheduleJob({}) handle cluster action({}) error: {}", scheduleJob.getId(), action, e.getMessage());
+        }
+    }
+
+    private boolean isStale(Long jobId, long version) {
+        Long current = versions.merge(jobId, version, Math::max);
+        if (current > version) {
+            scheduleLogger.info("ScheduleJob({}) ignore stale cluster message, version:{}, current:{}", jobId, version, current);
+            return true;
+        }
+        return false;
+    }
+
+    private boolean publish(String action, ScheduleJob scheduleJob, String target, long version, String handoffId) {
+        JSONObject message = new JSONObject();
+        message.put("action", action);
+        message.put("origin", nodeId);
+        message.put("version", version);
+        message.put("handoffId", handoffId);
+        message.put("job", JSON.toJSONString(scheduleJob));
+        try {
+            redisUtils.convertAndSend(DAVINCI_TOPIC_CHANNEL, new RedisMessageEntity(ScheduleMessageHandler.class, message.toJSONString(), target));
+            return true;
+        } catch (Exception e) {
+            scheduleLogger.warn("ScheduleJob({}) publish cluster action({}) error: {}", scheduleJob.getId(), action, e.getMessage());
+            return false;
+        }
+    }
+
+    private void beat() {
+        try {
+            boolean changed = refreshMembers();
+            if (changed || ++beats >= RECONCILE_HEARTBEATS) {
+                beats = 0;
+                reconcile();
+            }
+        } catch (Exception e) {
+            log.warn("Schedule cluster heartbeat error: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 上报心跳和负载, 刷新存活成员
+     *
+     * @return 成员是否变化
+     */
+    private boolean refreshMembers() {
+        long now = System.currentTimeMillis();
+        long expired = now - HEARTBEAT_MISSES * heartbeatSeconds * 1000L;
+        redisUtils.zAdd(NODES_KEY, nodeId, now);
+        redisUtils.hashPut(LOADS_KEY, nodeId, getLocalLoad());
+        redisUtils.zRemoveRangeByScore(NODES_KEY, 0, expired);
+
+        Set<String> live = redisUtils.zRangeByScore(NODES_KEY, expired, Double.MAX_VALUE).stream()
+                .map(String::valueOf).collect(Collectors.toSet());
+        live.add(nodeId);
+
+        Map<String, Long> current = new ConcurrentHashMap<>();
+        List<Object> dead = new ArrayList<>();
+        redisUtils.hashEntries(LOADS_KEY).forEach((node, load) -> {
+            if (live.contains(node)) {
+                current.put(node, load instanceof Number ? ((Number) load).longValue() : 0L);
+            } else {
+                dead.add(node);
+            }
+        });
+        if (!dead.isEmpty()) {
+            redisUtils.hashDelete(LOADS_KEY, dead.toArray());
+        }
+        loads = current;
+
+        if (live.equals(members)) {
+            return false;
+        }
+        scheduleLogger.info("Schedule cluster members changed, {} -> {}", members, live);
+        members = live;
+        ring = buildRing(live);
+        return true;
+    }
+
+    /**
+     * 按当前成员校对本地触发器, 注册属于本节点的已启动任务, 移除其余任务
+     */
+    private void reconcile() {
+        List<CronJob> jobs = cronJobMapper.getStartedJobs();
+        Set<Long> owned = new HashSet<>();
+        int added = 0;
+        if (!CollectionUtils.isEmpty(jobs)) {
+            for (CronJob job : jobs) {
+                if (!isLocal(job.getId())) {
+                    continue;
+                }
+                owned.add(job.getId());
+                try {
+                    if (!quartzHandler.isStarted(job)) {
+                        quartzHandler.addLocalJob(job);
+                        added++;
+                    }
+                } catch (ServerException | SchedulerException e) {
+                    scheduleLogger.warn("ScheduleJob({}) rebalance start error: {}", job.getId(), e.getMessage());
+                }
+            }
+        }
+
+        int removed = 0;
+        for (Long id : quartzHandler.getLocalJobIds()) {
+            if (owned.contains(id)) {
+                continue;
+            }
+            ScheduleJob job = new ScheduleJob();
+            job.setId(id);
+            try {
+                quartzHandler.removeLocalJob(job);
+                removed++;
+            } catch (ServerException e) {
+                scheduleLogger.warn("ScheduleJob({}) rebalance remove error: {}", id, e.getMessage());
+            }
+        }
+
+        if (added > 0 || removed > 0) {
+            scheduleLogger.info("Schedule cluster node({}) rebalanced, owned:{}, added:{}, removed:{}", nodeId, owned.size(), added, removed);
+        }
+    }
+
+    private TreeMap<Long, String> buildRing(Set<String> nodes) {
+        TreeMap<Long, String> newRing = new TreeMap<>();
+        for (String node : nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                newRing.put(hash(node + "#" + i), node);
+            }
+        }
+        return newRing;
+    }
+
+    private static long hash(String key) {
+        return Hashing.murmur3_128().hashString(key, StandardCharsets.UTF_8).asLong();
+    }
+
+    private long getLocalLoad() {
+        return scheduleAdmission.getRunningCount() + scheduleAdmission.getWaitingCount();
+    }
+
+    private static String generateNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "unknown";
+        }
+        return host + "-" + UUID.randomUUID().toString().replace("-", "").substring(0, 8);
+    }
+}
@@ -19,10 +19,8 @@
 
 package edp.davinci.schedule;
 
-import edp.core.consts.Consts;
 import edp.core.exception.ServerException;
 import edp.core.utils.*;
-import edp.davinci.core.enums.FileTypeEnum;
 import edp.davinci.dao.CronJobMapper;
 import edp.davinci.dao.ShareDownloadRecordMapper;
 import edp.davinci.model.CronJob;
@@ -34,16 +32,11 @@ import org.springframework.stereotype.Component;
 
 import java.io.File;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 @Slf4j
 @Component
 public class SystemSchedule {
 
-    @Autowired
-    private FileUtils fileUtils;
-
     @Autowired
     private CronJobMapper cronJobMapper;
 
@@ -56,32 +49,13 @@ public class SystemSchedule {
     @Autowired
     private ShareDownloadRecordMapper shareDownloadRecordMapper;
 
-    private static final ExecutorService CLEAR_TEMPDIR_THREADPOOL = Executors.newFixedThreadPool(3);
-
-    @Scheduled(cron = "0 0 1 * * *")
-    public void clearTempDir() {
-
-        //下载内容文件保留7天，记录保留1月
-        String downloadDir = fileUtils.fileBasePath + Consts.DIR_DOWNLOAD + DateUtils.getTheDayBeforeAWeekYYYYMMDD();
-        String tempDir = fileUtils.fileBasePath + Consts.DIR_TEMP + DateUtils.getTheDayBeforeNowDateYYYYMMDD();
-        String csvDir = fileUtils.fileBasePath + File.separator + FileTypeEnum.CSV.getType();
-
-        final String download = fileUtils.formatFilePath(downloadDir);
-        final String temp = fileUtils.formatFilePath(tempDir);
-        final String csv = fileUtils.formatFilePath(csvDir);
-
-        CLEAR_TEMPDIR_THREADPOOL.execute(() -> FileUtils.deleteDir(new File(download)));
-        CLEAR_TEMPDIR_THREADPOOL.execute(() -> FileUtils.deleteDir(new File(temp)));
-        CLEAR_TEMPDIR_THREADPOOL.execute(() -> FileUtils.deleteDir(new File(csv)));
-    }
-
     @Scheduled(cron = "0 0/2 * * * *")
     public void stopCronJob() {
         List<CronJob> jobs = cronJobMapper.getStoppedJob();
         if (!CollectionUtils.isEmpty(jobs)) {
             for (CronJob job : jobs) {
                 try {
-                    quartzHandler.removeJob(job);
+                    quartzHandler.removeLocalJob(job);
                 } catch (ServerException e) {
 
                 }
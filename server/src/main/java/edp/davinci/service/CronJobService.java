@@ -23,6 +23,7 @@ import edp.core.exception.NotFoundException;
 import edp.core.exception.ServerException;
 import edp.core.exception.UnAuthorizedException;
 import edp.davinci.core.service.CheckEntityService;
+import edp.davinci.dto.cronJobDto.CronJobAdmission;
 import edp.davinci.dto.cronJobDto.CronJobBaseInfo;
 import edp.davinci.dto.cronJobDto.CronJobInfo;
 import edp.davinci.dto.cronJobDto.CronJobUpdate;
@@ -49,4 +50,6 @@ public interface CronJobService extends CheckEntityService {
     void startAllJobs();
 
     boolean executeCronJob(Long id, User user) throws NotFoundException, UnAuthorizedException, ServerException;
+
+    CronJobAdmission getCronJobAdmission(Long id, User user) throws NotFoundException, UnAuthorizedException, ServerException;
 }
@@ -49,6 +49,8 @@ public interface SourceService extends CheckEntityService {
 
     Boolean dataUpload(Long sourceId, SourceDataUpload sourceDataUpload, MultipartFile file, User user, String type) throws NotFoundException, UnAuthorizedException, ServerException;
 
+    UploadProgress getUploadProgress(Long sourceId, String tableName, User user) throws NotFoundException, UnAuthorizedException;
+
     List<String> getSourceDbs(Long id, User user) throws NotFoundException, ServerException;
 
     DBTables getSourceTables(Long id, String dbName, User user) throws NotFoundException;
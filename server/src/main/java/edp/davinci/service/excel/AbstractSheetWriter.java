@@ -29,10 +29,13 @@ import edp.davinci.core.model.FieldCurrency;
 import edp.davinci.core.model.FieldNumeric;
 import edp.davinci.core.utils.ExcelUtils;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.ss.SpreadsheetVersion;
 import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.ss.util.CellRangeAddress;
 import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.slf4j.Logger;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -61,12 +64,38 @@ public abstract class AbstractSheetWriter {
 
     private int nextRowNum = 0;
 
+    //精确计算列宽的最大数据行数, 超过后改为采样估算
+    private static final int AUTO_SIZE_MAX_ROWS = 1000;
+
+    //列宽估算时逐行统计的数据行数
+    private static final int WIDTH_HEAD_ROWS = 1000;
+
+    //列宽估算时蓄水池采样的容量
+    private static final int WIDTH_RESERVOIR_SIZE = 1000;
+
+    private int dataRowCount = 0;
+
+    //单个sheet最大行数, 超过后续写到新的sheet
+    private static final int MAX_SHEET_ROWS = SpreadsheetVersion.EXCEL2007.getMaxRows();
+
+    //sheet名称最大长度
+    private static final int MAX_SHEET_NAME_LENGTH = 31;
+
+    //多级表头行数
+    private int headerRowNum = 0;
+
+    //多级表头列数
+    private int headerColNum = 0;
+
+    //当前worker写入的所有sheet
+    private List<Sheet> sheets = new ArrayList<>();
+
     //用于记录表头对应数据格式
     Map<String, CellStyle> headerFormatMap = new HashMap();
     //用于标记标记数字格式单位
     Map<String, NumericUnitEnum> dataUnitMap = new HashMap();
-    //记录列最大字符数
-    Map<String, Integer> columnWidthMap = new HashMap();
+    //记录列宽估算
+    Map<String, ColumnWidthEstimator> columnWidthMap = new HashMap();
 
 
     protected void init(SheetContext context) throws Exception {
@@ -107,7 +136,7 @@ public abstract class AbstractSheetWriter {
                     queryColumns.add(queryColumn);
                     queryColumn.setType(excelHeader.getType());
                     //设置列的最大长度
-                    columnWidthMap.put(queryColumn.getName(), Math.max(queryColumn.getName().getBytes().length, queryColumn.getType().getBytes().length));
+                    columnWidthMap.put(queryColumn.getName(), newWidthEstimator(queryColumn));
                 }
                 //获取对应数据格式
                 if (null != excelHeader.getFormat()) {
@@ -132,11 +161,25 @@ public abstract class AbstractSheetWriter {
             if (!CollectionUtils.isEmpty(queryColumns)) {
                 context.setQueryColumns(queryColumns);
             }
+            headerRowNum = rownum;
+            headerColNum = colnum;
+        } else {
+            for (int i = 0; i < context.getQueryColumns().size(); i++) {
+                QueryColumn queryColumn = context.getQueryColumns().get(i);
+                columnWidthMap.put(queryColumn.getName(), newWidthEstimator(queryColumn));
+            }
+        }
+        sheets.add(context.getSheet());
+        drawHeader(context);
+    }
+
+    private void drawHeader(SheetContext context) {
+        if (context.getIsTable() && !CollectionUtils.isEmpty(context.getExcelHeaders())) {
             //画出表头
-            for (int i = 0; i < rownum; i++) {
+            for (int i = 0; i < headerRowNum; i++) {
                 Row headerRow = context.getSheet().createRow(i);
                 nextRowNum++;
-                for (int j = 0; j < colnum; j++) {
+                for (int j = 0; j < headerColNum; j++) {
                     headerRow.createCell(j);
                 }
             }
@@ -157,7 +200,6 @@ public abstract class AbstractSheetWriter {
             Row row = context.getSheet().createRow(nextRowNum++);
             for (int i = 0; i < context.getQueryColumns().size(); i++) {
                 QueryColumn queryColumn = context.getQueryColumns().get(i);
-                columnWidthMap.put(queryColumn.getName(), Math.max(queryColumn.getName().getBytes().length, queryColumn.getType().getBytes().length));
                 Cell cell = row.createCell(i);
                 cell.setCellStyle(header);
                 cell.setCellValue(queryColumn.getName());
@@ -177,7 +219,11 @@ public abstract class AbstractSheetWriter {
     }
 
     protected void writeLine(SheetContext context, Map<String, Object> dataMap) {
+        if (nextRowNum >= MAX_SHEET_ROWS) {
+            rollover(context);
+        }
         Row row = context.getSheet().createRow(nextRowNum++);
+        dataRowCount++;
         for (int j = 0; j < context.getQueryColumns().size(); j++) {
             QueryColumn queryColumn = context.getQueryColumns().get(j);
             myDefault.setDataFormat(format.getFormat("@"));
@@ -203,10 +249,9 @@ public abstract class AbstractSheetWriter {
                     cell.setCellValue(String.valueOf(value));
                 }
 
-                if (columnWidthMap.containsKey(queryColumn.getName())) {
-                    if (String.valueOf(value).getBytes().length > columnWidthMap.get(queryColumn.getName())) {
-                        columnWidthMap.put(queryColumn.getName(), String.valueOf(value).getBytes().length);
-                    }
+                ColumnWidthEstimator estimator = columnWidthMap.get(queryColumn.getName());
+                if (estimator != null) {
+                    estimator.offer(String.valueOf(value));
                 }
             } else {
                 cell.setCellValue(EMPTY);
@@ -215,26 +260,80 @@ public abstract class AbstractSheetWriter {
         }
     }
 
+    /**
+     * 当前sheet已写满时创建续写sheet, 如 1-Sales (2), 并重复写入表头
+     *
+     * @param context
+     */
+    private void rollover(SheetContext context) {
+        SXSSFSheet current = (SXSSFSheet) context.getSheet();
+        try {
+            //释放已写满sheet在内存窗口中的行
+            current.flushRows();
+        } catch (IOException e) {
+            throw new RuntimeException("Task(" + context.getTaskKey() + ") sheet worker(name:" + context.getName() + ", sheetName:" + current.getSheetName() + ") flush error", e);
+        }
+
+        Workbook workbook = context.getWorkbook();
+        String baseName = sheets.get(0).getSheetName();
+        String suffix = " (" + (sheets.size() + 1) + ")";
+        if (baseName.length() + suffix.length() > MAX_SHEET_NAME_LENGTH) {
+            baseName = baseName.substring(0, MAX_SHEET_NAME_LENGTH - suffix.length());
+        }
+
+        Sheet sheet;
+        //多个sheet worker共用同一个workbook
+        synchronized (workbook) {
+            sheet = workbook.createSheet(baseName + suffix);
+            workbook.setSheetOrder(sheet.getSheetName(), workbook.getSheetIndex(current) + 1);
+        }
+
+        sheets.add(sheet);
+        context.setSheet(sheet);
+        nextRowNum = 0;
+        drawHeader(context);
+
+        Logger logger = context.getCustomLogger();
+        if (logger != null) {
+            logger.info("Task({}) sheet worker(name:{}, sheetNo:{}) rollover to sheet:{}, rows:{}",
+                    context.getTaskKey(), context.getName(), context.getSheetNo(), sheet.getSheetName(), dataRowCount);
+        }
+    }
+
     protected Boolean refreshHeightWidth(SheetContext context) {
-        SXSSFSheet sheet = (SXSSFSheet)context.getSheet();
-        sheet.setDefaultRowHeight((short) (20 * 20));
-        sheet.trackAllColumnsForAutoSizing();
-        for (int i = 0; i < context.getQueryColumns().size(); i++) {
-            context.getSheet().autoSizeColumn(i, true);
-            QueryColumn queryColumn = context.getQueryColumns().get(i);
-            if (columnWidthMap.containsKey(queryColumn.getName())) {
-                int width = columnWidthMap.get(queryColumn.getName());
-                if (width > 0) {
-                    width = width > 255 ? 255 : width;
-                    context.getSheet().setColumnWidth(i, width * 256);
+        //大数据量时autoSizeColumn需逐个单元格测量字体, 只对小数据量精确计算
+        boolean autoSize = dataRowCount <= AUTO_SIZE_MAX_ROWS;
+        for (Sheet s : sheets) {
+            SXSSFSheet sheet = (SXSSFSheet) s;
+            sheet.setDefaultRowHeight((short) (20 * 20));
+            if (autoSize) {
+                sheet.trackAllColumnsForAutoSizing();
+            }
+            for (int i = 0; i < context.getQueryColumns().size(); i++) {
+                if (autoSize) {
+                    sheet.autoSizeColumn(i, true);
+                }
+                QueryColumn queryColumn = context.getQueryColumns().get(i);
+                if (columnWidthMap.containsKey(queryColumn.getName())) {
+                    int width = columnWidthMap.get(queryColumn.getName()).estimate();
+                    if (width > 0) {
+                        sheet.setColumnWidth(i, width * 256);
+                    }
+                } else if (autoSize) {
+                    sheet.setColumnWidth(i, sheet.getColumnWidth(i) * 12 / 10);
                 }
-            } else {
-                context.getSheet().setColumnWidth(i, context.getSheet().getColumnWidth(i) * 12 / 10);
+            }
+            if (autoSize) {
+                sheet.untrackAllColumnsForAutoSizing();
             }
         }
         return true;
     }
 
+    private ColumnWidthEstimator newWidthEstimator(QueryColumn queryColumn) {
+        int minWidth = Math.max(ColumnWidthEstimator.displayWidth(queryColumn.getName()), ColumnWidthEstimator.displayWidth(queryColumn.getType()));
+        return new ColumnWidthEstimator(minWidth, WIDTH_HEAD_ROWS, WIDTH_RESERVOIR_SIZE);
+    }
 
     private Double formatNumber(Object value, NumericUnitEnum unitEnum) {
         try {
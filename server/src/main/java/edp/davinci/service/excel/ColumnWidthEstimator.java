@@ -0,0 +1,92 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.excel;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 列宽估算器
+ * 前 headRows 行逐个记录, 其余行使用蓄水池采样, 不依赖字体测量
+ */
+class ColumnWidthEstimator {
+
+    static final int MAX_WIDTH = 255;
+
+    private final int headRows;
+
+    private final int[] reservoir;
+
+    private int headMax;
+
+    private long seen;
+
+    private int sampled;
+
+    ColumnWidthEstimator(int minWidth, int headRows, int reservoirSize) {
+        this.headMax = minWidth;
+        this.headRows = headRows;
+        this.reservoir = new int[reservoirSize];
+    }
+
+    void offer(String value) {
+        if (value == null) {
+            return;
+        }
+
+        if (seen++ < headRows) {
+            headMax = Math.max(headMax, displayWidth(value));
+            return;
+        }
+
+        if (sampled < reservoir.length) {
+            reservoir[sampled++] = displayWidth(value);
+            return;
+        }
+
+        long slot = ThreadLocalRandom.current().nextLong(seen - headRows);
+        if (slot < reservoir.length) {
+            reservoir[(int) slot] = displayWidth(value);
+        }
+    }
+
+    int estimate() {
+        int width = headMax;
+        for (int i = 0; i < sampled; i++) {
+            if (reservoir[i] > width) {
+                width = reservoir[i];
+            }
+        }
+        return Math.min(width, MAX_WIDTH);
+    }
+
+    /**
+     * 估算字符串显示宽度, 全角字符按两个字符宽度计算
+     *
+     * @param value
+     * @return
+     */
+    static int displayWidth(String value) {
+        int width = 0;
+        for (int i = 0; i < value.length(); i++) {
+            width += value.charAt(i) > 0xFF ? 2 : 1;
+        }
+        return width;
+    }
+}
@@ -35,25 +35,35 @@ import java.util.concurrent.*;
 @Slf4j
 public class ExecutorUtils {
 
-    private static final ThreadPoolExecutor JOB_WORKERS = new ThreadPoolExecutor(8, 64,
-            60_000, TimeUnit.MILLISECONDS, new LinkedBlockingDeque<Runnable>(), new ThreadPoolExecutor.CallerRunsPolicy());
-
-    private static final ThreadPoolExecutor WORKBOOK_WORKERS = new ThreadPoolExecutor(16, 128,
-            60_000, TimeUnit.MILLISECONDS, new LinkedBlockingDeque<Runnable>(),
-            new ThreadFactoryBuilder().setNameFormat("Workbook-worker-%d").setDaemon(true).build(), new ThreadPoolExecutor.CallerRunsPolicy());
+    // 队列无界, 实际并发即核心线程数
+    public static final int JOB_WORKERS_SIZE = 8;
 
+    private static final ThreadPoolExecutor JOB_WORKERS = new ThreadPoolExecutor(JOB_WORKERS_SIZE, 64,
+            60_000, TimeUnit.MILLISECONDS, new LinkedBlockingDeque<Runnable>(), new ThreadPoolExecutor.CallerRunsPolicy());
 
+    // 队列有界, 排满时由workbook线程自行执行sheet任务形成反压
     private static final ThreadPoolExecutor SHEET_WORKERS = new ThreadPoolExecutor(32, 256,
-            60_000, TimeUnit.MILLISECONDS, new LinkedBlockingDeque<Runnable>(),
+            60_000, TimeUnit.MILLISECONDS, new LinkedBlockingDeque<Runnable>(1024),
             new ThreadFactoryBuilder().setNameFormat("Sheet-worker-%d").setDaemon(true).build(), new ThreadPoolExecutor.CallerRunsPolicy());
 
+    // 定时任务内与excel并行的截图, 与 JOB_WORKERS 分开避免任务线程互相等待, 排满时由任务线程自行执行
+    private static final ThreadPoolExecutor IMAGE_WORKERS = new ThreadPoolExecutor(4, 4,
+            60_000, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(4),
+            new ThreadFactoryBuilder().setNameFormat("Image-worker-%d").setDaemon(true).build(), new ThreadPoolExecutor.CallerRunsPolicy());
+
+    // 数据上传的写入线程, 所有上传共用; 队列有界且排满时拒绝, 不能由读取线程自行执行写入任务
+    public static final int UPLOAD_WORKERS_SIZE = 8;
+
+    private static final ThreadPoolExecutor UPLOAD_WORKERS = new ThreadPoolExecutor(UPLOAD_WORKERS_SIZE, UPLOAD_WORKERS_SIZE,
+            60_000, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(UPLOAD_WORKERS_SIZE * 4),
+            new ThreadFactoryBuilder().setNameFormat("Upload-worker-%d").setDaemon(true).build(), new ThreadPoolExecutor.AbortPolicy());
+
     public static <T> Future<T> submitWorkbookTask(WorkBookContext context, Logger customLogger) {
         return ExecutorUtils.submitWorkbookTask(new WorkbookWorker(context), customLogger);
     }
 
     private static <T> Future<T> submitWorkbookTask(WorkbookWorker worker, Logger customLogger) {
-        printThreadPoolStatus(WORKBOOK_WORKERS, "WORKBOOK_WORKERS", customLogger);
-        return ExecutorUtils.WORKBOOK_WORKERS.submit(worker);
+        return ExportScheduler.getInstance().submit(worker.getContext(), worker, customLogger);
     }
 
     public static <T> Future<T> submitSheetTask(SheetContext context, Logger customLogger) {
@@ -83,4 +93,12 @@ public class ExecutorUtils {
     public static ExecutorService getJobWorkers() {
         return JOB_WORKERS;
     }
+
+    public static ExecutorService getImageWorkers() {
+        return IMAGE_WORKERS;
+    }
+
+    public static ExecutorService getUploadWorkers() {
+        return UPLOAD_WORKERS;
+    }
 }
\ No newline at end of file
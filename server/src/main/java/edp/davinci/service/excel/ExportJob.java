@@ -0,0 +1,54 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.excel;
+
+import edp.davinci.core.enums.ActionEnum;
+import lombok.Data;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * 分布式导出任务描述
+ * 只保存重建 WorkBookContext 所需的信息, 下载记录和用户由 worker 节点重新加载
+ */
+@Data
+public class ExportJob implements Serializable {
+
+    private static final long serialVersionUID = -2270361581329306281L;
+
+    private String id;
+
+    private ActionEnum action;
+
+    private Long recordId;
+
+    private String uuid;
+
+    private Long userId;
+
+    private List<WidgetContext> widgets;
+
+    private int resultLimit;
+
+    private String taskKey;
+
+    private long createTime;
+}
@@ -0,0 +1,125 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.excel;
+
+import edp.davinci.core.config.SpringContextHolder;
+import edp.davinci.core.enums.DownloadTaskStatus;
+import edp.davinci.dao.DownloadRecordMapper;
+import edp.davinci.dao.ShareDownloadRecordMapper;
+import edp.davinci.model.DownloadRecord;
+import edp.davinci.model.DownloadRecordBaseInfo;
+import edp.davinci.model.ShareDownloadRecord;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 导出进度, 同一个workbook的所有sheet worker共用
+ * 已导出行数按时间间隔写回下载记录, 供前端轮询
+ */
+@Slf4j
+public class ExportProgress {
+
+    private static final long FLUSH_INTERVAL_MILLIS = 2000L;
+
+    private static final int CHECK_EVERY_ROWS = 1000;
+
+    private final MsgWrapper wrapper;
+
+    private final AtomicLong rows = new AtomicLong(0);
+
+    private volatile long lastFlushTime = System.currentTimeMillis();
+
+    private volatile DownloadTaskStatus status;
+
+    private volatile boolean finished = false;
+
+    public ExportProgress(MsgWrapper wrapper) {
+        this.wrapper = wrapper;
+    }
+
+    public long getRows() {
+        return rows.get();
+    }
+
+    public void increment() {
+        long current = rows.incrementAndGet();
+        if (current % CHECK_EVERY_ROWS != 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastFlushTime < FLUSH_INTERVAL_MILLIS) {
+            return;
+        }
+        synchronized (this) {
+            if (now - lastFlushTime < FLUSH_INTERVAL_MILLIS) {
+                return;
+            }
+            lastFlushTime = now;
+        }
+        flush();
+    }
+
+    public void updateStatus(DownloadTaskStatus status) {
+        this.status = status;
+        flush();
+    }
+
+    /**
+     * 导出结束, 最终状态由 MsgNotifier 写回, 之后不再更新进度
+     */
+    public synchronized void finish() {
+        finished = true;
+        if (wrapper != null && wrapper.getMsg() instanceof DownloadRecordBaseInfo) {
+            ((DownloadRecordBaseInfo) wrapper.getMsg()).setExportedRows(rows.get());
+        }
+    }
+
+    private synchronized void flush() {
+        if (finished || wrapper == null || wrapper.getAction() == null || status == null) {
+            return;
+        }
+
+        Object msg = wrapper.getMsg();
+        if (!(msg instanceof DownloadRecordBaseInfo)) {
+            return;
+        }
+
+        DownloadRecordBaseInfo record = (DownloadRecordBaseInfo) msg;
+        record.setStatus(status.getStatus());
+        record.setExportedRows(rows.get());
+        try {
+            switch (wrapper.getAction()) {
+                case DOWNLOAD:
+                    ((DownloadRecordMapper) SpringContextHolder.getBean(DownloadRecordMapper.class))
+                            .updateProgress(((DownloadRecord) msg).getId(), record.getStatus(), record.getExportedRows());
+                    break;
+                case SHAREDOWNLOAD:
+                    ((ShareDownloadRecordMapper) SpringContextHolder.getBean(ShareDownloadRecordMapper.class))
+                            .updateProgress(((ShareDownloadRecord) msg).getId(), record.getStatus(), record.getExportedRows());
+                    break;
+                default:
+                    break;
+            }
+        } catch (Exception e) {
+            log.warn("Update export progress error, xid={}, xUUID={}: {}", wrapper.getxId(), wrapper.getxUUID(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.excel;
+
+import com.alibaba.fastjson.JSON;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import edp.core.utils.RedisUtils;
+import edp.davinci.core.enums.ActionEnum;
+import edp.davinci.core.enums.DownloadTaskStatus;
+import edp.davinci.core.enums.LogNameEnum;
+import edp.davinci.dao.DownloadRecordMapper;
+import edp.davinci.dao.ShareDownloadRecordMapper;
+import edp.davinci.dao.UserMapper;
+import edp.davinci.model.DownloadRecord;
+import edp.davinci.model.DownloadRecordBaseInfo;
+import edp.davinci.model.ShareDownloadRecord;
+import edp.davinci.model.User;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 分布式导出队列
+ * export.mode=queue 时 web 节点只把任务描述放入 redis 队列, 开启 export.worker.enable 的节点领取任务,
+ * 领取时移入处理中列表并持有租约, 租约过期的任务由其他节点重新放回队列
+ * 导出文件写入 file.userfiles-path, 各节点需挂载同一共享存储
+ */
+@Slf4j
+@Component
+public class ExportQueue {
+
+    private static final Logger downloadLogger = LoggerFactory.getLogger(LogNameEnum.BUSINESS_DOWNLOAD.getName());
+
+    private static final String QUEUE_KEY = "davinci:export:queue";
+
+    private static final String PROCESSING_KEY = "davinci:export:processing";
+
+    private static final String LEASE_KEY_PREFIX = "davinci:export:lease:";
+
+    private static final String REAPER_KEY = "davinci:export:reaper";
+
+    // 处理中但没有租约的任务, 任务id -> 首次发现的时间
+    private static final String ORPHAN_KEY = "davinci:export:orphans";
+
+    private static final long POP_TIMEOUT_SECONDS = 5L;
+
+    private static final long IDLE_MILLIS = 500L;
+
+    @Value("${export.mode:local}")
+    private String mode;
+
+    @Value("${export.worker.enable:true}")
+    private boolean workerEnable;
+
+    @Value("${export.worker.lease-seconds:60}")
+    private int leaseSeconds;
+
+    @Value("${export.max-pending:256}")
+    private int maxPending;
+
+    @Autowired
+    private RedisUtils redisUtils;
+
+    @Autowired
+    private DownloadRecordMapper downloadRecordMapper;
+
+    @Autowired
+    private ShareDownloadRecordMapper shareDownloadRecordMapper;
+
+    @Autowired
+    private UserMapper userMapper;
+
+    private final String nodeId = UUID.randomUUID().toString();
+
+    // 本节点持有租约的任务, 任务id -> 队列中的原始内容
+    private final Map<String, String> leases = new ConcurrentHashMap<>();
+
+    private volatile boolean running = false;
+
+    private ScheduledExecutorService leaseKeeper;
+
+    @PostConstruct
+    public void init() {
+        if (!isEnable() || !workerEnable) {
+            return;
+        }
+
+        running = true;
+        Thread consumer = new Thread(this::consume, "Export-queue-consumer");
+        consumer.setDaemon(true);
+        consumer.start();
+
+        long renewSeconds = Math.max(leaseSeconds / 3, 1);
+        leaseKeeper = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("Export-lease-keeper-%d").setDaemon(true).build());
+        leaseKeeper.scheduleWithFixedDelay(this::renewLeases, renewSeconds, renewSeconds, TimeUnit.SECONDS);
+        leaseKeeper.scheduleWithFixedDelay(this::reapExpired, leaseSeconds, leaseSeconds, TimeUnit.SECONDS);
+        log.info("Export queue worker started, node:{}, lease:{}s", nodeId, leaseSeconds);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        running = false;
+        if (leaseKeeper != null) {
+            leaseKeeper.shutdownNow();
+        }
+    }
+
+    public boolean isEnable() {
+        return "queue".equalsIgnoreCase(mode) && redisUtils.isRedisEnable();
+    }
+
+    /**
+     * 任务放入队列, 队列已满时抛出 RejectedExecutionException
+     *
+     * @param context
+     */
+    public void push(WorkBookContext context) {
+        Long size = redisUtils.listSize(QUEUE_KEY);
+        if (size != null && size >= maxPending) {
+            throw new RejectedExecutionException("Task(" + context.getTaskKey() + ") rejected, queue size:" + size);
+        }
+
+        MsgWrapper<?> wrapper = context.getWrapper();
+        ExportJob job = new ExportJob();
+        job.setId(UUID.randomUUID().toString().replace("-", ""));
+        job.setAction(wrapper.getAction());
+        job.setRecordId(getRecordId(wrapper.getMsg()));
+        job.setUuid(wrapper.getxUUID());
+        job.setUserId(context.getUser() == null ? null : context.getUser().getId());
+        job.setWidgets(context.getWidgets());
+        job.setResultLimit(context.getResultLimit());
+        job.setTaskKey(context.getTaskKey());
+        job.setCreateTime(System.currentTimeMillis());
+
+        redisUtils.leftPush(QUEUE_KEY, JSON.toJSONString(job));
+        if (context.getCustomLogger() != null) {
+            context.getCustomLogger().info("Task({}) pushed to export queue, job:{}", context.getTaskKey(), job.getId());
+        }
+    }
+
+    private void consume() {
+        while (running) {
+            try {
+                if (!ExportScheduler.getInstance().hasCapacity()) {
+                    Thread.sleep(IDLE_MILLIS);
+                    continue;
+                }
+                Object raw = redisUtils.rightPopAndLeftPush(QUEUE_KEY, PROCESSING_KEY, POP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                if (raw instanceof String) {
+                    claim((String) raw);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("Export queue consume error: {}", e.getMessage());
+                try {
+                    Thread.sleep(IDLE_MILLIS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void claim(String raw) {
+        ExportJob job = JSON.parseObject(raw, ExportJob.class);
+        leases.put(job.getId(), raw);
+        renewLease(job.getId());
+
+        WorkBookContext context = toContext(job);
+        if (context == null) {
+            log.warn("Export job({}) skipped, record({}) not found or finished", job.getId(), job.getRecordId());
+            complete(job.getId());
+            return;
+        }
+
+        WorkbookWorker<Object> worker = new WorkbookWorker<>(context);
+        try {
+            // 执行结束、取消或被线程池拒绝时都释放队列中的任务
+            ExportScheduler.getInstance().submit(context, worker::call, context.getCustomLogger(), () -> complete(job.getId()));
+            log.info("Export job({}) claimed by node:{}, task:{}", job.getId(), nodeId, job.getTaskKey());
+        } catch (RejectedExecutionException e) {
+            // 本地排队已满, 放回队列由其他节点领取
+            log.warn("Export job({}) rejected locally, requeue: {}", job.getId(), e.getMessage());
+            release(job.getId());
+            if (redisUtils.listRemove(PROCESSING_KEY, raw) > 0) {
+                redisUtils.leftPush(QUEUE_KEY, raw);
+            }
+        }
+    }
+
+    private WorkBookContext toContext(ExportJob job) {
+        MsgWrapper<?> wrapper;
+        Logger customLogger = null;
+        if (job.getAction() == ActionEnum.DOWNLOAD) {
+            DownloadRecord record = downloadRecordMapper.getById(job.getRecordId());
+            if (!isUnfinished(record)) {
+                return null;
+            }
+            wrapper = new MsgWrapper<>(record, ActionEnum.DOWNLOAD, record.getId());
+            customLogger = downloadLogger;
+        } else if (job.getAction() == ActionEnum.SHAREDOWNLOAD) {
+            ShareDownloadRecord record = shareDownloadRecordMapper.getShareDownloadRecordBy(job.getRecordId(), job.getUuid());
+            if (!isUnfinished(record)) {
+                return null;
+            }
+            wrapper = new MsgWrapper<>(record, ActionEnum.SHAREDOWNLOAD, job.getUuid());
+        } else {
+            return null;
+        }
+
+        User user = job.getUserId() == null ? null : userMapper.getById(job.getUserId());
+        return WorkBookContext.WorkBookContextBuilder.newBuilder()
+                .withWrapper(wrapper)
+                .withWidgets(job.getWidgets())
+                .withUser(user)
+                .withResultLimit(job.getResultLimit())
+                .withTaskKey(job.getTaskKey())
+                .withCustomLogger(customLogger)
+                .build();
+    }
+
+    private void complete(String jobId) {
+        String raw = leases.get(jobId);
+        release(jobId);
+        if (raw != null) {
+            redisUtils.listRemove(PROCESSING_KEY, raw);
+        }
+    }
+
+    private void release(String jobId) {
+        leases.remove(jobId);
+        redisUtils.delete(LEASE_KEY_PREFIX + jobId);
+    }
+
+    private void renewLease(String jobId) {
+        redisUtils.set(LEASE_KEY_PREFIX + jobId, nodeId, (long) leaseSeconds, TimeUnit.SECONDS);
+    }
+
+    private void renewLeases() {
+        try {
+            leases.keySet().forEach(this::renewLease);
+        } catch (Exception e) {
+            log.error("Renew export lease error: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 处理中列表里租约已过期的任务重新放回队列
+     * 领取和设置租约之间存在间隙, 没有租约超过一个租约周期才认为持有节点已失效
+     * 首次发现的时间记录在 redis 中, 检查由哪个节点执行都能延续
+     */
+    private void reapExpired() {
+        try {
+            if (!redisUtils.setIfAbsent(REAPER_KEY, nodeId, leaseSeconds)) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            Map<String, Object> orphans = redisUtils.hashEntries(ORPHAN_KEY);
+            Set<String> processing = new HashSet<>();
+            for (Object raw : redisUtils.listRange(PROCESSING_KEY)) {
+                ExportJob job = JSON.parseObject((String) raw, ExportJob.class);
+                processing.add(job.getId());
+                if (leases.containsKey(job.getId()) || redisUtils.hasKey(LEASE_KEY_PREFIX + job.getId())) {
+                    if (orphans.containsKey(job.getId())) {
+                        redisUtils.hashDelete(ORPHAN_KEY, job.getId());
+                    }
+                    continue;
+                }
+                Object foundTime = orphans.get(job.getId());
+                if (foundTime == null) {
+                    redisUtils.hashPut(ORPHAN_KEY, job.getId(), now);
+                    continue;
+                }
+                if (now - Long.parseLong(String.valueOf(foundTime)) < leaseSeconds * 1000L) {
+                    continue;
+                }
+                redisUtils.hashDelete(ORPHAN_KEY, job.getId());
+                if (redisUtils.listRemove(PROCESSING_KEY, raw) > 0) {
+                    redisUtils.leftPush(QUEUE_KEY, raw);
+                    log.warn("Export job({}) lease expired, requeue task:{}", job.getId(), job.getTaskKey());
+                }
+            }
+
+            // 已完成或已放回的任务
+            Object[] stale = orphans.keySet().stream().filter(id -> !processing.contains(id)).toArray();
+            if (stale.length > 0) {
+                redisUtils.hashDelete(ORPHAN_KEY, stale);
+            }
+        } catch (Exception e) {
+            log.error("Reap export jobs error: {}", e.getMessage());
+        }
+    }
+
+    private static Long getRecordId(Object msg) {
+        if (msg instanceof DownloadRecord) {
+            return ((DownloadRecord) msg).getId();
+        }
+        if (msg instanceof ShareDownloadRecord) {
+            return ((ShareDownloadRecord) msg).getId();
+        }
+        return null;
+    }
+
+    private static boolean isUnfinished(DownloadRecordBaseInfo record) {
+        if (record == null || record.getStatus() == null) {
+            return false;
+        }
+        short status = record.getStatus();
+        return status == DownloadTaskStatus.QUEUED.getStatus() || status == DownloadTaskStatus.PROCESSING.getStatus();
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.excel;
+
+import com.alibaba.fastjson.JSON;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import edp.core.utils.MD5Util;
+import edp.davinci.core.enums.FileTypeEnum;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 导出结果复用
+ * 以数据源、执行用户、变量、渲染后的sql、排除列、表头和文件格式计算指纹, 新鲜期内相同指纹的导出直接链接已生成的文件
+ */
+@Slf4j
+@Component
+public class ExportResultCache {
+
+    @Value("${export.reuse-fresh-seconds:300}")
+    private long freshSeconds;
+
+    private static ExportResultCache instance;
+
+    private Cache<String, String> files;
+
+    @PostConstruct
+    public void init() {
+        files = CacheBuilder.newBuilder()
+                .maximumSize(1024)
+                .expireAfterWrite(Math.max(freshSeconds, 1), TimeUnit.SECONDS)
+                .build();
+        instance = this;
+    }
+
+    static ExportResultCache getInstance() {
+        return instance;
+    }
+
+    boolean isEnable() {
+        return freshSeconds > 0;
+    }
+
+    /**
+     * 导出指纹, 包含数据源和执行用户, 任一缺失时返回 null 不复用
+     *
+     * @param sheetContexts
+     * @param type
+     * @return
+     */
+    static String fingerprint(List<SheetContext> sheetContexts, FileTypeEnum type) {
+        StringBuilder builder = new StringBuilder(type.getFormat());
+        for (SheetContext context : sheetContexts) {
+            if (context.getSourceId() == null || StringUtils.isEmpty(context.getJdbcUrl()) || context.getUserId() == null) {
+                return null;
+            }
+            Map<String, Object> sheet = new LinkedHashMap<>();
+            sheet.put("sourceId", context.getSourceId());
+            sheet.put("jdbcUrl", context.getJdbcUrl());
+            sheet.put("userId", context.getUserId());
+            sheet.put("params", context.getParams());
+            sheet.put("name", context.getName());
+            sheet.put("executeSql", context.getExecuteSql());
+            sheet.put("querySql", context.getQuerySql());
+            sheet.put("excludeColumns", context.getExcludeColumns());
+            sheet.put("isTable", context.getIsTable());
+            sheet.put("contain", context.getContain());
+            sheet.put("excelHeaders", context.getExcelHeaders());
+            sheet.put("resultLimit", context.getResultLimit());
+            builder.append(JSON.toJSONString(sheet));
+        }
+        return MD5Util.getMD5(builder.toString(), false, 32);
+    }
+
+    /**
+     * 查找新鲜期内的导出文件, 链接到目标路径
+     *
+     * @param fingerprint
+     * @param targetPath
+     * @return 复用成功返回 true
+     */
+    boolean reuse(String fingerprint, String targetPath) {
+        if (!isEnable()) {
+            return false;
+        }
+
+        String path = files.getIfPresent(fingerprint);
+        if (path == null) {
+            return false;
+        }
+
+        File source = new File(path);
+        if (!source.exists()) {
+            files.invalidate(fingerprint);
+            return false;
+        }
+
+        File target = new File(targetPath);
+        try {
+            // 硬链接使各记录可以独立删除, 不支持时复制
+            Files.createLink(target.toPath(), source.toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            try {
+                Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException ex) {
+                log.warn("Reuse export file {} error: {}", path, ex.getMessage());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void put(String fingerprint, String path) {
+        if (isEnable()) {
+            files.put(fingerprint, path);
+        }
+    }
+}
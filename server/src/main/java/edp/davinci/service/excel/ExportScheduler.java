@@ -0,0 +1,314 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.excel;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import edp.core.utils.CollectionUtils;
+import edp.davinci.core.enums.DownloadTaskStatus;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 导出任务调度
+ * 按用户轮询出队, 限制单个用户、单个组织的并发数和排队数, 超出总排队上限时拒绝
+ */
+@Slf4j
+@Component
+public class ExportScheduler {
+
+    @Value("${export.max-concurrency:16}")
+    private int maxConcurrency;
+
+    @Value("${export.max-pending:256}")
+    private int maxPending;
+
+    @Value("${export.user-max-concurrency:2}")
+    private int userMaxConcurrency;
+
+    @Value("${export.user-max-pending:20}")
+    private int userMaxPending;
+
+    @Value("${export.org-max-concurrency:8}")
+    private int orgMaxConcurrency;
+
+    private static ExportScheduler instance;
+
+    private ThreadPoolExecutor workers;
+
+    // 每个用户一个等待队列, ring 记录轮询顺序
+    private final Map<String, Deque<ExportTask<?>>> pending = new HashMap<>();
+
+    private final LinkedList<String> ring = new LinkedList<>();
+
+    private final Map<String, Integer> runningByUser = new HashMap<>();
+
+    private final Map<String, Integer> runningByOrg = new HashMap<>();
+
+    private int pendingCount = 0;
+
+    private int running = 0;
+
+    @PostConstruct
+    public void init() {
+        workers = new ThreadPoolExecutor(maxConcurrency, maxConcurrency,
+                60_000, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(maxConcurrency),
+                new ThreadFactoryBuilder().setNameFormat("Workbook-worker-%d").setDaemon(true).build(), new ThreadPoolExecutor.AbortPolicy());
+        workers.allowCoreThreadTimeOut(true);
+        instance = this;
+    }
+
+    static ExportScheduler getInstance() {
+        return instance;
+    }
+
+    /**
+     * 提交导出任务, 排队已满时抛出 RejectedExecutionException
+     *
+     * @param context
+     * @param worker
+     * @param customLogger
+     * @param <T>
+     * @return
+     */
+    <T> Future<T> submit(WorkBookContext context, Callable<T> worker, Logger customLogger) {
+        return submit(context, worker, customLogger, null);
+    }
+
+    /**
+     * 提交导出任务, 任务执行完成、被取消或被拒绝后都会调用 onDone
+     *
+     * @param context
+     * @param worker
+     * @param customLogger
+     * @param onDone
+     * @param <T>
+     * @return
+     */
+    <T> Future<T> submit(WorkBookContext context, Callable<T> worker, Logger customLogger, Runnable onDone) {
+        ExportProgress progress = new ExportProgress(context.getWrapper());
+        context.setProgress(progress);
+
+        ExportTask<T> task = new ExportTask<>(worker, getUserKey(context), getOrgKey(context), progress, onDone);
+        synchronized (this) {
+            Deque<ExportTask<?>> queue = pending.get(task.userKey);
+            int queued = queue == null ? 0 : queue.size();
+            if (pendingCount >= maxPending || queued >= userMaxPending) {
+                throw new RejectedExecutionException("Task(" + context.getTaskKey() + ") rejected, pending:" + pendingCount
+                        + ", user pending:" + queued);
+            }
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                pending.put(task.userKey, queue);
+                ring.addLast(task.userKey);
+            }
+            queue.addLast(task);
+            pendingCount++;
+            if (customLogger != null) {
+                customLogger.info("Task({}) queued, user:{}, org:{}, user pending:{}, pending:{}, running:{}",
+                        context.getTaskKey(), task.userKey, task.orgKey, queue.size(), pendingCount, running);
+            }
+        }
+
+        dispatch();
+        return task;
+    }
+
+    public synchronized int getPendingCount() {
+        return pendingCount;
+    }
+
+    public synchronized int getRunningCount() {
+        return running;
+    }
+
+    /**
+     * 本地是否还有空闲的导出线程, 分布式 worker 据此决定是否继续领取任务
+     *
+     * @return
+     */
+    synchronized boolean hasCapacity() {
+        return running + pendingCount < maxConcurrency;
+    }
+
+    private void dispatch() {
+        List<ExportTask<?>> ready = new ArrayList<>();
+        synchronized (this) {
+            while (running < maxConcurrency) {
+                ExportTask<?> task = pollNext();
+                if (task == null) {
+                    break;
+                }
+                running++;
+                runningByUser.merge(task.userKey, 1, Integer::sum);
+                if (task.orgKey != null) {
+                    runningByOrg.merge(task.orgKey, 1, Integer::sum);
+                }
+                ready.add(task);
+            }
+        }
+
+        for (ExportTask<?> task : ready) {
+            try {
+                workers.execute(() -> {
+                    try {
+                        if (!task.isCancelled()) {
+                            task.progress.updateStatus(DownloadTaskStatus.PROCESSING);
+                        }
+                        task.run();
+                    } finally {
+                        release(task);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                log.error("Export worker rejected task, user:{}", task.userKey);
+                task.reject(new RejectedExecutionException("Export worker rejected task, user:" + task.userKey, e));
+                release(task);
+            }
+        }
+    }
+
+    /**
+     * 从上次位置开始轮询用户, 取第一个未超出并发限制的任务
+     *
+     * @return
+     */
+    private ExportTask<?> pollNext() {
+        int size = ring.size();
+        for (int i = 0; i < size; i++) {
+            String userKey = ring.pollFirst();
+            Deque<ExportTask<?>> queue = pending.get(userKey);
+            if (CollectionUtils.isEmpty(queue)) {
+                pending.remove(userKey);
+                continue;
+            }
+
+            ExportTask<?> task = queue.peekFirst();
+            if (task.isCancelled()) {
+                queue.pollFirst();
+                pendingCount--;
+                ring.addFirst(userKey);
+                i--;
+                continue;
+            }
+
+            ring.addLast(userKey);
+            if (runningByUser.getOrDefault(userKey, 0) >= userMaxConcurrency) {
+                continue;
+            }
+            if (task.orgKey != null && runningByOrg.getOrDefault(task.orgKey, 0) >= orgMaxConcurrency) {
+                continue;
+            }
+
+            queue.pollFirst();
+            pendingCount--;
+            if (queue.isEmpty()) {
+                pending.remove(userKey);
+                ring.removeLast();
+            }
+            return task;
+        }
+        return null;
+    }
+
+    private void release(ExportTask<?> task) {
+        synchronized (this) {
+            running--;
+            decrement(runningByUser, task.userKey);
+            if (task.orgKey != null) {
+                decrement(runningByOrg, task.orgKey);
+            }
+        }
+        dispatch();
+    }
+
+    private static void decrement(Map<String, Integer> counter, String key) {
+        counter.computeIfPresent(key, (k, v) -> v > 1 ? v - 1 : null);
+    }
+
+    private static String getUserKey(WorkBookContext context) {
+        if (context.getUser() != null && context.getUser().getId() != null) {
+            return "user:" + context.getUser().getId();
+        }
+        MsgWrapper<?> wrapper = context.getWrapper();
+        if (wrapper != null && wrapper.getxUUID() != null) {
+            return "share:" + wrapper.getxUUID();
+        }
+        return "task:" + context.getTaskKey();
+    }
+
+    private static String getOrgKey(WorkBookContext context) {
+        if (CollectionUtils.isEmpty(context.getWidgets())) {
+            return null;
+        }
+        return context.getWidgets().stream()
+                .map(WidgetContext::getOrgId)
+                .filter(Objects::nonNull)
+                .findFirst()
+                .map(orgId -> "org:" + orgId)
+                .orElse(null);
+    }
+
+    private static class ExportTask<T> extends FutureTask<T> {
+
+        private final String userKey;
+
+        private final String orgKey;
+
+        private final ExportProgress progress;
+
+        private final Runnable onDone;
+
+        ExportTask(Callable<T> callable, String userKey, String orgKey, ExportProgress progress, Runnable onDone) {
+            super(callable);
+            this.userKey = userKey;
+            this.orgKey = orgKey;
+            this.progress = progress;
+            this.onDone = onDone;
+        }
+
+        @Override
+        protected void done() {
+            if (onDone == null) {
+                return;
+            }
+            try {
+                onDone.run();
+            } catch (Exception e) {
+                log.error("Export task done callback error, user:{}", userKey, e);
+            }
+        }
+
+        /**
+         * 线程池拒绝时以 RejectedExecutionException 结束, 调用方 get 时得到 ExecutionException 而非取消
+         *
+         * @param e
+         */
+        void reject(RejectedExecutionException e) {
+            progress.updateStatus(DownloadTaskStatus.REJECTED);
+            setException(e);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.excel;
+
+import edp.core.model.PaginateWithQueryColumns;
+import edp.core.utils.MD5Util;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 单次任务内的查询结果复用
+ * 定时任务的截图分享页和excel sheet共用一个作用域, 相同的查询在任务结束前只执行一次
+ * 超过 MAX_ROWS 的结果不共用, 加载方抛出 ResultTooLargeException, 等待方各自查询
+ */
+@Slf4j
+public class QueryResultScope implements Closeable {
+
+    private static final Map<String, QueryResultScope> SCOPES = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<QueryResultScope> CURRENT = new ThreadLocal<>();
+
+    // 作用域内共用结果的最大行数
+    public static final int MAX_ROWS = 50_000;
+
+    private final String id;
+
+    private final String name;
+
+    private final Map<String, CompletableFuture<PaginateWithQueryColumns>> results = new ConcurrentHashMap<>();
+
+    private final AtomicInteger hits = new AtomicInteger(0);
+
+    private final AtomicInteger misses = new AtomicInteger(0);
+
+    private volatile boolean closed = false;
+
+    private QueryResultScope(String name) {
+        this.id = UUID.randomUUID().toString().replace("-", "");
+        this.name = name;
+    }
+
+    public static QueryResultScope open(String name) {
+        QueryResultScope scope = new QueryResultScope(name);
+        SCOPES.put(scope.id, scope);
+        return scope;
+    }
+
+    public static QueryResultScope get(String id) {
+        if (StringUtils.isEmpty(id)) {
+            return null;
+        }
+        return SCOPES.get(id);
+    }
+
+    public static QueryResultScope current() {
+        return CURRENT.get();
+    }
+
+    public static void setCurrent(QueryResultScope scope) {
+        CURRENT.set(scope);
+    }
+
+    public static void removeCurrent() {
+        CURRENT.remove();
+    }
+
+    /**
+     * 查询标识, 分页参数小于1时按不分页处理
+     *
+     * @param sourceId
+     * @param sql
+     * @param pageNo
+     * @param pageSize
+     * @param totalCount
+     * @param limit
+     * @param excludeColumns
+     * @return
+     */
+    public static String key(Long sourceId, String sql, int pageNo, int pageSize, int totalCount, int limit,
+                             Collection<String> excludeColumns) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(sourceId).append("@")
+                .append(Math.max(pageNo, 0)).append("-")
+                .append(Math.max(pageSize, 0)).append("-")
+                .append(pageNo < 1 && pageSize < 1 ? 0 : Math.max(totalCount, 0)).append("-")
+                .append(Math.max(limit, 0)).append("-");
+        if (excludeColumns != null) {
+            builder.append(new TreeSet<>(excludeColumns));
+        }
+        builder.append(sql);
+        return MD5Util.getMD5(builder.toString(), true, 32);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * 获取查询结果, 同一查询并发调用时只有一个执行, 其余等待其结果
+     *
+     * @param key
+     * @param loader
+     * @return
+     * @throws Exception
+     */
+    public PaginateWithQueryColumns load(String key, Callable<PaginateWithQueryColumns> loader) throws Exception {
+        if (closed || StringUtils.isEmpty(key)) {
+            return loader.call();
+        }
+
+        CompletableFuture<PaginateWithQueryColumns> future = new CompletableFuture<>();
+        CompletableFuture<PaginateWithQueryColumns> exist = results.putIfAbsent(key, future);
+        if (exist != null) {
+            hits.incrementAndGet();
+            try {
+                return exist.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof ResultTooLargeException) {
+                    return loader.call();
+                }
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+
+        misses.incrementAndGet();
+        try {
+            PaginateWithQueryColumns result = loader.call();
+            future.complete(result);
+            return result;
+        } catch (Exception e) {
+            results.remove(key, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * 结果超过作用域行数上限, 不在作用域内共用
+     */
+    public static class ResultTooLargeException extends Exception {
+
+        private static final long serialVersionUID = 4612753859129643058L;
+
+        public ResultTooLargeException(String message) {
+            super(message);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        SCOPES.remove(id);
+        results.clear();
+        log.info("Query result scope({}) closed, queries:{}, reused:{}", name, misses.get(), hits.get());
+    }
+}
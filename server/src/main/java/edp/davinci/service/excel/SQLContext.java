@@ -44,6 +44,10 @@ public class SQLContext implements Serializable {
 
     private List<String> excludeColumns;
 
+    private String resultCacheKey;
+
+    private String queryKey;
+
 
     public List<String> getExecuteSql() {
         return executeSql;
@@ -84,4 +88,20 @@ public class SQLContext implements Serializable {
     public void setExcludeColumns(List<String> excludeColumns) {
         this.excludeColumns = excludeColumns;
     }
+
+    public String getResultCacheKey() {
+        return resultCacheKey;
+    }
+
+    public void setResultCacheKey(String resultCacheKey) {
+        this.resultCacheKey = resultCacheKey;
+    }
+
+    public String getQueryKey() {
+        return queryKey;
+    }
+
+    public void setQueryKey(String queryKey) {
+        this.queryKey = queryKey;
+    }
 }
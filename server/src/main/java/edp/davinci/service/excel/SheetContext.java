@@ -22,6 +22,7 @@ package edp.davinci.service.excel;
 import edp.core.model.QueryColumn;
 import edp.core.utils.SqlUtils;
 import edp.davinci.core.model.ExcelHeader;
+import edp.davinci.dto.viewDto.Param;
 import lombok.Data;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
@@ -58,6 +59,14 @@ public class SheetContext implements Serializable {
     private int resultLimit;
     private String taskKey;
     private Logger customLogger;
+    private transient ExportProgress progress;
+    private String resultCacheKey;
+    private String queryKey;
+    private transient QueryResultScope queryScope;
+    private Long sourceId;
+    private String jdbcUrl;
+    private Long userId;
+    private List<Param> params;
 
 
     public static final class SheetContextBuilder {
@@ -80,6 +89,14 @@ public class SheetContext implements Serializable {
         private int resultLimit;
         private String taskKey;
         private Logger customLogger;
+        private ExportProgress progress;
+        private String resultCacheKey;
+        private String queryKey;
+        private QueryResultScope queryScope;
+        private Long sourceId;
+        private String jdbcUrl;
+        private Long userId;
+        private List<Param> params;
 
         private SheetContextBuilder() {
         }
@@ -183,6 +200,42 @@ public class SheetContext implements Serializable {
             return this;
         }
 
+        public SheetContextBuilder withProgress(ExportProgress progress) {
+            this.progress = progress;
+            return this;
+        }
+
+        public SheetContextBuilder withResultCacheKey(String resultCacheKey) {
+            this.resultCacheKey = resultCacheKey;
+            return this;
+        }
+
+        public SheetContextBuilder withQueryKey(String queryKey) {
+            this.queryKey = queryKey;
+            return this;
+        }
+
+        public SheetContextBuilder withQueryScope(QueryResultScope queryScope) {
+            this.queryScope = queryScope;
+            return this;
+        }
+
+        public SheetContextBuilder withSource(Long sourceId, String jdbcUrl) {
+            this.sourceId = sourceId;
+            this.jdbcUrl = jdbcUrl;
+            return this;
+        }
+
+        public SheetContextBuilder withUserId(Long userId) {
+            this.userId = userId;
+            return this;
+        }
+
+        public SheetContextBuilder withParams(List<Param> params) {
+            this.params = params;
+            return this;
+        }
+
         public SheetContext build() {
             SheetContext sheetContext = new SheetContext();
             sheetContext.setExecuteSql(executeSql);
@@ -204,6 +257,14 @@ public class SheetContext implements Serializable {
             sheetContext.setResultLimit(resultLimit);
             sheetContext.setTaskKey(taskKey);
             sheetContext.setCustomLogger(customLogger);
+            sheetContext.setProgress(progress);
+            sheetContext.setResultCacheKey(resultCacheKey);
+            sheetContext.setSourceId(sourceId);
+            sheetContext.setJdbcUrl(jdbcUrl);
+            sheetContext.setUserId(userId);
+            sheetContext.setParams(params);
+            sheetContext.setQueryKey(queryKey);
+            sheetContext.setQueryScope(queryScope);
             return sheetContext;
         }
     }
@@ -229,6 +290,8 @@ public class SheetContext implements Serializable {
                 ", wrapper=" + wrapper +
                 ", resultLimit=" + resultLimit +
                 ", taskKey='" + taskKey + '\'' +
+                ", resultCacheKey='" + resultCacheKey + '\'' +
+                ", queryKey='" + queryKey + '\'' +
                 '}';
     }
 }
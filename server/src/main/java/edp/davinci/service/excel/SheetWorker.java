@@ -22,13 +22,17 @@ package edp.davinci.service.excel;
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.Maps;
 import edp.core.enums.DataTypeEnum;
+import edp.core.model.PaginateWithQueryColumns;
 import edp.core.model.QueryColumn;
 import edp.core.utils.CollectionUtils;
 import edp.core.utils.MD5Util;
+import edp.core.utils.RedisUtils;
 import edp.core.utils.SqlUtils;
+import edp.davinci.core.config.SpringContextHolder;
 import edp.davinci.core.enums.ActionEnum;
 import edp.davinci.core.utils.SqlParseUtils;
 import edp.davinci.dto.cronJobDto.MsgMailExcel;
+import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.springframework.jdbc.core.JdbcTemplate;
 
@@ -51,8 +55,6 @@ public class SheetWorker<T> extends AbstractSheetWriter implements Callable {
     
     private SheetContext context;
 
-    private int maxRows = 1000000;
-
     public SheetWorker(SheetContext context) {
         this.context = context;
     }
@@ -72,11 +74,21 @@ public class SheetWorker<T> extends AbstractSheetWriter implements Callable {
 
             SqlUtils utils = context.getSqlUtils();
             JdbcTemplate template = utils.jdbcTemplate();
-            propertiesSet(template);
-            buildQueryColumn(template);
+            PaginateWithQueryColumns cachedResult = getCachedResult();
+            if (cachedResult == null) {
+                cachedResult = getScopedResult(template);
+            }
+            if (cachedResult != null) {
+                context.setTotalColumns(cachedResult.getColumns());
+                context.setQueryColumns(new ArrayList<>(cachedResult.getColumns()));
+            } else {
+                propertiesSet(template);
+                buildQueryColumn(template);
+            }
             super.init(context);
             super.writeHeader(context);
-            template.setMaxRows(context.getResultLimit() > 0 && context.getResultLimit() <= maxRows ? context.getResultLimit() : maxRows);
+            // rows beyond the xlsx sheet limit roll over to continuation sheets
+            template.setMaxRows(context.getResultLimit() > 0 ? context.getResultLimit() : 0);
 
             // special for mysql
             if(utils.getDataTypeEnum() == DataTypeEnum.MYSQL) {
@@ -93,17 +105,29 @@ public class SheetWorker<T> extends AbstractSheetWriter implements Callable {
             }
 
             final AtomicInteger count = new AtomicInteger(0);
-            template.query(sql, rs -> {
+            if (cachedResult != null) {
+                if (log) {
+                    logger.info("Task({}) sheet worker(name:{}, sheetNo:{}, sheetName:{}) read from result cache md5:{}",
+                            context.getTaskKey(), context.getName(), context.getSheetNo(), context.getSheet().getSheetName(), md5);
+                }
+                for (Map<String, Object> dataMap : cachedResult.getResultList()) {
+                    interrupted(context);
+                    writeLine(context, dataMap);
+                    lineWritten(count);
+                }
+            } else {
+                template.query(sql, rs -> {
 
-                interrupted(context);
+                    interrupted(context);
 
-                Map<String, Object> dataMap = Maps.newHashMap();
-                for (int i = 1; i <= rs.getMetaData().getColumnCount(); i++) {
-                    dataMap.put(SqlUtils.getColumnLabel(queryFromsAndJoins, rs.getMetaData().getColumnLabel(i)), rs.getObject(rs.getMetaData().getColumnLabel(i)));
-                }
-                writeLine(context, dataMap);
-                count.incrementAndGet();
-            });
+                    Map<String, Object> dataMap = Maps.newHashMap();
+                    for (int i = 1; i <= rs.getMetaData().getColumnCount(); i++) {
+                        dataMap.put(SqlUtils.getColumnLabel(queryFromsAndJoins, rs.getMetaData().getColumnLabel(i)), rs.getObject(rs.getMetaData().getColumnLabel(i)));
+                    }
+                    writeLine(context, dataMap);
+                    lineWritten(count);
+                });
+            }
 
             if (log) {
                 logger.info("Task({}) sheet worker(name:{}, sheetNo:{}, sheetName:{}) query finish md5:{}, count:{}",
@@ -138,6 +162,83 @@ public class SheetWorker<T> extends AbstractSheetWriter implements Callable {
         return (T) rst;
     }
 
+    private void lineWritten(AtomicInteger count) {
+        count.incrementAndGet();
+        if (context.getProgress() != null) {
+            context.getProgress().increment();
+        }
+    }
+
+    /**
+     * 读取交互查询的结果缓存, 仅在缓存为完整结果时使用
+     *
+     * @return
+     */
+    private PaginateWithQueryColumns getCachedResult() {
+        if (StringUtils.isEmpty(context.getResultCacheKey())) {
+            return null;
+        }
+        try {
+            Object object = ((RedisUtils) SpringContextHolder.getBean(RedisUtils.class)).get(context.getResultCacheKey());
+            if (!(object instanceof PaginateWithQueryColumns)) {
+                return null;
+            }
+            PaginateWithQueryColumns paginate = (PaginateWithQueryColumns) object;
+            if (CollectionUtils.isEmpty(paginate.getColumns())) {
+                return null;
+            }
+            if (context.getResultLimit() > 0 && paginate.getResultList().size() > context.getResultLimit()) {
+                return null;
+            }
+            return paginate;
+        } catch (Exception e) {
+            Logger logger = context.getCustomLogger();
+            if (logger != null) {
+                logger.warn("Task({}) sheet worker(name:{}) get result cache error: {}", context.getTaskKey(), context.getName(), e.getMessage());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 任务内有查询作用域时, 相同查询只执行一次, 结果与分享页共用
+     * 最多读取 QueryResultScope.MAX_ROWS 行, 超过时返回 null 改为流式导出
+     *
+     * @param template
+     * @return
+     * @throws Exception
+     */
+    private PaginateWithQueryColumns getScopedResult(JdbcTemplate template) throws Exception {
+        QueryResultScope scope = context.getQueryScope();
+        if (scope == null || StringUtils.isEmpty(context.getQueryKey())) {
+            return null;
+        }
+
+        PaginateWithQueryColumns paginate;
+        try {
+            paginate = scope.load(context.getQueryKey(), () -> {
+                propertiesSet(template);
+                String sql = SqlParseUtils.rebuildSqlWithFragment(context.getQuerySql().get(context.getQuerySql().size() - 1));
+                Set<String> excludeColumns = context.getExcludeColumns() == null ? new HashSet<>() : new HashSet<>(context.getExcludeColumns());
+                PaginateWithQueryColumns result = context.getSqlUtils().syncQuery4Paginate(sql, 0, 0, 0, QueryResultScope.MAX_ROWS + 1, excludeColumns);
+                if (result != null && result.getResultList().size() > QueryResultScope.MAX_ROWS) {
+                    throw new QueryResultScope.ResultTooLargeException("Result of " + context.getName() + " exceeds " + QueryResultScope.MAX_ROWS + " rows");
+                }
+                return result;
+            });
+        } catch (QueryResultScope.ResultTooLargeException e) {
+            return null;
+        }
+
+        if (paginate == null || CollectionUtils.isEmpty(paginate.getColumns())) {
+            return null;
+        }
+        if (context.getResultLimit() > 0 && paginate.getResultList().size() > context.getResultLimit()) {
+            return null;
+        }
+        return paginate;
+    }
+
     private void interrupted(SheetContext context) {
         if (Thread.interrupted()) {
             Logger logger = context.getCustomLogger();
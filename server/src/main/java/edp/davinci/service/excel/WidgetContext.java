@@ -47,6 +47,8 @@ public class WidgetContext implements Serializable {
 
     private ViewExecuteParam executeParam;
 
+    private Long orgId;
+
     public WidgetContext(Widget widget, Dashboard dashboard, MemDashboardWidget memDashboardWidget, ViewExecuteParam executeParam) {
         this.widget = widget;
         this.dashboard = dashboard;
@@ -0,0 +1,111 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.excel;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import edp.core.model.QueryColumn;
+import edp.core.utils.CollectionUtils;
+import edp.core.utils.SqlUtils;
+import edp.davinci.core.config.SpringContextHolder;
+import edp.davinci.core.utils.SqlParseUtils;
+import edp.davinci.dao.ViewMapper;
+import edp.davinci.dto.viewDto.ViewWithProjectAndSource;
+import edp.davinci.model.User;
+import edp.davinci.service.ViewService;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 按 widget 的查询结果计算数据指纹, 结果逐行流式计算, 不在内存中保留
+ */
+public final class WidgetDataFingerprint {
+
+    private WidgetDataFingerprint() {
+    }
+
+    /**
+     * 计算一组 widget 的数据指纹
+     *
+     * @param widgets
+     * @param user
+     * @return
+     * @throws Exception
+     */
+    public static String of(List<WidgetContext> widgets, User user) throws Exception {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        if (CollectionUtils.isEmpty(widgets)) {
+            return hasher.hash().toString();
+        }
+
+        ViewMapper viewMapper = (ViewMapper) SpringContextHolder.getBean(ViewMapper.class);
+        ViewService viewService = (ViewService) SpringContextHolder.getBean(ViewService.class);
+        for (WidgetContext context : widgets) {
+            hasher.putLong(context.getWidget().getId());
+
+            ViewWithProjectAndSource viewWithProjectAndSource = viewMapper.getViewWithProjectAndSourceById(context.getWidget().getViewId());
+            SQLContext sqlContext = viewWithProjectAndSource == null ? null : viewService.getSQLContext(context.getIsMaintainer(),
+                    viewWithProjectAndSource, WorkbookWorker.buildExecuteParam(context), user);
+            if (sqlContext == null || CollectionUtils.isEmpty(sqlContext.getQuerySql())) {
+                hasher.putInt(0);
+                continue;
+            }
+
+            SqlUtils sqlUtils = ((SqlUtils) SpringContextHolder.getBean(SqlUtils.class)).init(viewWithProjectAndSource.getSource());
+            String sql = SqlParseUtils.rebuildSqlWithFragment(sqlContext.getQuerySql().get(sqlContext.getQuerySql().size() - 1));
+            Set<String> excludeColumns = sqlContext.getExcludeColumns() == null ? new HashSet<>() : new HashSet<>(sqlContext.getExcludeColumns());
+
+            List<QueryColumn> columns = new ArrayList<>();
+            int rows = sqlUtils.queryForEach(sql, excludeColumns, queryColumns -> {
+                columns.addAll(queryColumns);
+                putColumns(hasher, columns);
+            }, row -> putRow(hasher, columns, row));
+            // 行数放在最后, 区分不同 widget 的边界
+            hasher.putInt(rows);
+        }
+        return hasher.hash().toString();
+    }
+
+    private static void putColumns(Hasher hasher, List<QueryColumn> columns) {
+        hasher.putInt(columns.size());
+        for (QueryColumn column : columns) {
+            hasher.putInt(column.getName().length());
+            hasher.putString(column.getName(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void putRow(Hasher hasher, List<QueryColumn> columns, Map<String, Object> row) {
+        for (QueryColumn column : columns) {
+            Object value = row.get(column.getName());
+            // 区分 null 和 "null"
+            hasher.putBoolean(value == null);
+            if (value != null) {
+                String text = String.valueOf(value);
+                hasher.putInt(text.length());
+                hasher.putString(text, StandardCharsets.UTF_8);
+            }
+        }
+    }
+}
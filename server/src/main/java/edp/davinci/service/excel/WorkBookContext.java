@@ -48,6 +48,10 @@ public class WorkBookContext implements Serializable {
 
     private Logger customLogger;
 
+    private transient ExportProgress progress;
+
+    private transient QueryResultScope queryScope;
+
     private WorkBookContext() {
 
     }
@@ -59,6 +63,7 @@ public class WorkBookContext implements Serializable {
         private int resultLimit;
         private String taskKey;
         private Logger customLogger;
+        private QueryResultScope queryScope;
 
         private WorkBookContextBuilder() {
         
@@ -98,6 +103,11 @@ public class WorkBookContext implements Serializable {
             return this;
         }
 
+        public WorkBookContextBuilder withQueryScope(QueryResultScope queryScope) {
+            this.queryScope = queryScope;
+            return this;
+        }
+
         public WorkBookContext build() {
             WorkBookContext workBookContext = new WorkBookContext();
             workBookContext.setWrapper(wrapper);
@@ -106,6 +116,7 @@ public class WorkBookContext implements Serializable {
             workBookContext.setResultLimit(resultLimit);
             workBookContext.setTaskKey(taskKey);
             workBookContext.setCustomLogger(customLogger);
+            workBookContext.setQueryScope(queryScope);
             return workBookContext;
         }
     }
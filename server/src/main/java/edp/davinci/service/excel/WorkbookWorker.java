@@ -69,6 +69,10 @@ public class WorkbookWorker<T> extends MsgNotifier implements Callable {
         this.context = context;
     }
 
+    WorkBookContext getContext() {
+        return context;
+    }
+
     @Override
     public T call() throws Exception {
         Stopwatch watch = Stopwatch.createStarted();
@@ -91,6 +95,22 @@ public class WorkbookWorker<T> extends MsgNotifier implements Callable {
                         "Task(" + context.getTaskKey() + ") workbook worker sheetContextList is empty");
             }
 
+            ExportResultCache resultCache = ExportResultCache.getInstance();
+            String fingerprint = ExportResultCache.fingerprint(sheetContextList, FileTypeEnum.XLSX);
+            if (fingerprint != null && resultCache != null && resultCache.isEnable()) {
+                String reusePath = ((FileUtils) SpringContextHolder.getBean(FileUtils.class)).getFilePath(FileTypeEnum.XLSX, this.context.getWrapper());
+                if (resultCache.reuse(fingerprint, reusePath)) {
+                    filePath = reusePath;
+                    if (log) {
+                        logger.info("Task({}) workbook worker reuse export file, fingerprint={}, filePath={}", context.getTaskKey(), fingerprint, filePath);
+                    }
+                    wrapper.setRst(filePath);
+                    finishProgress();
+                    super.tell(wrapper);
+                    return (T) filePath;
+                }
+            }
+
             wb = new SXSSFWorkbook(1000);
             List<Future> futures = Lists.newArrayList();
             int sheetNo = 0;
@@ -125,6 +145,7 @@ public class WorkbookWorker<T> extends MsgNotifier implements Callable {
                 if (wrapper.getAction() == ActionEnum.MAIL) {
                     MsgMailExcel msg = (MsgMailExcel) wrapper.getMsg();
                     msg.setException(e);
+                    finishProgress();
                     super.tell(wrapper);
                     return null;
                 }
@@ -140,6 +161,9 @@ public class WorkbookWorker<T> extends MsgNotifier implements Callable {
                     throw e;
                 }
                 wrapper.setRst(filePath);
+                if (fingerprint != null && resultCache != null) {
+                    resultCache.put(fingerprint, filePath);
+                }
             } else {
                 if (log) {
                     logger.info("Task({}) sheet worker execute fail action={}, xid={}", logArgs);
@@ -152,6 +176,7 @@ public class WorkbookWorker<T> extends MsgNotifier implements Callable {
                 wrapper.setRst(null);
             }
 
+            finishProgress();
             super.tell(wrapper);
 
         } catch (Exception e) {
@@ -169,6 +194,7 @@ public class WorkbookWorker<T> extends MsgNotifier implements Callable {
                 FileUtils.delete(filePath);
             }
 
+            finishProgress();
             super.tell(wrapper);
 
         } finally {
@@ -192,6 +218,12 @@ public class WorkbookWorker<T> extends MsgNotifier implements Callable {
         return (T) filePath;
     }
 
+    private void finishProgress() {
+        if (context.getProgress() != null) {
+            context.getProgress().finish();
+        }
+    }
+
     private void workbookDispose(Workbook wb) {
         if (wb != null) {
             ((SXSSFWorkbook)wb).dispose();
@@ -206,36 +238,7 @@ public class WorkbookWorker<T> extends MsgNotifier implements Callable {
             Dashboard dashboard = context.getDashboard();
             MemDashboardWidget memDashboardWidget = context.getMemDashboardWidget();
 
-            ViewExecuteParam executeParam = null;
-            if (context.hasExecuteParam()) {
-                executeParam = context.getExecuteParam();
-            } else {
-
-                Set<SimpleView> simpleViews = new HashSet<>();
-
-                // global controller view
-                if (dashboard != null) {
-                    Map<String, Object> dashboardConfig = JSON.parseObject(dashboard.getConfig(), Map.class);
-                    if (!CollectionUtils.isEmpty(dashboardConfig)) {
-                        simpleViews.addAll(VizUtils.getControllerViews((List<Map<String, Object>>) dashboardConfig.get("filters")));
-                    }
-                }
-
-                // widget controller view
-                Map<String, Object> widgetConfigMap = JSON.parseObject(widget.getConfig(), Map.class);
-                if (!CollectionUtils.isEmpty(widgetConfigMap)) {
-                    simpleViews.addAll(VizUtils.getControllerViews((List<Map<String, Object>>) widgetConfigMap.get("controls")));
-                }
-
-                // widget view
-                simpleViews.add(((ViewMapper) SpringContextHolder.getBean(ViewMapper.class)).getSimpleViewById(widget.getViewId()));
-
-                executeParam = ScriptUtils.getViewExecuteParam(
-                        dashboard != null ? dashboard.getConfig() : null,
-                        widget.getConfig(),
-                        simpleViews,
-                        memDashboardWidget != null ? memDashboardWidget.getId() : null);
-            }
+            ViewExecuteParam executeParam = buildExecuteParam(context);
 
             ViewWithProjectAndSource viewWithProjectAndSource = ((ViewMapper) SpringContextHolder.getBean(ViewMapper.class)).getViewWithProjectAndSourceById(context.getWidget().getViewId());
 
@@ -268,9 +271,57 @@ public class WorkbookWorker<T> extends MsgNotifier implements Callable {
                     .withResultLimit(this.context.getResultLimit())
                     .withTaskKey(this.context.getTaskKey())
                     .withCustomLogger(this.context.getCustomLogger())
+                    .withProgress(this.context.getProgress())
+                    .withResultCacheKey(sqlContext.getResultCacheKey())
+                    .withQueryKey(sqlContext.getQueryKey())
+                    .withQueryScope(this.context.getQueryScope())
+                    .withSource(viewWithProjectAndSource.getSource().getId(), viewWithProjectAndSource.getSource().getJdbcUrl())
+                    .withUserId(this.context.getUser() == null ? null : this.context.getUser().getId())
+                    .withParams(sqlContext.getViewExecuteParam() == null ? null : sqlContext.getViewExecuteParam().getParams())
                     .build();
             sheetContextList.add(sheetContext);
         }
         return sheetContextList;
     }
+
+    /**
+     * widget 的查询参数, 未指定时按 dashboard 和 widget 配置计算
+     *
+     * @param context
+     * @return
+     */
+    static ViewExecuteParam buildExecuteParam(WidgetContext context) {
+        if (context.hasExecuteParam()) {
+            return context.getExecuteParam();
+        }
+
+        Widget widget = context.getWidget();
+        Dashboard dashboard = context.getDashboard();
+        MemDashboardWidget memDashboardWidget = context.getMemDashboardWidget();
+
+        Set<SimpleView> simpleViews = new HashSet<>();
+
+        // global controller view
+        if (dashboard != null) {
+            Map<String, Object> dashboardConfig = JSON.parseObject(dashboard.getConfig(), Map.class);
+            if (!CollectionUtils.isEmpty(dashboardConfig)) {
+                simpleViews.addAll(VizUtils.getControllerViews((List<Map<String, Object>>) dashboardConfig.get("filters")));
+            }
+        }
+
+        // widget controller view
+        Map<String, Object> widgetConfigMap = JSON.parseObject(widget.getConfig(), Map.class);
+        if (!CollectionUtils.isEmpty(widgetConfigMap)) {
+            simpleViews.addAll(VizUtils.getControllerViews((List<Map<String, Object>>) widgetConfigMap.get("controls")));
+        }
+
+        // widget view
+        simpleViews.add(((ViewMapper) SpringContextHolder.getBean(ViewMapper.class)).getSimpleViewById(widget.getViewId()));
+
+        return ScriptUtils.getViewExecuteParam(
+                dashboard != null ? dashboard.getConfig() : null,
+                widget.getConfig(),
+                simpleViews,
+                memDashboardWidget != null ? memDashboardWidget.getId() : null);
+    }
 }
@@ -33,6 +33,7 @@ import edp.davinci.core.enums.UserPermissionEnum;
 import edp.davinci.dto.projectDto.ProjectPermission;
 import edp.davinci.model.User;
 import edp.davinci.service.ProjectService;
+import edp.davinci.service.share.ShareAuthCache;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
@@ -42,6 +43,9 @@ public abstract class BaseEntityService {
 	@Autowired
 	ProjectService projectService;
 
+	@Autowired
+	protected ShareAuthCache shareAuthCache;
+
 	protected BaseLock getLock(CheckEntityEnum entity, String name, Long domainId) {
 
 		return LockFactory.getLock(
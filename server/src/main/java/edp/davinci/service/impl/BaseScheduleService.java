@@ -1,19 +1,27 @@
 package edp.davinci.service.impl;
 
+import com.alibaba.fastjson.JSON;
 import edp.core.utils.CollectionUtils;
 import edp.core.utils.DateUtils;
+import edp.core.utils.MD5Util;
 import edp.core.utils.ServerUtils;
 import edp.davinci.core.enums.LogNameEnum;
-import edp.davinci.dao.DashboardMapper;
-import edp.davinci.dao.DisplaySlideMapper;
+import edp.davinci.dao.*;
 import edp.davinci.dto.cronJobDto.CronJobConfig;
 import edp.davinci.dto.cronJobDto.CronJobContent;
 import edp.davinci.dto.dashboardDto.DashboardTree;
-import edp.davinci.model.Dashboard;
-import edp.davinci.model.DisplaySlide;
+import edp.davinci.dto.dashboardDto.DashboardWithPortal;
+import edp.davinci.dto.projectDto.ProjectDetail;
+import edp.davinci.dto.widgetDto.WidgetWithRelationDashboardId;
+import edp.davinci.model.*;
+import edp.davinci.service.ProjectService;
 import edp.davinci.service.ShareService;
 import edp.davinci.service.screenshot.ImageContent;
+import edp.davinci.service.screenshot.ScreenshotCache;
 import edp.davinci.service.screenshot.ScreenshotUtil;
+import edp.davinci.service.excel.QueryResultScope;
+import edp.davinci.service.excel.WidgetContext;
+import edp.davinci.service.excel.WidgetDataFingerprint;
 import edp.davinci.service.share.ShareDataPermission;
 import edp.davinci.service.share.ShareFactor;
 import edp.davinci.service.share.ShareMode;
@@ -21,8 +29,10 @@ import edp.davinci.service.share.ShareType;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.io.File;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -48,6 +58,27 @@ public class BaseScheduleService {
     @Autowired
     private ServerUtils serverUtils;
 
+    @Autowired
+    private ScreenshotCache screenshotCache;
+
+    @Autowired
+    private UserMapper userMapper;
+
+    @Autowired
+    private DisplayMapper displayMapper;
+
+    @Autowired
+    private WidgetMapper widgetMapper;
+
+    @Autowired
+    private MemDashboardWidgetMapper memDashboardWidgetMapper;
+
+    @Autowired
+    private MemDisplaySlideWidgetMapper memDisplaySlideWidgetMapper;
+
+    @Autowired
+    private ProjectService projectService;
+
     protected static final Logger scheduleLogger = LoggerFactory.getLogger(LogNameEnum.BUSINESS_SCHEDULE.getName());
 
     protected static final String PORTAL = "PORTAL";
@@ -68,10 +99,26 @@ public class BaseScheduleService {
      * @throws Exception
      */
     public List<ImageContent> generateImages(long jobId, CronJobConfig cronJobConfig, Long userId) throws Exception {
+        return generateImages(jobId, cronJobConfig, userId, null);
+    }
+
+    /**
+     * 根据job配置截取图片, 分享页的数据查询在给定的作用域内复用
+     *
+     * @param jobId
+     * @param cronJobConfig
+     * @param userId
+     * @param scope
+     * @return
+     * @throws Exception
+     */
+    public List<ImageContent> generateImages(long jobId, CronJobConfig cronJobConfig, Long userId, QueryResultScope scope) throws Exception {
 
         scheduleLogger.info("CronJob({}) fetching images contents", jobId);
 
         List<ImageContent> imageContents = new ArrayList<>();
+        // display 截图对应的 slide
+        Map<ImageContent, Long> slideIds = new IdentityHashMap<>();
 
         Map<String, Integer> vizOrderMap = new HashMap<>();
         Map<Long, Map<Long, Integer>> displayPageMap = new HashMap<>();
@@ -95,15 +142,19 @@ public class BaseScheduleService {
                     if (CollectionUtils.isEmpty(cronJobContent.getItems())) {
                         int finalOrder = order;
                         slidePageMap.forEach((slide, page) -> {
-                            String url = getContentUrl(userId, cronJobContent.getContentType(), cronJobContent.getId(), page);
-                            imageContents.add(new ImageContent(finalOrder + page, cronJobContent.getId(), cronJobContent.getContentType(), url));
+                            String url = getContentUrl(userId, cronJobContent.getContentType(), cronJobContent.getId(), page, scope);
+                            ImageContent imageContent = new ImageContent(finalOrder + page, cronJobContent.getId(), cronJobContent.getContentType(), url);
+                            imageContents.add(imageContent);
+                            slideIds.put(imageContent, slide);
                         });
                     } else {
                         for (Long slideId : cronJobContent.getItems()) {
                             if (slidePageMap.containsKey(slideId)) {
                                 int page = slidePageMap.get(slideId);
-                                String url = getContentUrl(userId, cronJobContent.getContentType(), cronJobContent.getId(), page);
-                                imageContents.add(new ImageContent(order + page, cronJobContent.getId(), cronJobContent.getContentType(), url));
+                                String url = getContentUrl(userId, cronJobContent.getContentType(), cronJobContent.getId(), page, scope);
+                                ImageContent imageContent = new ImageContent(order + page, cronJobContent.getId(), cronJobContent.getContentType(), url);
+                                imageContents.add(imageContent);
+                                slideIds.put(imageContent, slideId);
                             }
                         }
                     }
@@ -112,19 +163,104 @@ public class BaseScheduleService {
                 if (vizOrderMap.containsKey(DASHBOARD + AT_SYMBOL + cronJobContent.getId())) {
                     order = vizOrderMap.get(DASHBOARD + AT_SYMBOL + cronJobContent.getId());
                 }
-                String url = getContentUrl(userId, cronJobContent.getContentType(), cronJobContent.getId(), -1);
+                String url = getContentUrl(userId, cronJobContent.getContentType(), cronJobContent.getId(), -1, scope);
                 imageContents.add(new ImageContent(order, cronJobContent.getId(), cronJobContent.getContentType(), url));
             }
         }
 
         if (!CollectionUtils.isEmpty(imageContents)) {
-            screenshotUtil.screenshot(jobId, imageContents, cronJobConfig.getImageWidth());
+            List<ImageContent> renderContents = imageContents;
+            Map<ImageContent, String> cacheKeys = new IdentityHashMap<>();
+            if (screenshotCache.isEnable()) {
+                renderContents = new ArrayList<>();
+                User user = userMapper.getById(userId);
+                for (ImageContent content : imageContents) {
+                    String key = getScreenshotCacheKey(jobId, content, slideIds.get(content), cronJobConfig.getImageWidth(), user);
+                    File cached = screenshotCache.get(key);
+                    if (cached != null) {
+                        content.setContent(cached);
+                        scheduleLogger.info("CronJob({}) reuse screenshot, type:{}, id:{}", jobId, content.getDesc(), content.getCId());
+                        continue;
+                    }
+                    if (key != null) {
+                        cacheKeys.put(content, key);
+                    }
+                    renderContents.add(content);
+                }
+                scheduleLogger.info("CronJob({}) screenshot cache {}", jobId, screenshotCache.getStats());
+            }
+
+            if (!renderContents.isEmpty()) {
+                screenshotUtil.screenshot(jobId, renderContents, cronJobConfig.getImageWidth());
+            }
+            cacheKeys.forEach((content, key) -> screenshotCache.put(key, content.getImageFile()));
+            imageContents.sort(Comparator.comparing(ImageContent::getOrder));
         }
 
         scheduleLogger.info("CronJob({}) fetched images contents, count:{}", jobId, imageContents.size());
         return imageContents;
     }
 
+    /**
+     * 截图缓存 key, 由前端版本、dashboard/slide、布局、宽度和各 widget 查询结果的指纹组成
+     *
+     * @param jobId
+     * @param content
+     * @param slideId
+     * @param imageWidth
+     * @param user
+     * @return 无法计算时返回 null
+     */
+    private String getScreenshotCacheKey(long jobId, ImageContent content, Long slideId, Integer imageWidth, User user) {
+        try {
+            List<WidgetContext> widgetContexts = new ArrayList<>();
+            String layout;
+            if (DISPLAY.equalsIgnoreCase(content.getDesc())) {
+                Display display = displayMapper.getById(content.getCId());
+                DisplaySlide slide = slideId == null ? null : displaySlideMapper.getById(slideId);
+                if (display == null || slide == null) {
+                    return null;
+                }
+
+                List<MemDisplaySlideWidget> memWidgets = memDisplaySlideWidgetMapper.getMemDisplaySlideWidgetListBySlideId(slideId);
+                Set<Long> widgetIds = memWidgets.stream().map(MemDisplaySlideWidget::getWidgetId).filter(Objects::nonNull).collect(Collectors.toSet());
+                List<Widget> widgets = widgetIds.isEmpty() ? new ArrayList<>() : widgetMapper.getByIds(widgetIds);
+
+                ProjectDetail projectDetail = projectService.getProjectDetail(display.getProjectId(), user, false);
+                boolean isMaintainer = projectService.isMaintainer(projectDetail, user);
+                widgets.forEach(widget -> widgetContexts.add(new WidgetContext(widget, isMaintainer, null)));
+                layout = JSON.toJSONString(display) + JSON.toJSONString(slide) + JSON.toJSONString(memWidgets) + JSON.toJSONString(widgets);
+            } else {
+                DashboardWithPortal dashboard = dashboardMapper.getDashboardWithPortalAndProject(content.getCId());
+                if (dashboard == null) {
+                    return null;
+                }
+
+                List<MemDashboardWidget> mdws = memDashboardWidgetMapper.getByDashboardId(dashboard.getId());
+                Map<Long, MemDashboardWidget> mdwMap = mdws.stream().collect(Collectors.toMap(MemDashboardWidget::getWidgetId, o -> o, (oldV, newV) -> oldV));
+                List<WidgetWithRelationDashboardId> widgets = widgetMapper.getByDashboard(dashboard.getId());
+
+                ProjectDetail projectDetail = projectService.getProjectDetail(dashboard.getProject().getId(), user, false);
+                boolean isMaintainer = projectService.isMaintainer(projectDetail, user);
+                widgets.forEach(w -> {
+                    Widget widget = new Widget();
+                    BeanUtils.copyProperties(w, widget);
+                    WidgetContext context = new WidgetContext(widget, dashboard, mdwMap.get(widget.getId()), null);
+                    context.setIsMaintainer(isMaintainer);
+                    widgetContexts.add(context);
+                });
+                layout = JSON.toJSONString(dashboard) + JSON.toJSONString(mdws) + JSON.toJSONString(widgets);
+            }
+
+            String data = WidgetDataFingerprint.of(widgetContexts, user);
+            return screenshotCache.key(content.getDesc().toUpperCase(), content.getCId(), slideId, imageWidth,
+                    MD5Util.getMD5(layout, true, 32), data);
+        } catch (Exception e) {
+            scheduleLogger.warn("CronJob({}) screenshot fingerprint error, type:{}, id:{}: {}", jobId, content.getDesc(), content.getCId(), e.getMessage());
+            return null;
+        }
+    }
+
     protected List<CronJobContent> getCronJobContents(CronJobConfig cronJobConfig, Map<String, Integer> orderMap,
                                                     Map<Long, Map<Long, Integer>> displayPageMap) {
         List<CronJobContent> jobContentList = new ArrayList<>();
@@ -259,7 +395,7 @@ public class BaseScheduleService {
         return list;
     }
 
-    private String getContentUrl(Long userId, String contentType, Long contentId, int index) {
+    private String getContentUrl(Long userId, String contentType, Long contentId, int index, QueryResultScope scope) {
 
         ShareFactor shareFactor = ShareFactor.Builder
                 .shareFactor()
@@ -268,6 +404,7 @@ public class BaseScheduleService {
                 .withSharerId(userId)
                 .withExpired(DateUtils.add(DateUtils.currentDate(), Calendar.DATE, 1))
                 .withPermission(ShareDataPermission.SHARER)
+                .withScope(scope != null ? scope.getId() : null)
                 .build();
 
         String page = null;
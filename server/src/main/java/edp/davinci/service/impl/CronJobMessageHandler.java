@@ -58,7 +58,7 @@ public class CronJobMessageHandler implements RedisMessageHandler {
 
 		CronJob cronJob = JSON.parseObject((String) message, CronJob.class);
 
-		quartzHandler.removeJob(cronJob);
+		quartzHandler.removeLocalJob(cronJob);
 		scheduleLogger.info("CronJob({}) is stopped", cronJob.getId());
 		cronJob.setJobStatus(CronJobStatusEnum.STOP.getStatus());
 		cronJob.setUpdateTime(new Date());
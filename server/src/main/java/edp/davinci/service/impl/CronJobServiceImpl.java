@@ -32,11 +32,14 @@ import edp.davinci.core.enums.LockType;
 import edp.davinci.core.enums.LogNameEnum;
 import edp.davinci.core.model.RedisMessageEntity;
 import edp.davinci.dao.CronJobMapper;
+import edp.davinci.dto.cronJobDto.CronJobAdmission;
 import edp.davinci.dto.cronJobDto.CronJobBaseInfo;
 import edp.davinci.dto.cronJobDto.CronJobInfo;
 import edp.davinci.dto.cronJobDto.CronJobUpdate;
 import edp.davinci.model.CronJob;
 import edp.davinci.model.User;
+import edp.davinci.schedule.ScheduleAdmission;
+import edp.davinci.schedule.ScheduleCluster;
 import edp.davinci.service.CronJobService;
 import edp.davinci.service.excel.ExecutorUtils;
 import lombok.extern.slf4j.Slf4j;
@@ -68,6 +71,12 @@ public class CronJobServiceImpl extends BaseEntityService implements CronJobServ
 	@Autowired
 	private QuartzHandler quartzHandler;
 
+	@Autowired
+	private ScheduleCluster scheduleCluster;
+
+	@Autowired
+	private ScheduleAdmission scheduleAdmission;
+
 	@Autowired
 	private RedisUtils redisUtils;
 	
@@ -321,9 +330,12 @@ public class CronJobServiceImpl extends BaseEntityService implements CronJobServ
 		jobList.forEach((cronJob) -> {
 			String key = entity.getSource().toUpperCase() + Consts.UNDERLINE + cronJob.getId() + Consts.UNDERLINE
 					+ cronJob.getProjectId();
-			if (LockFactory.getLock(key, 300, LockType.REDIS).getLock()) {
+			// 开启集群分片时只注册属于本节点的任务
+			boolean own = scheduleCluster.isEnable() ? scheduleCluster.isLocal(cronJob.getId())
+					: LockFactory.getLock(key, 300, LockType.REDIS).getLock();
+			if (own) {
 				try {
-					quartzHandler.addJob(cronJob);
+					quartzHandler.addLocalJob(cronJob);
 				} catch (SchedulerException e) {
 					log.warn("CronJob:({}), start error, {}", cronJob.getId(), e.getMessage());
 					cronJob.setJobStatus(CronJobStatusEnum.FAILED.getStatus());
@@ -335,6 +347,25 @@ public class CronJobServiceImpl extends BaseEntityService implements CronJobServ
 		});
 	}
 
+	/**
+	 * 任务在本节点准入队列中的位置和预计开始时间
+	 *
+	 * @param id
+	 * @param user
+	 * @return 未在排队或运行时返回 null
+	 */
+	@Override
+	public CronJobAdmission getCronJobAdmission(Long id, User user) throws NotFoundException, UnAuthorizedException, ServerException {
+
+		CronJob cronJob = getCronJob(id);
+
+		if (!checkReadPermission(entity, cronJob.getProjectId(), user)) {
+			throw new UnAuthorizedException();
+		}
+
+		return scheduleAdmission.getAdmission(id);
+	}
+
 	@Override
 	public boolean executeCronJob(Long id, User user) throws NotFoundException, UnAuthorizedException, ServerException {
 
@@ -178,6 +178,7 @@ public class DashboardPortalServiceImpl extends VizCommonService implements Dash
 
 				if (!CollectionUtils.isEmpty(rels)) {
 					relRolePortalMapper.insertBatch(rels);
+					vizVisibilityIndex.invalidate(VizEnum.PORTAL, dashboardPortal.getProjectId());
 					optLogger.info("Create dashboardPortal({}) limit role({}) access", dashboardPortal.getId(),
 							roles.stream().map(r -> r.getId()).collect(Collectors.toList()));
 				}
@@ -234,6 +235,8 @@ public class DashboardPortalServiceImpl extends VizCommonService implements Dash
 					user.getId(), origin);
 
 			relRolePortalMapper.deleteByPortalId(id);
+			vizVisibilityIndex.invalidate(VizEnum.PORTAL, dashboardPortal.getProjectId());
+			shareAuthCache.invalidate();
 			if (!CollectionUtils.isEmpty(dashboardPortalUpdate.getRoleIds())) {
 				List<Role> roles = roleMapper.getRolesByIds(dashboardPortalUpdate.getRoleIds());
 				List<RelRolePortal> list = roles.stream()
@@ -276,6 +279,7 @@ public class DashboardPortalServiceImpl extends VizCommonService implements Dash
             relRolePortalMapper.insert(relRolePortal);
             optLogger.info("DashboardPortal({}) limit role({}) access, create by user({})", portal, role, user.getId());
         }
+        vizVisibilityIndex.setVisible(VizEnum.PORTAL, portal.getProjectId(), role.getId(), portal.getId(), vizVisibility.isVisible());
 
         return true;
     }
@@ -306,6 +310,7 @@ public class DashboardPortalServiceImpl extends VizCommonService implements Dash
 
         if (dashboardPortalMapper.deleteById(id) == 1) {
             relRolePortalMapper.deleteByPortalId(dashboardPortal.getId());
+            shareAuthCache.invalidate();
             optLogger.info("DashboardPortal({}) is delete by user({}) ", dashboardPortal.toString(), user.getId());
             return true;
         }
@@ -283,6 +283,7 @@ public class DashboardServiceImpl extends VizCommonService implements DashboardS
                         .collect(Collectors.toList());
                 if (!CollectionUtils.isEmpty(list)) {
                     relRoleDashboardMapper.insertBatch(list);
+                    vizVisibilityIndex.invalidate(VizEnum.DASHBOARD, dashboard.getDashboardPortalId());
                     optLogger.info("Dashboard({}) limit role({}) access", dashboard.getId(), roles.stream().map(r -> r.getId()).collect(Collectors.toList()));
                 }
             }
@@ -379,6 +380,8 @@ public class DashboardServiceImpl extends VizCommonService implements DashboardS
             if (!CollectionUtils.isEmpty(relList)) {
                 relRoleDashboardMapper.insertBatch(relList);
             }
+            vizVisibilityIndex.invalidate(VizEnum.DASHBOARD, portalId);
+            shareAuthCache.invalidate();
         }
     }
 
@@ -445,6 +448,7 @@ public class DashboardServiceImpl extends VizCommonService implements DashboardS
             relRoleDashboardMapper.deleteByDashboardId(deletingDashboard.getId());
             dashboardMapper.deleteById(deletingDashboard.getId());
         }
+        shareAuthCache.invalidate();
 
         optLogger.info("Dashboard({}) is delete by user({})", JSON.toJSON(deletingDashboards), user.getId());
 
@@ -746,6 +750,7 @@ public class DashboardServiceImpl extends VizCommonService implements DashboardS
             relRoleDashboardMapper.insert(relRoleDashboard);
             optLogger.info("Dashboard({}) limit role({}) access, create by user({})", (Dashboard) dashboard, role, user.getId());
         }
+        vizVisibilityIndex.setVisible(VizEnum.DASHBOARD, dashboard.getDashboardPortalId(), role.getId(), dashboard.getId(), vizVisibility.isVisible());
 
         return true;
     }
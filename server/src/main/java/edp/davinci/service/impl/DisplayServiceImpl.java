@@ -151,6 +151,7 @@ public class DisplayServiceImpl extends VizCommonService implements DisplayServi
 
                 if (!CollectionUtils.isEmpty(list)) {
                     relRoleDisplayMapper.insertBatch(list);
+                    vizVisibilityIndex.invalidate(VizEnum.DISPLAY, projectId);
                     optLogger.info("Display({}) limit role({}) access", display.getId(),
                             roles.stream().map(r -> r.getId()).collect(Collectors.toList()));
                 }
@@ -194,6 +195,7 @@ public class DisplayServiceImpl extends VizCommonService implements DisplayServi
         displaySlideMapper.deleteByDisplayId(id);
         relRoleDisplayMapper.deleteByDisplayId(id);
         displayMapper.deleteById(id);
+        shareAuthCache.invalidate();
 
         return true;
     }
@@ -268,8 +270,10 @@ public class DisplayServiceImpl extends VizCommonService implements DisplayServi
             }
 
             optLogger.info("Display({}) is update by user({}), origin:{}", display.toString(), user.getId(), origin);
+            shareAuthCache.invalidate();
             if (displayUpdate.getRoleIds() != null) {
                 relRoleDisplayMapper.deleteByDisplayId(display.getId());
+                vizVisibilityIndex.invalidate(VizEnum.DISPLAY, projectId);
                 if (!CollectionUtils.isEmpty(displayUpdate.getRoleIds())) {
                     List<Role> roles = roleMapper.getRolesByIds(displayUpdate.getRoleIds());
                     List<RelRoleDisplay> list = roles.stream()
@@ -408,6 +412,7 @@ public class DisplayServiceImpl extends VizCommonService implements DisplayServi
             relRoleDisplayMapper.insert(relRoleDisplay);
             optLogger.info("Display({}) limit role({}) access, create by user({})", display, role, user.getId());
         }
+        vizVisibilityIndex.setVisible(VizEnum.DISPLAY, display.getProjectId(), role.getId(), display.getId(), vizVisibility.isVisible());
 
         return true;
     }
@@ -465,6 +470,7 @@ public class DisplayServiceImpl extends VizCommonService implements DisplayServi
 
             if (!CollectionUtils.isEmpty(list)) {
                 relRoleDisplayMapper.insertBatch(list);
+                vizVisibilityIndex.invalidate(VizEnum.DISPLAY, projectId);
                 optLogger.info("Display({}) limit role({}) access", display.getId(),
                         roles.stream().map(Role::getId).collect(Collectors.toList()));
             }
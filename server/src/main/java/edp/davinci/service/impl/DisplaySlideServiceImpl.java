@@ -124,6 +124,7 @@ public class DisplaySlideServiceImpl extends VizCommonService implements Display
 					.collect(Collectors.toList());
 			if (!CollectionUtils.isEmpty(list)) {
 				relRoleSlideMapper.insertBatch(list);
+				vizVisibilityIndex.invalidate(VizEnum.SLIDE, displaySlide.getDisplayId());
 				optLogger.info("DisplaySlide({}) limit role({}) access", displaySlide.getId(),
 						roles.stream().map(r -> r.getId()).collect(Collectors.toList()));
 			}
@@ -806,6 +807,7 @@ public class DisplaySlideServiceImpl extends VizCommonService implements Display
 			optLogger.info("DisplaySlide({}) limit role({}) access, create by user({})", (DisplaySlide) slide, role,
 					user.getId());
 		}
+		vizVisibilityIndex.setVisible(VizEnum.SLIDE, slide.getDisplayId(), role.getId(), slide.getId(), vizVisibility.isVisible());
 
 		return true;
 	}
@@ -835,6 +837,7 @@ public class DisplaySlideServiceImpl extends VizCommonService implements Display
 		// copy relRoleSlide
 		if (!slideCopies.isEmpty()) {
 			if (relRoleSlideMapper.copyRoleSlideRelation(slideCopies, user.getId()) > 0) {
+				vizVisibilityIndex.invalidate(VizEnum.SLIDE, displayId);
 				optLogger.info("Display({}) slides role is copied by user({}), from:{}", displayId, user.getId(),
 						originDisplayId);
 			}
@@ -38,8 +38,12 @@ import edp.davinci.model.MemDashboardWidget;
 import edp.davinci.model.User;
 import edp.davinci.model.Widget;
 import edp.davinci.service.ProjectService;
+import edp.davinci.service.excel.ExecutorUtils;
+import edp.davinci.service.excel.ExportQueue;
 import edp.davinci.service.excel.WidgetContext;
+import edp.davinci.service.excel.WorkBookContext;
 import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
@@ -68,9 +72,26 @@ public class DownloadCommonService {
     @Autowired
     protected TokenUtils tokenUtils;
 
+    @Autowired
+    protected ExportQueue exportQueue;
+
     @Value("${source.result-limit:1000000}")
     protected int resultLimit;
 
+    /**
+     * 分布式导出开启时放入redis队列, 否则在本节点调度
+     *
+     * @param context
+     * @param customLogger
+     */
+    protected void submitWorkbook(WorkBookContext context, Logger customLogger) {
+        if (exportQueue.isEnable()) {
+            exportQueue.push(context);
+            return;
+        }
+        ExecutorUtils.submitWorkbookTask(context, customLogger);
+    }
+
     protected List<WidgetContext> getWidgetContextListByDashBoardId(List<Long> dashboardIds, List<DownloadViewExecuteParam> params) {
         List<WidgetContext> widgetList = Lists.newArrayList();
         if (CollectionUtils.isEmpty(dashboardIds)) {
@@ -198,6 +219,7 @@ public class DownloadCommonService {
                 throw new UnAuthorizedException(ErrorMsg.ERR_MSG_PERMISSION);
             }
             context.setIsMaintainer(projectService.isMaintainer(projectDetail, user));
+            context.setOrgId(projectDetail.getOrgId());
         }
         return widgetList;
     }
@@ -30,8 +30,8 @@ import edp.davinci.dao.UserMapper;
 import edp.davinci.dto.viewDto.DownloadViewExecuteParam;
 import edp.davinci.model.DownloadRecord;
 import edp.davinci.model.User;
+import edp.davinci.schedule.FileStore;
 import edp.davinci.service.DownloadService;
-import edp.davinci.service.excel.ExecutorUtils;
 import edp.davinci.service.excel.MsgWrapper;
 import edp.davinci.service.excel.WidgetContext;
 import edp.davinci.service.excel.WorkBookContext;
@@ -43,6 +43,7 @@ import org.springframework.stereotype.Service;
 
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 
 /**
@@ -61,6 +62,9 @@ public class DownloadServiceImpl extends DownloadCommonService implements Downlo
     @Autowired
     private DownloadRecordMapper downloadRecordMapper;
 
+    @Autowired
+    private FileStore fileStore;
+
     @Autowired
     private UserMapper userMapper;
 
@@ -94,18 +98,20 @@ public class DownloadServiceImpl extends DownloadCommonService implements Downlo
         record.setLastDownloadTime(new Date());
         record.setStatus(DownloadTaskStatus.DOWNLOADED.getStatus());
         downloadRecordMapper.updateById(record);
+        fileStore.touch(record.getPath());
         return record;
     }
 
     @Override
     public Boolean submit(DownloadType type, Long id, User user, List<DownloadViewExecuteParam> params) {
+        DownloadRecord record = null;
         try {
             List<WidgetContext> widgetList = getWidgetContexts(type, id, user, params);
-            DownloadRecord record = new DownloadRecord();
+            record = new DownloadRecord();
             record.setName(getDownloadFileName(type, id));
             record.setUserId(user.getId());
             record.setCreateTime(new Date());
-            record.setStatus(DownloadTaskStatus.PROCESSING.getStatus());
+            record.setStatus(DownloadTaskStatus.QUEUED.getStatus());
             downloadRecordMapper.insert(record);
             MsgWrapper wrapper = new MsgWrapper(record, ActionEnum.DOWNLOAD, record.getId());
 
@@ -118,8 +124,13 @@ public class DownloadServiceImpl extends DownloadCommonService implements Downlo
                     .withCustomLogger(downloadLogger)
                     .build();
 
-            ExecutorUtils.submitWorkbookTask(workBookContext, downloadLogger);
+            submitWorkbook(workBookContext, downloadLogger);
             log.info("Download task submit:{}", wrapper);
+        } catch (RejectedExecutionException e) {
+            log.warn("Download task rejected: {}", e.getMessage());
+            record.setStatus(DownloadTaskStatus.REJECTED.getStatus());
+            downloadRecordMapper.updateById(record);
+            return false;
         } catch (Exception e) {
             log.error("Submit download task error", e);
             return false;
@@ -21,12 +21,14 @@ package edp.davinci.service.impl;
 
 import com.alibaba.druid.util.StringUtils;
 import com.alibaba.fastjson.JSONObject;
+import edp.core.common.mail.MailDeliveryListener;
 import edp.core.common.quartz.ScheduleService;
 import edp.core.enums.MailContentTypeEnum;
 import edp.core.exception.ServerException;
 import edp.core.model.MailAttachment;
 import edp.core.model.MailContent;
 import edp.core.utils.CollectionUtils;
+import edp.core.utils.DateUtils;
 import edp.core.utils.MailUtils;
 import edp.davinci.core.common.Constants;
 import edp.davinci.core.enums.ActionEnum;
@@ -45,6 +47,7 @@ import edp.davinci.dto.widgetDto.WidgetWithVizId;
 import edp.davinci.model.*;
 import edp.davinci.service.ProjectService;
 import edp.davinci.service.excel.ExecutorUtils;
+import edp.davinci.service.excel.QueryResultScope;
 import edp.davinci.service.excel.MsgWrapper;
 import edp.davinci.service.excel.WidgetContext;
 import edp.davinci.service.excel.WorkBookContext;
@@ -58,7 +61,9 @@ import org.springframework.stereotype.Service;
 
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
@@ -67,10 +72,12 @@ import static edp.core.consts.Consts.AT_SYMBOL;
 import static edp.core.consts.Consts.EMPTY;
 
 @Service("emailScheduleService")
-public class EmailScheduleServiceImpl extends BaseScheduleService implements ScheduleService {
+public class EmailScheduleServiceImpl extends BaseScheduleService implements ScheduleService, MailDeliveryListener {
 
     private static final Logger scheduleLogger = LoggerFactory.getLogger(LogNameEnum.BUSINESS_SCHEDULE.getName());
 
+    private static final String MAIL_REFERENCE_PREFIX = "cronjob:";
+
     @Autowired
     private CronJobMapper cronJobMapper;
 
@@ -127,16 +134,28 @@ public class EmailScheduleServiceImpl extends BaseScheduleService implements Sch
         User creator = userMapper.getById(cronJob.getCreateBy());
 
         if (cronJobConfig.getType().equals(CronJobMediaType.IMAGE.getType())) {
-            images = generateImages(jobId, cronJobConfig, creator.getId());
+            images = generateImages(jobId, cronJobConfig, creator.getId(), null);
         }
 
         if (cronJobConfig.getType().equals(CronJobMediaType.EXCEL.getType())) {
-			excels = generateExcels(jobId, cronJobConfig, creator);
+            // 只导出excel时不共用结果, 保持流式导出
+            excels = generateExcels(jobId, cronJobConfig, creator, null);
         }
 
+        // 截图分享页和excel的相同查询在本次执行内只查询一次
         if (cronJobConfig.getType().equals(CronJobMediaType.IMAGEANDEXCEL.getType())) {
-            images = generateImages(jobId, cronJobConfig, creator.getId());
-            excels = generateExcels(jobId, cronJobConfig, creator);
+            try (QueryResultScope scope = QueryResultScope.open("Schedule_" + jobId)) {
+                CronJobConfig config = cronJobConfig;
+                // 当前已在 JOB_WORKERS 线程中, 截图放到独立线程池执行
+                Future<List<ImageContent>> imagesFuture = ExecutorUtils.getImageWorkers()
+                        .submit(() -> generateImages(jobId, config, creator.getId(), scope));
+                excels = generateExcels(jobId, cronJobConfig, creator, scope);
+                try {
+                    images = imagesFuture.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
         }
 
         List<MailAttachment> attachmentList = new ArrayList<>();
@@ -176,19 +195,63 @@ public class EmailScheduleServiceImpl extends BaseScheduleService implements Sch
         } catch (ServerException e) {
             scheduleLogger.error("CronJob({}) build email content error:{}", jobId, e.getMessage());
         }
-        mailUtils.sendMail(mailContent, null);
+        mailUtils.queueMail(mailContent, MAIL_REFERENCE_PREFIX + jobId, scheduleLogger);
         scheduleLogger.info("CronJob({}) is finish! --------------", jobId);
     }
 
+    /**
+     * 发件箱投递成功, 清除之前失败时记录的日志
+     *
+     * @param reference
+     * @param attempts
+     */
+    @Override
+    public void onDelivered(String reference, int attempts) {
+        Long jobId = getJobId(reference);
+        if (jobId == null) {
+            return;
+        }
+        scheduleLogger.info("CronJob({}) email delivered, attempts:{}", jobId, attempts);
+        if (attempts > 1) {
+            cronJobMapper.updateExecLog(jobId, "");
+        }
+    }
+
+    @Override
+    public void onFailed(String reference, int attempts, String error, Date nextAttemptTime) {
+        Long jobId = getJobId(reference);
+        if (jobId == null) {
+            return;
+        }
+        String message = nextAttemptTime == null ?
+                "Send mail failed after " + attempts + " attempts: " + error :
+                "Send mail failed, attempts:" + attempts + ", retry at " + DateUtils.toyyyyMMddHHmmss(nextAttemptTime) + ": " + error;
+        scheduleLogger.error("CronJob({}) {}", jobId, message);
+        cronJobMapper.updateExecLog(jobId, message);
+    }
+
+    private static Long getJobId(String reference) {
+        if (reference == null || !reference.startsWith(MAIL_REFERENCE_PREFIX)) {
+            return null;
+        }
+        try {
+            return Long.parseLong(reference.substring(MAIL_REFERENCE_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     /**
      * 根据job配置生成excel
      *
      * @param jobId
      * @param cronJobConfig
+     * @param user
+     * @param scope
      * @return
      * @throws Exception
      */
-    private List<ExcelContent> generateExcels(Long jobId, CronJobConfig cronJobConfig, User user) throws Exception {
+    private List<ExcelContent> generateExcels(Long jobId, CronJobConfig cronJobConfig, User user, QueryResultScope scope) throws Exception {
         scheduleLogger.info("CronJob({}) fetching excel contents", jobId);
 
         Map<String, WorkBookContext> workBookContextMap = new HashMap<>();
@@ -244,6 +307,7 @@ public class EmailScheduleServiceImpl extends BaseScheduleService implements Sch
                                 .withResultLimit(resultLimit)
                                 .withTaskKey("Schedule_" + jobId)
                                 .withCustomLogger(scheduleLogger)
+                                .withQueryScope(scope)
                                 .build();
 
                         int page = slidePageMap.get(slideId);
@@ -283,6 +347,7 @@ public class EmailScheduleServiceImpl extends BaseScheduleService implements Sch
                             .withResultLimit(resultLimit)
                             .withTaskKey("Schedule_" + jobId)
                             .withCustomLogger(scheduleLogger)
+                            .withQueryScope(scope)
                             .build();
 
                     workBookContextMap.put(dashboard.getName(), workBookContext);
@@ -320,6 +385,13 @@ public class EmailScheduleServiceImpl extends BaseScheduleService implements Sch
             try {
                 excelPath = future.get(1, TimeUnit.HOURS);
                 scheduleLogger.info("CronJob({}) workbook task:{} finish", jobId, name);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RejectedExecutionException) {
+                    scheduleLogger.warn("CronJob({}) workbook task:{} rejected: {}", jobId, name, e.getCause().getMessage());
+                } else {
+                    scheduleLogger.info("CronJob({}) workbook task:{} error", jobId, name);
+                    scheduleLogger.error(e.getMessage(), e);
+                }
             } catch (Exception e) {
             	scheduleLogger.info("CronJob({}) workbook task:{} error", jobId, name);
             	scheduleLogger.error(e.getMessage(), e);
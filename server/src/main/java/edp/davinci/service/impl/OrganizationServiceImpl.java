@@ -31,6 +31,8 @@ import edp.davinci.core.enums.CheckEntityEnum;
 import edp.davinci.core.enums.LogNameEnum;
 import edp.davinci.core.enums.UserOrgRoleEnum;
 import edp.davinci.core.model.TokenEntity;
+import edp.davinci.core.service.PermissionCache;
+import edp.davinci.core.service.PrincipalCache;
 import edp.davinci.dao.*;
 import edp.davinci.dto.organizationDto.*;
 import edp.davinci.dto.userDto.UserBaseInfo;
@@ -87,6 +89,12 @@ public class OrganizationServiceImpl extends BaseEntityService implements Organi
     @Autowired
     private ServerUtils serverUtils;
 
+    @Autowired
+    private PrincipalCache principalCache;
+
+    @Autowired
+    private PermissionCache permissionCache;
+
     private static final CheckEntityEnum entity = CheckEntityEnum.ORGANIZATION;
 
     private static final ExecutorService FIXED_THREAD_POOL = Executors.newFixedThreadPool(8);
@@ -183,6 +191,7 @@ public class OrganizationServiceImpl extends BaseEntityService implements Organi
                 log.info("Update organization error");
                 throw new ServerException("Update organization error");
             }
+            permissionCache.invalidate();
 
             optLogger.info("Organization({}) is update by user({}), origin:{}", organization.toString(), user.getId(), origin);
             return true;
@@ -290,6 +299,7 @@ public class OrganizationServiceImpl extends BaseEntityService implements Organi
         relUserOrganizationMapper.deleteByOrgId(id);
         roleMapper.deleteByOrg(id);
         organizationMapper.deleteById(id);
+        permissionCache.invalidate();
 
         optLogger.info("Organization({}) is delete by user({})", organization.toString(), user.getId());
         return true;
@@ -436,6 +446,7 @@ public class OrganizationServiceImpl extends BaseEntityService implements Organi
                         .collect(Collectors.toSet());
                 int newMembers = relUserOrganizationMapper.insertBatch(relUserOrgSet);
                 if (newMembers > 0) {
+                    permissionCache.invalidate();
                     organization.setMemberNum(organization.getMemberNum() + newMembers);
                     organizationMapper.updateMemberNum(organization);
                 }
@@ -511,6 +522,7 @@ public class OrganizationServiceImpl extends BaseEntityService implements Organi
         if (relUserOrganizationMapper.insert(rel) <= 0) {
             throw new ServerException("unknown fail");
         }
+        permissionCache.invalidate();
 
         // 修改成员人数
         organization.setMemberNum(organization.getMemberNum() + 1);
@@ -573,6 +585,7 @@ public class OrganizationServiceImpl extends BaseEntityService implements Organi
         RelUserOrganization rel = new RelUserOrganization(orgId, memberId, UserOrgRoleEnum.MEMBER.getRole());
         rel.createdBy(memberId);
         relUserOrganizationMapper.insert(rel);
+        permissionCache.invalidate();
         // 修改成员人数
         organization.setMemberNum(organization.getMemberNum() + 1);
         organizationMapper.updateMemberNum(organization);
@@ -610,6 +623,7 @@ public class OrganizationServiceImpl extends BaseEntityService implements Organi
         if (relUserOrganizationMapper.deleteById(relationId) <= 0) {
             throw new ServerException("unknown fail");
         }
+        permissionCache.invalidate();
 
         // 更新组织成员数量
         int memberNum = organization.getMemberNum();
@@ -671,6 +685,8 @@ public class OrganizationServiceImpl extends BaseEntityService implements Organi
         if (relUserOrganizationMapper.updateMemberRole(rel) <= 0) {
             throw new ServerException("Unknown fail");
         }
+        principalCache.invalidate(rel.getUserId());
+        permissionCache.invalidate();
 
         optLogger.info("RelUserOrganization({}) is update by user({}), origin:{}", rel.toString(), user.getId(), origin);
         return true;
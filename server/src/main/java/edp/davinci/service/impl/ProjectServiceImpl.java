@@ -33,6 +33,7 @@ import edp.davinci.core.enums.CronJobStatusEnum;
 import edp.davinci.core.enums.LogNameEnum;
 import edp.davinci.core.enums.UserOrgRoleEnum;
 import edp.davinci.core.enums.UserPermissionEnum;
+import edp.davinci.core.service.PermissionCache;
 import edp.davinci.dao.*;
 import edp.davinci.dto.organizationDto.OrganizationInfo;
 import edp.davinci.dto.projectDto.*;
@@ -107,6 +108,9 @@ public class ProjectServiceImpl extends BaseEntityService implements ProjectServ
     @Autowired
     private RelRoleViewMapper relRoleViewMapper;
 
+    @Autowired
+    private PermissionCache permissionCache;
+
     private static final CheckEntityEnum entity = CheckEntityEnum.PROJECT;
     
     @Override
@@ -314,6 +318,7 @@ public class ProjectServiceImpl extends BaseEntityService implements ProjectServ
         organizationMapper.updateProjectNum(organization);
 
         projectMapper.deleteBeforeOrgRole(project.getId(), beforeOrgId);
+        permissionCache.invalidate();
 
         return project;
     }
@@ -356,6 +361,7 @@ public class ProjectServiceImpl extends BaseEntityService implements ProjectServ
             log.error("Delete project({}) fail", id);
             throw new ServerException("Delete project fail");
         }
+        permissionCache.invalidate();
         
         optLogger.info("Project({}) is delete by user({})", project.toString(), user.getId());
         Organization organization = organizationMapper.getById(project.getOrgId());
@@ -402,6 +408,7 @@ public class ProjectServiceImpl extends BaseEntityService implements ProjectServ
 	            log.info("Update project fail, projectUpdate:{}", projectUpdate.toString());
 	            throw new ServerException("Update project fail, unspecified error");
 	        }
+	        permissionCache.invalidate();
 	        
 	        optLogger.info("Project({}) is update to {} by user({})", originInfo, project.baseInfoToString(), user.getId());
 	        return project;
@@ -496,6 +503,7 @@ public class ProjectServiceImpl extends BaseEntityService implements ProjectServ
 		if (relProjectAdminMapper.insertBatch(relProjectAdmins) <= 0) {
 			throw new ServerException("Unspecified error");
 		}
+		permissionCache.invalidate();
 
 		Map<Long, User> userMap = new HashMap<>();
 		admins.forEach(u -> userMap.put(u.getId(), u));
@@ -539,6 +547,7 @@ public class ProjectServiceImpl extends BaseEntityService implements ProjectServ
             log.error("Delete rel project admin fail, relationId:{}", relationId);
             throw new ServerException("Unspecified error");
         }
+        permissionCache.invalidate();
         
         optLogger.info("RelProjectAdmin({}) is delete by user({})", relProjectAdmin.toString(), user.getId());
         return true;
@@ -558,16 +567,14 @@ public class ProjectServiceImpl extends BaseEntityService implements ProjectServ
      */
     @Override
     public ProjectDetail getProjectDetail(Long id, User user, boolean modify) throws NotFoundException, UnAuthorizedException {
-        ProjectDetail projectDetail = projectMapper.getProjectDetail(id);
-        if (null == projectDetail) {
+        ProjectAccess access = getProjectAccess(id, user);
+        if (null == access) {
             log.error("Project({}) is not found", id);
             throw new NotFoundException("Project is not found");
         }
 
-        RelUserOrganization rel = relUserOrganizationMapper.getRel(user.getId(), projectDetail.getOrgId());
-        RelProjectAdmin relProjectAdmin = relProjectAdminMapper.getByProjectAndUser(id, user.getId());
-        boolean isCreator = projectDetail.getUserId().equals(user.getId()) && !projectDetail.getIsTransfer();
-        boolean notOwner = !isCreator && null == relProjectAdmin && (null == rel || rel.getRole() != UserOrgRoleEnum.OWNER.getRole());
+        ProjectDetail projectDetail = access.projectDetail;
+        boolean notOwner = !access.owner;
         if (modify) {
             //项目的创建人和当前项目对应组织的owner可以修改
             if (notOwner) {
@@ -584,7 +591,55 @@ public class ProjectServiceImpl extends BaseEntityService implements ProjectServ
             }
         }
 
-        return projectDetail;
+        // 缓存的对象只读, 调用方可能修改
+        ProjectDetail copy = new ProjectDetail();
+        BeanUtils.copyProperties(projectDetail, copy);
+        return copy;
+    }
+
+    private ProjectAccess getProjectAccess(Long id, User user) {
+        return permissionCache.get(PermissionCache.key("project", id, user.getId()), () -> loadProjectAccess(id, user.getId()));
+    }
+
+    /**
+     * 一次查出用户在项目上的全部判定
+     *
+     * @param id
+     * @param userId
+     * @return 项目不存在时返回 null
+     */
+    private ProjectAccess loadProjectAccess(Long id, Long userId) {
+        ProjectDetail projectDetail = projectMapper.getProjectDetail(id);
+        if (null == projectDetail) {
+            return null;
+        }
+
+        RelUserOrganization rel = relUserOrganizationMapper.getRel(userId, projectDetail.getOrgId());
+        RelProjectAdmin relProjectAdmin = relProjectAdminMapper.getByProjectAndUser(id, userId);
+        boolean isCreator = projectDetail.getUserId().equals(userId) && !projectDetail.getIsTransfer();
+        boolean isOrgOwner = null != rel && rel.getRole() == UserOrgRoleEnum.OWNER.getRole();
+
+        ProjectAccess access = new ProjectAccess();
+        access.projectDetail = projectDetail;
+        access.owner = isCreator || null != relProjectAdmin || isOrgOwner;
+        //project所在org的creator、当前project的creator、project所在org的owner、project的admin
+        access.maintainer = projectDetail.getOrganization().getUserId().equals(userId)
+                || isCreator
+                || (null != rel && (isOrgOwner || null != relProjectAdmin));
+
+        if (access.maintainer) {
+            access.permission = ProjectPermission.adminPermission();
+        } else {
+            UserMaxProjectPermission permission = relRoleProjectMapper.getMaxPermission(id, userId);
+            if (null != permission && null != permission.getProjectId()) {
+                access.permission = permission;
+            } else if (projectDetail.getVisibility() && projectDetail.getOrganization().getMemberPermission() > (short) 0) {
+                access.permission = ProjectPermission.previewPermission();
+            } else {
+                access.permission = new ProjectPermission((short) 0);
+            }
+        }
+        return access;
     }
 
 
@@ -606,6 +661,7 @@ public class ProjectServiceImpl extends BaseEntityService implements ProjectServ
 
 		ProjectDetail projectDetail = getProjectDetail(id, user, true);
 		List<Role> roleList = roleMapper.selectByIdsAndOrgId(projectDetail.getOrgId(), roleIds);
+		permissionCache.invalidate();
 
 		if (CollectionUtils.isEmpty(roleList)) {
 			relRoleProjectMapper.deleteByProjectId(id);
@@ -722,21 +778,11 @@ public class ProjectServiceImpl extends BaseEntityService implements ProjectServ
 	 * @return
 	 */
 	public ProjectPermission getProjectPermission(ProjectDetail projectDetail, User user) {
-		if (isMaintainer(projectDetail, user)) {
-			return ProjectPermission.adminPermission();
-		}
-
-		UserMaxProjectPermission permission = relRoleProjectMapper.getMaxPermission(projectDetail.getId(),
-				user.getId());
-		if (null != permission && null != permission.getProjectId()) {
-			return permission;
-		}
-
-		if (projectDetail.getVisibility() && projectDetail.getOrganization().getMemberPermission() > (short) 0) {
-			return ProjectPermission.previewPermission();
+		ProjectAccess access = getProjectAccess(projectDetail.getId(), user);
+		if (null == access) {
+			return new ProjectPermission((short) 0);
 		}
-
-		return new ProjectPermission((short) 0);
+		return access.permission;
 	}
 
 
@@ -771,32 +817,18 @@ public class ProjectServiceImpl extends BaseEntityService implements ProjectServ
             return false;
         }
 
-        //project所在org的creator
-        if (projectDetail.getOrganization().getUserId().equals(user.getId())) {
-            return true;
-        }
+        ProjectAccess access = getProjectAccess(projectDetail.getId(), user);
+        return null != access && access.maintainer;
+    }
 
-        //当前project的creator
-        if (projectDetail.getUserId().equals(user.getId()) && !projectDetail.getIsTransfer()) {
-            return true;
-        }
+    private static class ProjectAccess {
 
-        //project所在org的owner
-        RelUserOrganization orgRel = relUserOrganizationMapper.getRel(user.getId(), projectDetail.getOrgId());
-        if (null == orgRel) {
-            return false;
-        }
+        private ProjectDetail projectDetail;
 
-        if (orgRel.getRole() == UserOrgRoleEnum.OWNER.getRole()) {
-            return true;
-        }
+        private boolean owner;
 
-        //project的admin
-        RelProjectAdmin projectAdmin = relProjectAdminMapper.getByProjectAndUser(projectDetail.getId(), user.getId());
-        if (null != projectAdmin) {
-            return true;
-        }
+        private boolean maintainer;
 
-        return false;
+        private ProjectPermission permission;
     }
 }
@@ -27,6 +27,7 @@ import edp.davinci.core.enums.LogNameEnum;
 import edp.davinci.core.enums.UserOrgRoleEnum;
 import edp.davinci.core.enums.UserPermissionEnum;
 import edp.davinci.core.enums.VizVisibilityEnum;
+import edp.davinci.core.service.PermissionCache;
 import edp.davinci.dao.*;
 import edp.davinci.dto.roleDto.*;
 import edp.davinci.model.*;
@@ -108,6 +109,9 @@ public class RoleServiceImpl implements RoleService {
     @Autowired
     private DashboardPortalService dashboardPortalService;
 
+    @Autowired
+    private PermissionCache permissionCache;
+
 
     /**
      * 新建Role
@@ -186,6 +190,7 @@ public class RoleServiceImpl implements RoleService {
             relRoleViewMapper.deleteByRoleId(id);
 
             relRoleUserMapper.deleteByRoleId(id);
+            permissionCache.invalidate();
 
             relRolePortalMapper.deleteByRoleId(id);
 
@@ -287,6 +292,7 @@ public class RoleServiceImpl implements RoleService {
             throw new UnAuthorizedException("Insufficient permissions");
         }
 
+        permissionCache.invalidate();
         if (CollectionUtils.isEmpty(memberIds)) {
             relRoleUserMapper.deleteByRoleId(id);
             return null;
@@ -352,6 +358,7 @@ public class RoleServiceImpl implements RoleService {
 
         int i = relRoleUserMapper.deleteById(relationId);
         if (i > 0) {
+            permissionCache.invalidate();
             optLogger.info("RelRoleUser({}) is delete by user({})", relRoleUser.toString(), user.getId());
             return true;
         } else {
@@ -384,6 +391,7 @@ public class RoleServiceImpl implements RoleService {
             relRoleUserMapper.deleteByRoleIdAndMemberIds(id, deleteIds);
         }
         relRoleUserMapper.insertBatch(collect);
+        permissionCache.invalidate();
 
         optLogger.info("Replace role({}) member by user({})", id, user.getId());
         return relRoleUserMapper.getMembersByRoleId(id);
@@ -453,6 +461,7 @@ public class RoleServiceImpl implements RoleService {
 
         relRoleProjectMapper.insert(relRoleProject);
         if (null != relRoleProject.getId() && relRoleProject.getId().longValue() > 0L) {
+            permissionCache.invalidate();
             optLogger.info("Create relRoleProject({}) is update by user({})", relRoleProject.toString(), user.getId());
             RoleProject roleProject = new RoleProject(project);
             BeanUtils.copyProperties(relRoleProject, roleProject);
@@ -503,6 +512,7 @@ public class RoleServiceImpl implements RoleService {
             relRolePortalMapper.deleteByRoleAndProject(roleId, projectId);
             relRoleSlideMapper.deleteByRoleAndProject(roleId, projectId);
             relRoleViewMapper.deleteByRoleAndProject(roleId, projectId);
+            permissionCache.invalidate();
             
             optLogger.info("RelRoleProject({}) is delete by user({})", relRoleProject.toString(), user.getId());
             return true;
@@ -585,6 +595,7 @@ public class RoleServiceImpl implements RoleService {
         int i = relRoleProjectMapper.update(relRoleProject);
 
         if (i > 0) {
+            permissionCache.invalidate();
             optLogger.info("RelRoleProject({}) is update by user({}), origin:{}", relRoleProject.toString(), user.getId(), origin);
             return true;
         } else {
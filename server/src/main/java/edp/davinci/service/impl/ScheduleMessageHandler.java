@@ -0,0 +1,52 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.impl;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import edp.davinci.core.service.RedisMessageHandler;
+import edp.davinci.model.CronJob;
+import edp.davinci.schedule.ScheduleCluster;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+@Slf4j
+@Component
+public class ScheduleMessageHandler implements RedisMessageHandler {
+
+	@Autowired
+	private ScheduleCluster scheduleCluster;
+
+	@Override
+	public void handle(Object message, String flag) {
+
+		// flag is the target node, empty for all nodes
+		if (!(message instanceof String) || !scheduleCluster.isEnable()) {
+			return;
+		}
+
+		JSONObject jsonObject = JSON.parseObject((String) message);
+		// 按 CronJob 解析, 保留任务配置和优先级
+		CronJob cronJob = JSON.parseObject(jsonObject.getString("job"), CronJob.class);
+		scheduleCluster.receive(jsonObject.getString("action"), cronJob, jsonObject.getString("origin"),
+				jsonObject.getLongValue("version"), jsonObject.getString("handoffId"), flag);
+	}
+}
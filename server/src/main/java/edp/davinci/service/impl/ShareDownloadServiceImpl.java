@@ -30,9 +30,9 @@ import edp.davinci.dto.projectDto.ProjectDetail;
 import edp.davinci.dto.projectDto.ProjectPermission;
 import edp.davinci.dto.viewDto.DownloadViewExecuteParam;
 import edp.davinci.model.ShareDownloadRecord;
+import edp.davinci.schedule.FileStore;
 import edp.davinci.service.ShareDownloadService;
 import edp.davinci.service.ShareService;
-import edp.davinci.service.excel.ExecutorUtils;
 import edp.davinci.service.excel.MsgWrapper;
 import edp.davinci.service.excel.WidgetContext;
 import edp.davinci.service.excel.WorkBookContext;
@@ -44,6 +44,7 @@ import org.springframework.stereotype.Service;
 
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 @Service
 @Slf4j
@@ -52,19 +53,23 @@ public class ShareDownloadServiceImpl extends DownloadCommonService implements S
     @Autowired
     private ShareDownloadRecordMapper shareDownloadRecordMapper;
 
+    @Autowired
+    private FileStore fileStore;
+
     @Autowired
     private ShareService shareService;
 
     @Override
     public boolean submit(DownloadType downloadType, String uuid, List<DownloadViewExecuteParam> params) {
         ShareFactor shareFactor = ShareAuthAspect.SHARE_FACTOR_THREAD_LOCAL.get();
+        ShareDownloadRecord record = null;
         try {
             List<WidgetContext> widgetList = getWidgetContexts(downloadType, shareFactor.getEntityId(), shareFactor.getUser(), params);
 
-            ShareDownloadRecord record = new ShareDownloadRecord();
+            record = new ShareDownloadRecord();
             record.setUuid(uuid);
             record.setName(getDownloadFileName(downloadType, shareFactor.getEntityId()));
-            record.setStatus(DownloadTaskStatus.PROCESSING.getStatus());
+            record.setStatus(DownloadTaskStatus.QUEUED.getStatus());
             record.setCreateTime(new Date());
             shareDownloadRecordMapper.insertSelective(record);
 
@@ -76,11 +81,16 @@ public class ShareDownloadServiceImpl extends DownloadCommonService implements S
                     .withResultLimit(resultLimit)
                     .withTaskKey("ShareDownload_" + uuid)
                     .build();
-            ExecutorUtils.submitWorkbookTask(workBookContext, null);
+            submitWorkbook(workBookContext, null);
             log.info("Share download task submit:{}", wrapper);
             return true;
         } catch (UnAuthorizedException | ServerException e) {
             throw e;
+        } catch (RejectedExecutionException e) {
+            log.warn("Share download task rejected: {}", e.getMessage());
+            record.setStatus(DownloadTaskStatus.REJECTED.getStatus());
+            shareDownloadRecordMapper.updateById(record);
+            return false;
         } catch (Exception e) {
             log.error("Submit download task error", e);
             return false;
@@ -118,6 +128,7 @@ public class ShareDownloadServiceImpl extends DownloadCommonService implements S
             record.setLastDownloadTime(new Date());
             record.setStatus(DownloadTaskStatus.DOWNLOADED.getStatus());
             shareDownloadRecordMapper.updateById(record);
+            fileStore.touch(record.getPath());
             return record;
         } else {
             return null;
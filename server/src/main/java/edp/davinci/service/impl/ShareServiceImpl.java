@@ -48,6 +48,7 @@ import edp.davinci.service.ProjectService;
 import edp.davinci.service.ShareService;
 import edp.davinci.service.UserService;
 import edp.davinci.service.ViewService;
+import edp.davinci.service.excel.QueryResultScope;
 import edp.davinci.service.share.ShareDataPermission;
 import edp.davinci.service.share.ShareFactor;
 import edp.davinci.service.share.ShareMode;
@@ -318,8 +319,17 @@ public class ShareServiceImpl implements ShareService {
         ProjectDetail projectDetail = projectService.getProjectDetail(viewWithProjectAndSource.getProjectId(), user, false);
         boolean maintainer = projectService.isMaintainer(projectDetail, user);
 
-        Paginate paginate = viewService.getResultDataList(maintainer, viewWithProjectAndSource, executeParam, user);
-        return paginate;
+        // 定时任务截图的分享页与导出共用查询结果
+        QueryResultScope scope = QueryResultScope.get(shareFactor.getScope());
+        if (scope == null) {
+            return viewService.getResultDataList(maintainer, viewWithProjectAndSource, executeParam, user);
+        }
+        QueryResultScope.setCurrent(scope);
+        try {
+            return viewService.getResultDataList(maintainer, viewWithProjectAndSource, executeParam, user);
+        } finally {
+            QueryResultScope.removeCurrent();
+        }
     }
 
     /**
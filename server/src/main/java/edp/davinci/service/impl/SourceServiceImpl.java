@@ -21,6 +21,9 @@ package edp.davinci.service.impl;
 
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import edp.core.common.jdbc.BulkLoader;
 import edp.core.common.jdbc.JdbcDataSource;
 import edp.core.enums.DataTypeEnum;
 import edp.core.exception.NotFoundException;
@@ -51,6 +54,7 @@ import edp.davinci.model.View;
 import edp.davinci.runner.LoadSupportDataSourceRunner;
 import edp.davinci.service.ProjectService;
 import edp.davinci.service.SourceService;
+import edp.davinci.service.excel.ExecutorUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -64,11 +68,11 @@ import org.stringtemplate.v4.ST;
 import org.stringtemplate.v4.STGroup;
 import org.stringtemplate.v4.STGroupFile;
 
+import java.sql.SQLException;
 import java.util.*;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static edp.core.consts.Consts.AT_SYMBOL;
 import static edp.core.consts.Consts.JDBC_DATASOURCE_DEFAULT_VERSION;
@@ -100,6 +104,25 @@ public class SourceServiceImpl extends BaseEntityService implements SourceServic
 
     private static final CheckEntityEnum entity = CheckEntityEnum.SOURCE;
 
+    private static final int INSERT_BATCH_SIZE = 1000;
+
+    // 单次上传的写入线程数, 实际线程来自共用的上传线程池
+    private static final int INSERT_WRITERS = 4;
+
+    private static final long INSERT_REPORT_INTERVAL_MILLIS = 5000L;
+
+    // 读取结束后等待写入线程完成的最长时间
+    private static final long INSERT_AWAIT_MINUTES = 60L;
+
+    private static final long INSERT_PROGRESS_EXPIRE_HOURS = 24L;
+
+    private static final String UPLOAD_PROGRESS_KEY_PREFIX = "davinci:upload:progress:";
+
+    // 未开启redis时的上传进度
+    private final Cache<String, UploadProgress> uploadProgress = CacheBuilder.newBuilder()
+            .expireAfterWrite(INSERT_PROGRESS_EXPIRE_HOURS, TimeUnit.HOURS)
+            .build();
+
     @Override
     public boolean isExist(String name, Long id, Long projectId) {
         Long sourceId = sourceMapper.getByNameWithProjectId(name, projectId);
@@ -483,24 +506,31 @@ public class SourceServiceImpl extends BaseEntityService implements SourceServic
             throw new ServerException("Unsupported data source, url:" + source.getJdbcUrl());
         }
 
+        CsvUtils.CsvBatchReader csvReader = null;
         try {
-            DataUploadEntity dataUploadEntity = null;
             if (type.equals(FileTypeEnum.CSV.getType())) {
-                // 解析csv文件
-                dataUploadEntity = CsvUtils.parseCsvWithFirstAsHeader(file, "UTF-8");
+                // 流式解析csv文件
+                csvReader = CsvUtils.openCsvWithFirstAsHeader(file, "UTF-8");
+                if (!CollectionUtils.isEmpty(csvReader.getHeaders())) {
+                    // 建表
+                    createTable(csvReader.getHeaders(), sourceDataUpload, source);
+                    // 传输数据
+                    insertData(csvReader.getHeaders(), csvReader::nextBatch, sourceDataUpload, source);
+                }
             } else {
                 // 解析excel文件
-                dataUploadEntity = ExcelUtils.parseExcelWithFirstAsHeader(file);
-            }
-
-            if (null != dataUploadEntity && !CollectionUtils.isEmpty(dataUploadEntity.getHeaders())) {
-                // 建表
-                createTable(dataUploadEntity.getHeaders(), sourceDataUpload, source);
-                // 传输数据
-                insertData(dataUploadEntity.getHeaders(), dataUploadEntity.getValues(), sourceDataUpload, source);
+                DataUploadEntity dataUploadEntity = ExcelUtils.parseExcelWithFirstAsHeader(file);
+                if (null != dataUploadEntity && !CollectionUtils.isEmpty(dataUploadEntity.getHeaders())) {
+                    // 建表
+                    createTable(dataUploadEntity.getHeaders(), sourceDataUpload, source);
+                    // 传输数据
+                    insertData(dataUploadEntity.getHeaders(), listBatches(dataUploadEntity.getValues()), sourceDataUpload, source);
+                }
             }
         } catch (Exception e) {
             throw new ServerException(e.getMessage());
+        } finally {
+            FileUtils.closeCloseable(csvReader);
         }
 
         return true;
@@ -745,18 +775,40 @@ public class SourceServiceImpl extends BaseEntityService implements SourceServic
         }
     }
 
+    /**
+     * 按批读取数据
+     */
+    @FunctionalInterface
+    private interface BatchReader {
+        List<Map<String, Object>> nextBatch(int batchSize) throws ServerException;
+    }
+
+    private static BatchReader listBatches(List<Map<String, Object>> values) {
+        int[] offset = {0};
+        return batchSize -> {
+            if (CollectionUtils.isEmpty(values) || offset[0] >= values.size()) {
+                return Collections.emptyList();
+            }
+            int end = Math.min(offset[0] + batchSize, values.size());
+            List<Map<String, Object>> batch = values.subList(offset[0], end);
+            offset[0] = end;
+            return batch;
+        };
+    }
+
     /**
      * 插入数据
      *
      * @param headers
-     * @param values
+     * @param reader
      * @param sourceDataUpload
      * @param source
      */
-    private void insertData(Set<QueryColumn> headers, List<Map<String, Object>> values,
+    private void insertData(Set<QueryColumn> headers, BatchReader reader,
                             SourceDataUpload sourceDataUpload, Source source) throws ServerException {
 
-        if (CollectionUtils.isEmpty(values)) {
+        List<Map<String, Object>> first = reader.nextBatch(INSERT_BATCH_SIZE);
+        if (CollectionUtils.isEmpty(first)) {
             return;
         }
 
@@ -767,11 +819,11 @@ public class SourceServiceImpl extends BaseEntityService implements SourceServic
                 // 清空表
                 sqlUtils.jdbcTemplate().execute("Truncate table `" + sourceDataUpload.getTableName() + "`");
                 // 插入数据
-                executeInsert(sourceDataUpload.getTableName(), headers, values, sqlUtils);
+                executeInsert(source.getId(), sourceDataUpload.getTableName(), headers, first, reader, sqlUtils);
             } else {
                 boolean tableIsExist = sqlUtils.tableIsExist(sourceDataUpload.getTableName());
                 if (tableIsExist) {
-                    executeInsert(sourceDataUpload.getTableName(), headers, values, sqlUtils);
+                    executeInsert(source.getId(), sourceDataUpload.getTableName(), headers, first, reader, sqlUtils);
                 } else {
                     throw new ServerException("Table " + sourceDataUpload.getTableName() + " is not exist");
                 }
@@ -784,65 +836,219 @@ public class SourceServiceImpl extends BaseEntityService implements SourceServic
 
     /**
      * 多线程执行插入数据
+     * 读取线程按批放入有界队列, 写入线程在共用的上传线程池中取出后优先使用数据库原生导入, 不支持时批量插入, 内存占用与文件大小无关
      *
+     * @param sourceId
      * @param tableName
      * @param headers
-     * @param values
+     * @param first
+     * @param reader
      * @param sqlUtils
      * @throws ServerException
      */
-    private void executeInsert(String tableName, Set<QueryColumn> headers, List<Map<String, Object>> values,
-                               SqlUtils sqlUtils) throws ServerException {
-
-        if (!CollectionUtils.isEmpty(values)) {
-            int len = 1000;
-            int totalSize = values.size();
-            int pageSize = len;
-            int totalPage = totalSize / pageSize;
-            if (totalSize % pageSize != 0) {
-                totalPage += 1;
-                if (totalSize < pageSize) {
-                    pageSize = values.size();
+    private void executeInsert(Long sourceId, String tableName, Set<QueryColumn> headers, List<Map<String, Object>> first,
+                               BatchReader reader, SqlUtils sqlUtils) throws ServerException {
+
+        STGroup stg = new STGroupFile(Constants.SQL_TEMPLATE);
+        ST st = stg.getInstanceOf("insertData");
+        st.add("tableName", tableName);
+        st.add("columns", headers);
+        String sql = st.render();
+        log.info("Insert sql:{}", sql);
+
+        BlockingQueue<List<Map<String, Object>>> queue = new ArrayBlockingQueue<>(INSERT_WRITERS * 2);
+        List<Map<String, Object>> end = Collections.emptyList();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        AtomicLong rows = new AtomicLong(0L);
+        AtomicLong lastReport = new AtomicLong(System.currentTimeMillis());
+
+        long startTime = System.currentTimeMillis();
+        log.info("Execute insert start ---- {}", DateUtils.toyyyyMMddHHmmss(startTime));
+
+        UploadProgress progress = new UploadProgress();
+        progress.setTableName(tableName);
+        progress.setStartTime(startTime);
+        progress.setStatus(UploadProgress.RUNNING);
+        publishProgress(sourceId, progress, 0L);
+
+        List<Future<?>> writers = new ArrayList<>(INSERT_WRITERS);
+        CountDownLatch finished = new CountDownLatch(INSERT_WRITERS);
+        Runnable writer = () -> {
+            BulkLoader loader = null;
+            try {
+                loader = sqlUtils.openBulkLoader(tableName, headers);
+                List<Map<String, Object>> batch;
+                while ((batch = queue.take()) != end) {
+                    if (error.get() != null) {
+                        continue;
+                    }
+                    if (loader != null) {
+                        try {
+                            loader.load(batch);
+                            reportProgress(sourceId, progress, rows.addAndGet(batch.size()), lastReport);
+                            continue;
+                        } catch (SQLException e) {
+                            // 原生导入不可用时改为批量插入
+                            log.warn("Bulk load into {} failed, fallback to batch insert: {}", tableName, e.getMessage());
+                            FileUtils.closeCloseable(loader);
+                            loader = null;
+                        }
+                    }
+                    sqlUtils.executeBatch(sql, headers, batch);
+                    reportProgress(sourceId, progress, rows.addAndGet(batch.size()), lastReport);
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+                // 不清空队列, 由读取线程发现错误后取消其余写入线程
+                error.compareAndSet(null, e);
+            } finally {
+                FileUtils.closeCloseable(loader);
+                finished.countDown();
             }
+        };
 
-            ExecutorService executorService = Executors.newFixedThreadPool(Math.min(totalPage, 8));
-
-            STGroup stg = new STGroupFile(Constants.SQL_TEMPLATE);
-            ST st = stg.getInstanceOf("insertData");
-            st.add("tableName", tableName);
-            st.add("columns", headers);
-            String sql = st.render();
-            log.info("Insert sql:{}", st.render());
-            List<Future> futures = new ArrayList<>();
-
-            // 分页批量插入
-            long startTime = System.currentTimeMillis();
-            log.info("Execute insert start ---- {}", DateUtils.toyyyyMMddHHmmss(startTime));
-            for (int pageNum = 1; pageNum < totalPage + 1; pageNum++) {
-                int localPageNum = pageNum;
-                int localPageSize = pageSize;
-                futures.add(executorService.submit(() -> {
-                    int starNum = (localPageNum - 1) * localPageSize;
-                    int endNum = Math.min(localPageNum * localPageSize, totalSize);
-                    log.info("ExecuteInsert thread-{} : start:{}, end:{}", localPageNum, starNum, endNum);
-                    sqlUtils.executeBatch(sql, headers, values.subList(starNum, endNum));
-                }));
+        ExecutorService uploadWorkers = ExecutorUtils.getUploadWorkers();
+        for (int i = 0; i < INSERT_WRITERS; i++) {
+            try {
+                writers.add(uploadWorkers.submit(writer));
+            } catch (RejectedExecutionException e) {
+                // 线程池已满时以已提交的写入线程继续
+                finished.countDown();
             }
+        }
+        if (writers.isEmpty()) {
+            progress.setStatus(UploadProgress.FAILED);
+            progress.setError("Too many uploads in progress, please try again later");
+            publishProgress(sourceId, progress, 0L);
+            throw new ServerException(progress.getError());
+        }
 
-            try {
-                for (Future future : futures) {
-                    future.get();
+        try {
+            List<Map<String, Object>> batch = first;
+            while (!batch.isEmpty() && error.get() == null) {
+                while (!queue.offer(batch, 1, TimeUnit.SECONDS)) {
+                    if (error.get() != null) {
+                        break;
+                    }
                 }
-                long endTime = System.currentTimeMillis();
-                log.info("Execute insert end ---- {}", DateUtils.toyyyyMMddHHmmss(endTime));
-                log.info("Execution time {} second", (endTime - startTime) / 1000);
-            } catch (InterruptedException | ExecutionException e) {
-                throw new ServerException(e.getMessage());
-            } finally {
-                executorService.shutdown();
+                batch = reader.nextBatch(INSERT_BATCH_SIZE);
             }
+            for (int i = 0; i < writers.size() && error.get() == null; i++) {
+                while (!queue.offer(end, 1, TimeUnit.SECONDS)) {
+                    if (error.get() != null) {
+                        break;
+                    }
+                }
+            }
+
+            long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(INSERT_AWAIT_MINUTES);
+            while (!finished.await(1, TimeUnit.SECONDS)) {
+                if (error.get() == null && System.currentTimeMillis() > deadline) {
+                    error.compareAndSet(null, new TimeoutException("Insert into " + tableName + " timeout"));
+                }
+                if (error.get() != null) {
+                    // 出错时取消其余写入线程, 不再等待队列中的结束标记
+                    writers.forEach(f -> f.cancel(true));
+                    if (!finished.await(30, TimeUnit.SECONDS)) {
+                        log.warn("Insert writers of {} not terminated after cancel", tableName);
+                    }
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error.compareAndSet(null, e);
+        } finally {
+            writers.forEach(f -> f.cancel(true));
+        }
+
+        long endTime = System.currentTimeMillis();
+        if (error.get() != null) {
+            progress.setStatus(UploadProgress.FAILED);
+            progress.setError(error.get().getMessage());
+            publishProgress(sourceId, progress, rows.get());
+            throw new ServerException(error.get().getMessage());
         }
+
+        progress.setStatus(UploadProgress.SUCCESS);
+        publishProgress(sourceId, progress, rows.get());
+
+        log.info("Execute insert end ---- {}", DateUtils.toyyyyMMddHHmmss(endTime));
+        log.info("Execution time {} second, {} rows", (endTime - startTime) / 1000, rows.get());
+    }
+
+    private void reportProgress(Long sourceId, UploadProgress progress, long rows, AtomicLong lastReport) {
+        long now = System.currentTimeMillis();
+        long last = lastReport.get();
+        if (now - last < INSERT_REPORT_INTERVAL_MILLIS || !lastReport.compareAndSet(last, now)) {
+            return;
+        }
+        UploadProgress snapshot = publishProgress(sourceId, progress, rows);
+        log.info("Insert into {} progress: {} rows done, {} rows/sec", progress.getTableName(), rows, snapshot.getRowsPerSecond());
+    }
+
+    /**
+     * 发布上传进度, 开启redis时写入redis供所有节点查询, 否则保存在本节点
+     *
+     * @param sourceId
+     * @param progress
+     * @param rows
+     * @return
+     */
+    private UploadProgress publishProgress(Long sourceId, UploadProgress progress, long rows) {
+        UploadProgress snapshot = new UploadProgress();
+        BeanUtils.copyProperties(progress, snapshot);
+        long now = System.currentTimeMillis();
+        snapshot.setRows(rows);
+        snapshot.setRowsPerSecond(rows / Math.max((now - snapshot.getStartTime()) / 1000, 1));
+        snapshot.setUpdateTime(now);
+
+        String key = getUploadProgressKey(sourceId, snapshot.getTableName());
+        try {
+            if (redisUtils.isRedisEnable()) {
+                redisUtils.set(key, JSON.toJSONString(snapshot), INSERT_PROGRESS_EXPIRE_HOURS, TimeUnit.HOURS);
+                return snapshot;
+            }
+        } catch (Exception e) {
+            log.warn("Publish upload progress of {} failed: {}", key, e.getMessage());
+        }
+        uploadProgress.put(key, snapshot);
+        return snapshot;
+    }
+
+    /**
+     * 获取上传进度
+     *
+     * @param sourceId
+     * @param tableName
+     * @param user
+     * @return
+     * @throws NotFoundException
+     * @throws UnAuthorizedException
+     */
+    @Override
+    public UploadProgress getUploadProgress(Long sourceId, String tableName, User user) throws NotFoundException, UnAuthorizedException {
+
+        Source source = getSource(sourceId);
+
+        checkWritePermission(entity, source.getProjectId(), user, "upload data in");
+
+        String key = getUploadProgressKey(sourceId, tableName);
+        if (redisUtils.isRedisEnable()) {
+            Object value = redisUtils.get(key);
+            if (value != null) {
+                return JSON.parseObject(value.toString(), UploadProgress.class);
+            }
+        }
+        UploadProgress progress = uploadProgress.getIfPresent(key);
+        if (progress == null) {
+            throw new NotFoundException("Upload of table " + tableName + " is not found");
+        }
+        return progress;
     }
 
+    private static String getUploadProgressKey(Long sourceId, String tableName) {
+        return UPLOAD_PROGRESS_KEY_PREFIX + sourceId + AT_SYMBOL + tableName;
+    }
 }
@@ -36,6 +36,7 @@ import edp.davinci.core.enums.CheckEntityEnum;
 import edp.davinci.core.enums.LockType;
 import edp.davinci.core.enums.UserDistinctType;
 import edp.davinci.core.enums.UserOrgRoleEnum;
+import edp.davinci.core.service.PrincipalCache;
 import edp.davinci.dao.OrganizationMapper;
 import edp.davinci.dao.RelUserOrganizationMapper;
 import edp.davinci.dao.UserMapper;
@@ -95,6 +96,9 @@ public class UserServiceImpl extends BaseEntityService implements UserService {
     @Autowired
     private Environment environment;
 
+    @Autowired
+    private PrincipalCache principalCache;
+
     private static final CheckEntityEnum entity = CheckEntityEnum.USER;
 
 
@@ -337,6 +341,7 @@ public class UserServiceImpl extends BaseEntityService implements UserService {
             log.info("Update user fail, username:{}", user.getUsername());
             throw new ServerException("Update user fail");
         }
+        principalCache.invalidate(user.getId());
         return true;
     }
 
@@ -372,6 +377,7 @@ public class UserServiceImpl extends BaseEntityService implements UserService {
                 user.setActive(true);
                 user.setUpdateTime(new Date());
                 userMapper.activeUser(user);
+                principalCache.invalidate(user.getId());
 
                 String orgName = user.getUsername() + "'s Organization";
                 // 激活成功，创建默认Organization
@@ -449,6 +455,7 @@ public class UserServiceImpl extends BaseEntityService implements UserService {
         user.setPassword(BCrypt.hashpw(password, BCrypt.gensalt()));
         user.setUpdateTime(new Date());
         if (userMapper.changePassword(user) > 0) {
+            principalCache.invalidate(user.getId());
             return resultMap.success().message("Successful password modification");
         }
 
@@ -495,6 +502,7 @@ public class UserServiceImpl extends BaseEntityService implements UserService {
         user.setAvatar(avatar);
         user.setUpdateTime(new Date());
         if (userMapper.updateAvatar(user) > 0) {
+            principalCache.invalidate(user.getId());
             Map<String, String> map = new HashMap<>();
             map.put("avatar", avatar);
             return resultMap.successAndRefreshToken(request).payload(map);
@@ -656,6 +664,10 @@ public class UserServiceImpl extends BaseEntityService implements UserService {
             throw new ServerException("Invalid check code, check code is wrong or has expired");
         }
         user.setPassword(BCrypt.hashpw(ticket.getPassword(), BCrypt.gensalt()));
-        return userMapper.changePassword(user) > 0;
+        if (userMapper.changePassword(user) <= 0) {
+            return false;
+        }
+        principalCache.invalidate(user.getId());
+        return true;
     }
 }
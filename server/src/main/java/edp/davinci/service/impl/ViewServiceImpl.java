@@ -33,6 +33,7 @@ import edp.davinci.core.common.Constants;
 import edp.davinci.core.enums.*;
 import edp.davinci.core.model.SqlEntity;
 import edp.davinci.core.model.SqlFilter;
+import edp.davinci.core.service.PermissionCache;
 import edp.davinci.core.utils.SqlParseUtils;
 import edp.davinci.dao.RelRoleViewMapper;
 import edp.davinci.dao.SourceMapper;
@@ -45,6 +46,7 @@ import edp.davinci.dto.viewDto.*;
 import edp.davinci.model.*;
 import edp.davinci.service.ProjectService;
 import edp.davinci.service.ViewService;
+import edp.davinci.service.excel.QueryResultScope;
 import edp.davinci.service.excel.SQLContext;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.Logger;
@@ -99,6 +101,9 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
     @Autowired
     private SqlParseUtils sqlParseUtils;
 
+    @Autowired
+    private PermissionCache permissionCache;
+
     private static final String SQL_VARABLE_KEY = "name";
 
     private static final CheckEntityEnum entity = CheckEntityEnum.VIEW;
@@ -205,6 +210,13 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
             executeParam.addExcludeColumn(excludeColumns, source.getJdbcUrl(), source.getDbVersion());
             context.setQuerySql(querySqlList);
             context.setViewExecuteParam(executeParam);
+            // 不分页的完整结果才能复用交互查询的缓存
+            if (null != executeParam.getCache() && executeParam.getCache() && executeParam.getExpired() > 0L
+                    && executeParam.getPageNo() <= 0 && executeParam.getPageSize() <= 0 && executeParam.getLimit() <= 0) {
+                context.setResultCacheKey(getResultCacheKey(executeParam, excludeColumns, querySqlList.get(querySqlList.size() - 1)));
+            }
+            // 导出不分页, 按不分页的查询标识在任务作用域内复用
+            context.setQueryKey(QueryResultScope.key(source.getId(), querySqlList.get(querySqlList.size() - 1), 0, 0, 0, 0, excludeColumns));
         }
         if (!CollectionUtils.isEmpty(excludeColumns)) {
             List<String> excludeList = excludeColumns.stream().collect(Collectors.toList());
@@ -329,6 +341,7 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
             if (CollectionUtils.isEmpty(viewUpdate.getRoles())) {
                 relRoleViewMapper.deleteByViewId(id);
             }
+            permissionCache.invalidate();
 
             if (!StringUtils.isEmpty(viewUpdate.getVariable())) {
                 checkAndInsertRoleParam(viewUpdate.getVariable(), viewUpdate.getRoles(), user, view);
@@ -385,6 +398,7 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
 
         optLogger.info("View({}) is delete by user({})", view.toString(), user.getId());
         relRoleViewMapper.deleteByViewId(id);
+        permissionCache.invalidate();
         return true;
     }
 
@@ -613,15 +627,7 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
 
                 if (null != executeParam.getCache() && executeParam.getCache() && executeParam.getExpired() > 0L) {
 
-                    StringBuilder saltBuilder = new StringBuilder();
-                    saltBuilder.append(executeParam.getPageNo());
-                    saltBuilder.append(MINUS);
-                    saltBuilder.append(executeParam.getLimit());
-                    saltBuilder.append(MINUS);
-                    saltBuilder.append(executeParam.getPageSize());
-                    excludeColumns.forEach(saltBuilder::append);
-                    cacheKey = MD5Util.getMD5(saltBuilder.toString() + querySqlList.get(querySqlList.size() - 1), true,
-                            32);
+                    cacheKey = getResultCacheKey(executeParam, excludeColumns, querySqlList.get(querySqlList.size() - 1));
                     if (!executeParam.getFlush()) {
 
                         try {
@@ -636,10 +642,14 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
                     }
                 }
 
-                for (String sql : querySqlList) {
-                    paginate = sqlUtils.syncQuery4Paginate(SqlParseUtils.rebuildSqlWithFragment(sql),
+                QueryResultScope scope = QueryResultScope.current();
+                if (scope != null) {
+                    String queryKey = QueryResultScope.key(source.getId(), querySqlList.get(querySqlList.size() - 1),
                             executeParam.getPageNo(), executeParam.getPageSize(), executeParam.getTotalCount(),
                             executeParam.getLimit(), excludeColumns);
+                    paginate = scope.load(queryKey, () -> query4Paginate(sqlUtils, querySqlList, executeParam, excludeColumns));
+                } else {
+                    paginate = query4Paginate(sqlUtils, querySqlList, executeParam, excludeColumns);
                 }
             }
 
@@ -657,6 +667,29 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
     }
 
 
+    private PaginateWithQueryColumns query4Paginate(SqlUtils sqlUtils, List<String> querySqlList,
+                                                    ViewExecuteParam executeParam, Set<String> excludeColumns) throws Exception {
+        PaginateWithQueryColumns paginate = null;
+        for (String sql : querySqlList) {
+            paginate = sqlUtils.syncQuery4Paginate(SqlParseUtils.rebuildSqlWithFragment(sql),
+                    executeParam.getPageNo(), executeParam.getPageSize(), executeParam.getTotalCount(),
+                    executeParam.getLimit(), excludeColumns);
+        }
+        return paginate;
+    }
+
+    private String getResultCacheKey(ViewExecuteParam executeParam, Set<String> excludeColumns, String sql) {
+        StringBuilder saltBuilder = new StringBuilder();
+        saltBuilder.append(executeParam.getPageNo());
+        saltBuilder.append(MINUS);
+        saltBuilder.append(executeParam.getLimit());
+        saltBuilder.append(MINUS);
+        saltBuilder.append(executeParam.getPageSize());
+        excludeColumns.forEach(saltBuilder::append);
+        return MD5Util.getMD5(saltBuilder.toString() + sql, true, 32);
+    }
+
+
     @Override
     public List<Map<String, Object>> getDistinctValue(Long id, DistinctParam param, User user) throws NotFoundException, ServerException, UnAuthorizedException {
         ViewWithSource viewWithSource = getViewWithSource(id);
@@ -749,10 +782,10 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
         List<SqlVariable> queryVariables = getQueryVariables(variables);
         List<SqlVariable> authVariables = null;
         if (!isProjectMaintainer) {
-            List<RelRoleView> roleViewList = relRoleViewMapper.getByUserAndView(user.getId(), viewId);
-            authVariables = getAuthVariables(roleViewList, variables);
+            ViewRoleAccess access = getViewRoleAccess(viewId, user);
+            authVariables = getAuthVariables(access.roleViews, variables);
             if (null != excludeColumns) {
-                Set<String> columns = getExcludeColumnsViaOneView(roleViewList);
+                Set<String> columns = access.excludeColumns;
                 if (!CollectionUtils.isEmpty(columns)) {
                     excludeColumns.addAll(columns);
                 }
@@ -843,6 +876,23 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
     }
 
 
+    /**
+     * 用户在view上的角色权限和据此计算的排除列
+     *
+     * @param viewId
+     * @param user
+     * @return
+     */
+    private ViewRoleAccess getViewRoleAccess(Long viewId, User user) {
+        return permissionCache.get(PermissionCache.key("view", viewId, user.getId()), () -> {
+            ViewRoleAccess access = new ViewRoleAccess();
+            access.roleViews = relRoleViewMapper.getByUserAndView(user.getId(), viewId);
+            Set<String> columns = getExcludeColumnsViaOneView(access.roleViews);
+            access.excludeColumns = null == columns ? null : Collections.unmodifiableSet(columns);
+            return access;
+        });
+    }
+
     private Set<String> getExcludeColumnsViaOneView(List<RelRoleView> roleViewList) {
         if (CollectionUtils.isEmpty(roleViewList)) {
             return null;
@@ -1031,7 +1081,14 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
 			if (!CollectionUtils.isEmpty(relRoleViews)) {
 				relRoleViewMapper.insertBatch(relRoleViews);
 			}
+			permissionCache.invalidate();
         });
     }
-}
 
+    private static class ViewRoleAccess {
+
+        private List<RelRoleView> roleViews;
+
+        private Set<String> excludeColumns;
+    }
+}
@@ -78,6 +78,9 @@ public class VizCommonService extends BaseEntityService {
 
     @Autowired
     protected RoleMapper roleMapper;
+
+    @Autowired
+    protected VizVisibilityIndex vizVisibilityIndex;
     
 	protected boolean isDisableVizs(ProjectPermission projectPermission, List<Long> disableVizs, Long id) {
         return projectPermission == null || (!projectPermission.isProjectMaintainer() && disableVizs.contains(id));
@@ -113,6 +116,10 @@ public class VizCommonService extends BaseEntityService {
      * @return
      */
     protected List<Long> getDisableVizs(Long userId, Long featureId, List<Long> allVizs, VizEnum vizEnum) {
+        if (vizVisibilityIndex.isEnable()) {
+            return vizVisibilityIndex.getDisableVizs(userId, featureId, allVizs, vizEnum);
+        }
+
         List<RoleDisableViz> disables = null;
         List<Long> allRoles = null;
         switch (vizEnum) {
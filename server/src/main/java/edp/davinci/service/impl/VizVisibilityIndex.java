@@ -0,0 +1,379 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.davinci.service.impl;
+
+import com.alibaba.fastjson.JSONObject;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import edp.core.utils.CollectionUtils;
+import edp.core.utils.RedisUtils;
+import edp.davinci.core.enums.VizEnum;
+import edp.davinci.core.model.RedisMessageEntity;
+import edp.davinci.core.model.RoleDisableViz;
+import edp.davinci.core.service.PermissionCache;
+import edp.davinci.dao.*;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static edp.davinci.core.common.Constants.DAVINCI_TOPIC_CHANNEL;
+
+/**
+ * viz可见性索引
+ * 按project(portal/display)、portal(dashboard)、display(slide)建立索引, 每个角色的禁用viz为一个位图,
+ * 用户的禁用viz为其在范围内所有角色位图的交集
+ * 设置可见性时增量更新, 角色成员和角色项目关系变更时随权限缓存整体失效
+ */
+@Slf4j
+@Component
+public class VizVisibilityIndex {
+
+    private static final List<Long> EMPTY = Collections.emptyList();
+
+    @Value("${auth.permission-cache.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    @Value("${auth.permission-cache.max-size:20000}")
+    private long maxSize;
+
+    @Autowired
+    private RelRolePortalMapper relRolePortalMapper;
+
+    @Autowired
+    private RelRoleDashboardMapper relRoleDashboardMapper;
+
+    @Autowired
+    private RelRoleDisplayMapper relRoleDisplayMapper;
+
+    @Autowired
+    private RelRoleSlideMapper relRoleSlideMapper;
+
+    @Autowired
+    private RelRoleUserMapper relRoleUserMapper;
+
+    @Autowired
+    private RoleMapper roleMapper;
+
+    @Autowired
+    private PermissionCache permissionCache;
+
+    @Autowired
+    private RedisUtils redisUtils;
+
+    private final String nodeId = UUID.randomUUID().toString().replace("-", "");
+
+    // 失效或增量更新计数, 加载期间发生变更的结果不写入缓存
+    private final AtomicLong generation = new AtomicLong(0);
+
+    private Cache<String, FeatureIndex> features;
+
+    private Cache<Long, Set<Long>> userRoles;
+
+    @PostConstruct
+    public void init() {
+        features = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(maxSize, 1))
+                .expireAfterWrite(Math.max(ttlSeconds, 1), TimeUnit.SECONDS)
+                .build();
+        userRoles = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(maxSize, 1))
+                .expireAfterWrite(Math.max(ttlSeconds, 1), TimeUnit.SECONDS)
+                .build();
+        permissionCache.addListener(this::invalidateLocal);
+    }
+
+    public boolean isEnable() {
+        return ttlSeconds > 0;
+    }
+
+    /**
+     * 获取用户在范围内被禁用的viz
+     *
+     * @param userId
+     * @param featureId portal、display为projectId, dashboard为portalId, slide为displayId
+     * @param allVizs   不为空时结果限定在其中
+     * @param vizEnum
+     * @return
+     */
+    public List<Long> getDisableVizs(Long userId, Long featureId, List<Long> allVizs, VizEnum vizEnum) {
+        if (allVizs != null && allVizs.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        FeatureIndex index = getFeature(vizEnum, featureId);
+        Set<Long> roles = getUserRoles(userId);
+        List<Long> disables = index.getDisables(roles);
+        if (allVizs != null && !disables.isEmpty()) {
+            Set<Long> all = new HashSet<>(allVizs);
+            disables.removeIf(id -> !all.contains(id));
+        }
+        return disables;
+    }
+
+    /**
+     * 设置角色对viz的可见性, 在事务结束后更新本节点索引并通知其他节点
+     *
+     * @param vizEnum
+     * @param featureId
+     * @param roleId
+     * @param vizId
+     * @param visible
+     */
+    public void setVisible(VizEnum vizEnum, Long featureId, Long roleId, Long vizId, boolean visible) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    update(vizEnum, featureId, roleId, vizId, visible);
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        invalidateLocal(vizEnum, featureId);
+                    }
+                }
+            });
+        } else {
+            update(vizEnum, featureId, roleId, vizId, visible);
+        }
+    }
+
+    /**
+     * viz创建、修改、复制时整体设置了角色可见性, 在事务结束后丢弃对应范围的索引
+     *
+     * @param vizEnum
+     * @param featureId
+     */
+    public void invalidate(VizEnum vizEnum, Long featureId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    invalidateLocal(vizEnum, featureId);
+                    publish(vizEnum, featureId);
+                }
+            });
+        } else {
+            invalidateLocal(vizEnum, featureId);
+            publish(vizEnum, featureId);
+        }
+    }
+
+    private void update(VizEnum vizEnum, Long featureId, Long roleId, Long vizId, boolean visible) {
+        generation.incrementAndGet();
+        FeatureIndex index = features.getIfPresent(key(vizEnum, featureId));
+        if (index != null) {
+            index.set(roleId, vizId, !visible);
+        }
+        publish(vizEnum, featureId);
+    }
+
+    private void publish(VizEnum vizEnum, Long featureId) {
+        if (!redisUtils.isRedisEnable()) {
+            return;
+        }
+        try {
+            JSONObject message = new JSONObject();
+            message.put("viz", vizEnum.name());
+            message.put("featureId", featureId);
+            redisUtils.convertAndSend(DAVINCI_TOPIC_CHANNEL, new RedisMessageEntity(VizVisibilityMessageHandler.class, message.toJSONString(), nodeId));
+        } catch (Exception e) {
+            log.warn("Publish {}({}) visibility change error: {}", vizEnum.name(), featureId, e.getMessage());
+        }
+    }
+
+    /**
+     * 其他节点的可见性变更, 丢弃本节点对应范围的索引
+     *
+     * @param vizEnum
+     * @param featureId
+     * @param flag
+     */
+    public void invalidateLocal(VizEnum vizEnum, Long featureId, String flag) {
+        if (nodeId.equals(flag)) {
+            return;
+        }
+        invalidateLocal(vizEnum, featureId);
+    }
+
+    private void invalidateLocal(VizEnum vizEnum, Long featureId) {
+        generation.incrementAndGet();
+        features.invalidate(key(vizEnum, featureId));
+    }
+
+    private void invalidateLocal() {
+        generation.incrementAndGet();
+        features.invalidateAll();
+        userRoles.invalidateAll();
+    }
+
+    private FeatureIndex getFeature(VizEnum vizEnum, Long featureId) {
+        String key = key(vizEnum, featureId);
+        FeatureIndex index = features.getIfPresent(key);
+        if (index != null) {
+            return index;
+        }
+
+        long current = generation.get();
+        List<RoleDisableViz> disables;
+        List<Long> roles;
+        switch (vizEnum) {
+            case PORTAL:
+                disables = relRolePortalMapper.getDisablePortalByProject(featureId);
+                roles = roleMapper.getRolesByProject(featureId);
+                break;
+            case DASHBOARD:
+                disables = relRoleDashboardMapper.getDisableByPortal(featureId);
+                roles = roleMapper.getRolesByPortal(featureId);
+                break;
+            case DISPLAY:
+                disables = relRoleDisplayMapper.getDisableDisplayByProject(featureId);
+                roles = roleMapper.getRolesByProject(featureId);
+                break;
+            case SLIDE:
+                disables = relRoleSlideMapper.getDisableSlidesByDisplay(featureId);
+                roles = roleMapper.getRolesByDisplay(featureId);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown viz type");
+        }
+
+        index = new FeatureIndex(roles);
+        if (!CollectionUtils.isEmpty(disables)) {
+            for (RoleDisableViz disable : disables) {
+                index.set(disable.getRoleId(), disable.getVizId(), true);
+            }
+        }
+        if (current == generation.get()) {
+            features.put(key, index);
+        }
+        return index;
+    }
+
+    private Set<Long> getUserRoles(Long userId) {
+        Set<Long> roles = userRoles.getIfPresent(userId);
+        if (roles != null) {
+            return roles;
+        }
+
+        long current = generation.get();
+        List<Long> list = relRoleUserMapper.getRoleIdsByUserId(userId);
+        roles = CollectionUtils.isEmpty(list) ? Collections.emptySet() : Collections.unmodifiableSet(new HashSet<>(list));
+        if (current == generation.get()) {
+            userRoles.put(userId, roles);
+        }
+        return roles;
+    }
+
+    private static String key(VizEnum vizEnum, Long featureId) {
+        return vizEnum.name() + ":" + featureId;
+    }
+
+    /**
+     * 单个范围的索引, viz id映射为连续序号, 每个角色的禁用viz为一个位图
+     */
+    private static class FeatureIndex {
+
+        // 关联了项目的角色
+        private final Set<Long> roles;
+
+        private final Map<Long, Integer> ordinals = new HashMap<>();
+
+        private final List<Long> ids = new ArrayList<>();
+
+        private final Map<Long, BitSet> disables = new HashMap<>();
+
+        FeatureIndex(List<Long> roles) {
+            this.roles = CollectionUtils.isEmpty(roles) ? Collections.emptySet() : new HashSet<>(roles);
+        }
+
+        synchronized void set(Long roleId, Long vizId, boolean disable) {
+            Integer ordinal = ordinals.get(vizId);
+            if (ordinal == null) {
+                if (!disable) {
+                    return;
+                }
+                ordinal = ids.size();
+                ordinals.put(vizId, ordinal);
+                ids.add(vizId);
+            }
+
+            BitSet bits = disables.get(roleId);
+            if (disable) {
+                if (bits == null) {
+                    bits = new BitSet();
+                    disables.put(roleId, bits);
+                }
+                bits.set(ordinal);
+            } else if (bits != null) {
+                bits.clear(ordinal);
+                if (bits.isEmpty()) {
+                    disables.remove(roleId);
+                }
+            }
+        }
+
+        /**
+         * 范围内有禁用记录或关联了项目的角色参与计算, 任一角色可见即可见
+         *
+         * @param userRoles
+         * @return
+         */
+        synchronized List<Long> getDisables(Set<Long> userRoles) {
+            BitSet result = null;
+            for (Long roleId : userRoles) {
+                BitSet bits = disables.get(roleId);
+                if (bits == null) {
+                    if (roles.contains(roleId)) {
+                        return new ArrayList<>();
+                    }
+                    continue;
+                }
+                if (result == null) {
+                    result = (BitSet) bits.clone();
+                } else {
+                    result.and(bits);
+                }
+                if (result.isEmpty()) {
+                    return new ArrayList<>();
+                }
+            }
+
+            if (result == null) {
+                return new ArrayList<>();
+            }
+            List<Long> list = new ArrayList<>(result.cardinality());
+            for (int i = result.nextSetBit(0); i >= 0; i = result.nextSetBit(i + 1)) {
+                list.add(ids.get(i));
+            }
+            return list;
+        }
+    }
+}
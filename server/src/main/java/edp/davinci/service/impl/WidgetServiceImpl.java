@@ -283,6 +283,7 @@ public class WidgetServiceImpl extends BaseEntityService implements WidgetServic
 
             optLogger.info("Widget({}) is update by user({}), origin:{}", widget.toString(), user.getId(),
                     originStr);
+            shareAuthCache.invalidate();
             return true;
 
         } finally {
@@ -317,6 +318,7 @@ public class WidgetServiceImpl extends BaseEntityService implements WidgetServic
         memDashboardWidgetMapper.deleteByWidget(id);
         memDisplaySlideWidgetMapper.deleteByWidget(id);
         widgetMapper.deleteById(id);
+        shareAuthCache.invalidate();
 
         optLogger.info("Widget({}) is delete by user({})", widget.toString(), user.getId());
         return true;
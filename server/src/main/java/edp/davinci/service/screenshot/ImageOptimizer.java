@@ -0,0 +1,415 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.screenshot;
+
+import edp.davinci.core.enums.LogNameEnum;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 截图后处理
+ * 超过限定宽度时缩小, 颜色不超过256种时转为调色板图片, 否则按配置量化颜色或保留 RGB, 并以最高压缩级别编码
+ * 可配置转为 JPEG; 处理后比原图大时保留原图
+ * 每张截图处理时需要整页像素缓冲, 限制同时处理的数量避免并行截图占满内存
+ */
+@Slf4j
+@Component
+public class ImageOptimizer {
+
+    private static final Logger scheduleLogger = LoggerFactory.getLogger(LogNameEnum.BUSINESS_SCHEDULE.getName());
+
+    private static final int MAX_COLORS = 256;
+
+    // 量化时每个颜色分量保留的位数
+    private static final int QUANTIZE_BITS = 5;
+
+    @Value("${screenshot.image_optimize:true}")
+    private boolean enable;
+
+    // png / jpg
+    @Value("${screenshot.image_format:png}")
+    private String format;
+
+    @Value("${screenshot.image_quantize:true}")
+    private boolean quantize;
+
+    @Value("${screenshot.image_compression_level:9}")
+    private int compressionLevel;
+
+    @Value("${screenshot.image_jpeg_quality:0.85}")
+    private float jpegQuality;
+
+    private final Semaphore permits;
+
+    public ImageOptimizer(@Value("${screenshot.image_optimize_concurrency:2}") int concurrency) {
+        this.permits = new Semaphore(Math.max(concurrency, 1), true);
+    }
+
+    /**
+     * 处理截图, 失败时返回原图
+     *
+     * @param image
+     * @param maxWidth 不大于0时不缩小
+     * @return
+     */
+    public File optimize(File image, Integer maxWidth) {
+        if (!enable || image == null || !image.exists()) {
+            return image;
+        }
+
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return image;
+        }
+
+        long start = System.currentTimeMillis();
+        File output = null;
+        try {
+            BufferedImage source = ImageIO.read(image);
+            if (source == null) {
+                return image;
+            }
+
+            BufferedImage target = toRgb(downscale(source, maxWidth));
+            boolean jpeg = "jpg".equalsIgnoreCase(format) || "jpeg".equalsIgnoreCase(format);
+            String name = image.getName();
+            int dot = name.lastIndexOf('.');
+            output = new File(image.getParentFile(), (dot > 0 ? name.substring(0, dot) : name) + "_opt" + (jpeg ? ".jpg" : ".png"));
+
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(output))) {
+                if (jpeg) {
+                    writeJpeg(out, target);
+                } else {
+                    writePng(out, target);
+                }
+            }
+
+            boolean scaled = target.getWidth() != source.getWidth();
+            if (!scaled && output.length() >= image.length()) {
+                output.delete();
+                return image;
+            }
+
+            scheduleLogger.info("Screenshot {} optimized, {}x{} -> {}x{}, {} -> {} bytes, cost:{}ms", name,
+                    source.getWidth(), source.getHeight(), target.getWidth(), target.getHeight(),
+                    image.length(), output.length(), System.currentTimeMillis() - start);
+            image.delete();
+            return output;
+        } catch (Exception e) {
+            scheduleLogger.warn("Optimize screenshot {} error: {}", image.getName(), e.getMessage());
+            if (output != null) {
+                output.delete();
+            }
+            return image;
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * 逐次缩小一半直到目标宽度, 避免一次缩小过多时双线性插值丢失细节
+     *
+     * @param source
+     * @param maxWidth
+     * @return
+     */
+    private static BufferedImage downscale(BufferedImage source, Integer maxWidth) {
+        if (maxWidth == null || maxWidth <= 0 || source.getWidth() <= maxWidth) {
+            return source;
+        }
+
+        int targetWidth = maxWidth;
+        int targetHeight = Math.max((int) Math.round((double) source.getHeight() * maxWidth / source.getWidth()), 1);
+        int width = source.getWidth();
+        int height = source.getHeight();
+        BufferedImage current = source;
+        do {
+            width = Math.max(width / 2, targetWidth);
+            height = Math.max(height / 2, targetHeight);
+            BufferedImage next = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = next.createGraphics();
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(current, 0, 0, width, height, null);
+            graphics.dispose();
+            current = next;
+        } while (width != targetWidth || height != targetHeight);
+        return current;
+    }
+
+    private static BufferedImage toRgb(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_RGB) {
+            return image;
+        }
+        BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = rgb.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+        graphics.drawImage(image, 0, 0, null);
+        graphics.dispose();
+        return rgb;
+    }
+
+    private void writeJpeg(OutputStream out, BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(jpegQuality);
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private void writePng(OutputStream out, BufferedImage image) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] rgb = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+        byte[] indexes = new byte[rgb.length];
+        int[] palette = exactPalette(rgb, indexes);
+        if (palette == null && quantize) {
+            palette = medianCut(rgb, indexes);
+        }
+
+        if (palette == null) {
+            PngEncoder.writeRgb(out, width, height, rgb, compressionLevel);
+        } else {
+            PngEncoder.writeIndexed(out, width, height, indexes, palette, compressionLevel);
+        }
+    }
+
+    /**
+     * 颜色不超过256种时生成无损调色板
+     *
+     * @param rgb
+     * @param indexes
+     * @return 颜色过多时返回 null
+     */
+    private static int[] exactPalette(int[] rgb, byte[] indexes) {
+        Map<Integer, Integer> colors = new HashMap<>();
+        int last = -1;
+        int lastIndex = 0;
+        for (int i = 0; i < rgb.length; i++) {
+            int color = rgb[i] & 0xffffff;
+            if (color != last) {
+                Integer index = colors.get(color);
+                if (index == null) {
+                    if (colors.size() == MAX_COLORS) {
+                        return null;
+                    }
+                    index = colors.size();
+                    colors.put(color, index);
+                }
+                last = color;
+                lastIndex = index;
+            }
+            indexes[i] = (byte) lastIndex;
+        }
+
+        int[] palette = new int[colors.size()];
+        colors.forEach((color, index) -> palette[index] = color);
+        return palette;
+    }
+
+    /**
+     * 中位切分量化到256色
+     * 颜色先按每分量5位归入直方图, 每次切分像素数与跨度乘积最大的区间, 调色板取区间内像素的平均色
+     *
+     * @param rgb
+     * @param indexes
+     * @return
+     */
+    private static int[] medianCut(int[] rgb, byte[] indexes) {
+        int size = 1 << (QUANTIZE_BITS * 3);
+        int[] counts = new int[size];
+        long[] sumR = new long[size];
+        long[] sumG = new long[size];
+        long[] sumB = new long[size];
+        for (int pixel : rgb) {
+            int bin = bin(pixel);
+            counts[bin]++;
+            sumR[bin] += (pixel >> 16) & 0xff;
+            sumG[bin] += (pixel >> 8) & 0xff;
+            sumB[bin] += pixel & 0xff;
+        }
+
+        int n = 0;
+        int[] bins = new int[size];
+        for (int bin = 0; bin < size; bin++) {
+            if (counts[bin] > 0) {
+                bins[n++] = bin;
+            }
+        }
+
+        // 每个区间为 bins 中的 [from, to)
+        List<int[]> boxes = new ArrayList<>();
+        boxes.add(new int[]{0, n});
+        while (boxes.size() < MAX_COLORS) {
+            int[] widest = null;
+            long widestScore = 0;
+            for (int[] box : boxes) {
+                if (box[1] - box[0] < 2) {
+                    continue;
+                }
+                long score = population(counts, bins, box) * maxRange(bins, box)[1];
+                if (score > widestScore) {
+                    widestScore = score;
+                    widest = box;
+                }
+            }
+            if (widest == null) {
+                break;
+            }
+            boxes.add(split(counts, bins, widest));
+        }
+
+        int[] palette = new int[boxes.size()];
+        byte[] lookup = new byte[size];
+        for (int i = 0; i < boxes.size(); i++) {
+            int[] box = boxes.get(i);
+            long r = 0, g = 0, b = 0, total = 0;
+            for (int j = box[0]; j < box[1]; j++) {
+                int bin = bins[j];
+                r += sumR[bin];
+                g += sumG[bin];
+                b += sumB[bin];
+                total += counts[bin];
+                lookup[bin] = (byte) i;
+            }
+            palette[i] = (int) (r / total) << 16 | (int) (g / total) << 8 | (int) (b / total);
+        }
+
+        for (int i = 0; i < rgb.length; i++) {
+            indexes[i] = lookup[bin(rgb[i])];
+        }
+        return palette;
+    }
+
+    /**
+     * 按跨度最大的分量排序后在像素数的中位处切分, 原区间保留前半部分
+     *
+     * @param counts
+     * @param bins
+     * @param box
+     * @return 后半部分
+     */
+    private static int[] split(int[] counts, int[] bins, int[] box) {
+        int channel = maxRange(bins, box)[0];
+
+        // 分量只有32个取值, 计数排序
+        int levels = 1 << QUANTIZE_BITS;
+        int[] offsets = new int[levels + 1];
+        for (int j = box[0]; j < box[1]; j++) {
+            offsets[component(bins[j], channel) + 1]++;
+        }
+        for (int level = 0; level < levels; level++) {
+            offsets[level + 1] += offsets[level];
+        }
+        int[] sorted = new int[box[1] - box[0]];
+        for (int j = box[0]; j < box[1]; j++) {
+            sorted[offsets[component(bins[j], channel)]++] = bins[j];
+        }
+        System.arraycopy(sorted, 0, bins, box[0], sorted.length);
+
+        long half = population(counts, bins, box) / 2;
+        long accumulated = 0;
+        int median = box[0] + 1;
+        for (int j = box[0]; j < box[1] - 1; j++) {
+            accumulated += counts[bins[j]];
+            if (accumulated >= half) {
+                median = j + 1;
+                break;
+            }
+        }
+
+        int[] upper = new int[]{median, box[1]};
+        box[1] = median;
+        return upper;
+    }
+
+    private static long population(int[] counts, int[] bins, int[] box) {
+        long population = 0;
+        for (int j = box[0]; j < box[1]; j++) {
+            population += counts[bins[j]];
+        }
+        return population;
+    }
+
+    /**
+     * @return {分量, 跨度}
+     */
+    private static int[] maxRange(int[] bins, int[] box) {
+        int[] min = {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE};
+        int[] max = {0, 0, 0};
+        for (int j = box[0]; j < box[1]; j++) {
+            for (int channel = 0; channel < 3; channel++) {
+                int value = component(bins[j], channel);
+                min[channel] = Math.min(min[channel], value);
+                max[channel] = Math.max(max[channel], value);
+            }
+        }
+        int channel = 0;
+        for (int c = 1; c < 3; c++) {
+            if (max[c] - min[c] > max[channel] - min[channel]) {
+                channel = c;
+            }
+        }
+        return new int[]{channel, max[channel] - min[channel]};
+    }
+
+    private static int bin(int pixel) {
+        int shift = 8 - QUANTIZE_BITS;
+        int r = ((pixel >> 16) & 0xff) >> shift;
+        int g = ((pixel >> 8) & 0xff) >> shift;
+        int b = (pixel & 0xff) >> shift;
+        return r << (QUANTIZE_BITS * 2) | g << QUANTIZE_BITS | b;
+    }
+
+    private static int component(int bin, int channel) {
+        return (bin >> (QUANTIZE_BITS * (2 - channel))) & ((1 << QUANTIZE_BITS) - 1);
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.screenshot;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * PNG 编码, 支持调色板和 RGB 两种格式, 压缩级别可设置
+ * ImageIO 自带的 PNG writer 在 JDK8 下不能设置压缩级别
+ */
+final class PngEncoder {
+
+    private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+
+    private static final int COLOR_TYPE_RGB = 2;
+
+    private static final int COLOR_TYPE_INDEXED = 3;
+
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private PngEncoder() {
+    }
+
+    /**
+     * 8位调色板图片, 调色板图片不做行过滤
+     *
+     * @param out
+     * @param width
+     * @param height
+     * @param indexes 每个像素的调色板下标
+     * @param palette RGB 颜色
+     * @param level
+     * @throws IOException
+     */
+    static void writeIndexed(OutputStream out, int width, int height, byte[] indexes, int[] palette, int level) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(SIGNATURE);
+        writeHeader(data, width, height, COLOR_TYPE_INDEXED);
+
+        byte[] plte = new byte[palette.length * 3];
+        for (int i = 0; i < palette.length; i++) {
+            plte[i * 3] = (byte) (palette[i] >> 16);
+            plte[i * 3 + 1] = (byte) (palette[i] >> 8);
+            plte[i * 3 + 2] = (byte) palette[i];
+        }
+        writeChunk(data, "PLTE", plte, plte.length);
+
+        Deflater deflater = new Deflater(level);
+        try (DeflaterOutputStream idat = new DeflaterOutputStream(new IdatOutputStream(data), deflater, CHUNK_SIZE)) {
+            for (int y = 0; y < height; y++) {
+                idat.write(0);
+                idat.write(indexes, y * width, width);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        writeChunk(data, "IEND", new byte[0], 0);
+        data.flush();
+    }
+
+    /**
+     * 24位 RGB 图片, 每行选择差值绝对值之和最小的过滤方式
+     *
+     * @param out
+     * @param width
+     * @param height
+     * @param rgb
+     * @param level
+     * @throws IOException
+     */
+    static void writeRgb(OutputStream out, int width, int height, int[] rgb, int level) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(SIGNATURE);
+        writeHeader(data, width, height, COLOR_TYPE_RGB);
+
+        int stride = width * 3;
+        byte[] prior = new byte[stride];
+        byte[] current = new byte[stride];
+        byte[][] filtered = new byte[5][stride + 1];
+
+        Deflater deflater = new Deflater(level);
+        deflater.setStrategy(Deflater.FILTERED);
+        try (DeflaterOutputStream idat = new DeflaterOutputStream(new IdatOutputStream(data), deflater, CHUNK_SIZE)) {
+            for (int y = 0; y < height; y++) {
+                for (int x = 0, offset = y * width; x < width; x++) {
+                    int pixel = rgb[offset + x];
+                    current[x * 3] = (byte) (pixel >> 16);
+                    current[x * 3 + 1] = (byte) (pixel >> 8);
+                    current[x * 3 + 2] = (byte) pixel;
+                }
+
+                int best = 0;
+                long bestSum = Long.MAX_VALUE;
+                for (int type = 0; type < 5; type++) {
+                    long sum = filter(type, current, prior, filtered[type]);
+                    if (sum < bestSum) {
+                        bestSum = sum;
+                        best = type;
+                    }
+                }
+                idat.write(filtered[best]);
+
+                byte[] swap = prior;
+                prior = current;
+                current = swap;
+            }
+        } finally {
+            deflater.end();
+        }
+
+        writeChunk(data, "IEND", new byte[0], 0);
+        data.flush();
+    }
+
+    private static long filter(int type, byte[] current, byte[] prior, byte[] target) {
+        target[0] = (byte) type;
+        long sum = 0;
+        for (int i = 0; i < current.length; i++) {
+            int raw = current[i] & 0xff;
+            int left = i >= 3 ? current[i - 3] & 0xff : 0;
+            int up = prior[i] & 0xff;
+            int upLeft = i >= 3 ? prior[i - 3] & 0xff : 0;
+            int value;
+            switch (type) {
+                case 1:
+                    value = raw - left;
+                    break;
+                case 2:
+                    value = raw - up;
+                    break;
+                case 3:
+                    value = raw - ((left + up) >> 1);
+                    break;
+                case 4:
+                    value = raw - paeth(left, up, upLeft);
+                    break;
+                default:
+                    value = raw;
+            }
+            target[i + 1] = (byte) value;
+            sum += Math.abs((byte) value);
+        }
+        return sum;
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    private static void writeHeader(DataOutputStream data, int width, int height, int colorType) throws IOException {
+        byte[] ihdr = new byte[13];
+        writeInt(ihdr, 0, width);
+        writeInt(ihdr, 4, height);
+        ihdr[8] = 8;
+        ihdr[9] = (byte) colorType;
+        // compression, filter, interlace
+        ihdr[10] = 0;
+        ihdr[11] = 0;
+        ihdr[12] = 0;
+        writeChunk(data, "IHDR", ihdr, ihdr.length);
+    }
+
+    private static void writeInt(byte[] target, int offset, int value) {
+        target[offset] = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
+    }
+
+    private static void writeChunk(DataOutputStream data, String type, byte[] content, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(content, 0, length);
+        data.writeInt(length);
+        data.write(typeBytes);
+        data.write(content, 0, length);
+        data.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * 压缩后的数据按块写成 IDAT
+     */
+    private static class IdatOutputStream extends OutputStream {
+
+        private final DataOutputStream data;
+
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+
+        private int count = 0;
+
+        IdatOutputStream(DataOutputStream data) {
+            this.data = data;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            buffer[count++] = (byte) b;
+            if (count == buffer.length) {
+                flushChunk();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int size = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, size);
+                count += size;
+                off += size;
+                len -= size;
+                if (count == buffer.length) {
+                    flushChunk();
+                }
+            }
+        }
+
+        // 不关闭外层输出流
+        @Override
+        public void close() throws IOException {
+            flushChunk();
+        }
+
+        private void flushChunk() throws IOException {
+            if (count > 0) {
+                writeChunk(data, "IDAT", buffer, count);
+                count = 0;
+            }
+        }
+    }
+}
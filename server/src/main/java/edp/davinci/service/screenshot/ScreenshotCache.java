@@ -0,0 +1,186 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.screenshot;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import edp.core.consts.Consts;
+import edp.core.utils.DateUtils;
+import edp.core.utils.FileUtils;
+import edp.core.utils.MD5Util;
+import edp.davinci.core.enums.LogNameEnum;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 截图结果复用
+ * 以前端版本、dashboard/slide、布局、宽度和数据指纹计算 key, key 相同时复制上次的截图, 不再启动浏览器渲染
+ */
+@Component
+public class ScreenshotCache {
+
+    private static final Logger scheduleLogger = LoggerFactory.getLogger(LogNameEnum.BUSINESS_SCHEDULE.getName());
+
+    private static final String SHARE_HTML = "share.html";
+
+    @Value("${screenshot.cache_ttl_second:86400}")
+    private long ttlSecond;
+
+    @Value("${screenshot.cache_max_size:512}")
+    private long maxSize;
+
+    @Value("${file.web_resources}")
+    private String webResources;
+
+    @Autowired
+    private FileUtils fileUtils;
+
+    private Cache<String, File> images;
+
+    private File dir;
+
+    private final AtomicLong hits = new AtomicLong(0);
+
+    private final AtomicLong misses = new AtomicLong(0);
+
+    // 分享页文件的修改时间和内容摘要, 前端重新部署后旧截图不再命中
+    private volatile long uiModified = -1L;
+
+    private volatile String uiVersion = "";
+
+    @PostConstruct
+    public void init() {
+        if (!isEnable()) {
+            return;
+        }
+
+        dir = new File(fileUtils.fileBasePath + File.separator + "screenshot_cache");
+        // 缓存索引不持久化, 启动时清理上次留下的文件
+        FileUtils.deleteDir(dir);
+        dir.mkdirs();
+
+        images = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(maxSize, 1))
+                .expireAfterWrite(ttlSecond, TimeUnit.SECONDS)
+                .removalListener((RemovalListener<String, File>) notification -> notification.getValue().delete())
+                .build();
+    }
+
+    public boolean isEnable() {
+        return ttlSecond > 0;
+    }
+
+    /**
+     * @param parts dashboard/slide 标识、布局、宽度、数据指纹
+     * @return
+     */
+    public String key(Object... parts) {
+        StringBuilder builder = new StringBuilder(getUiVersion()).append("|");
+        for (Object part : parts) {
+            builder.append(part).append("|");
+        }
+        return MD5Util.getMD5(builder.toString(), true, 32);
+    }
+
+    /**
+     * 复制缓存的截图到当天的临时目录
+     *
+     * @param key
+     * @return 未命中时返回 null
+     */
+    public File get(String key) {
+        if (!isEnable() || key == null) {
+            return null;
+        }
+
+        File cached = images.getIfPresent(key);
+        if (cached == null || !cached.exists()) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        File tempDir = new File(fileUtils.fileBasePath + Consts.DIR_TEMP + DateUtils.getNowDateYYYYMMDD());
+        if (!tempDir.exists()) {
+            tempDir.mkdirs();
+        }
+        // 使用方可能就地压缩或删除截图, 每次复制一份
+        File image = new File(tempDir, UUID.randomUUID().toString().replace("-", "") + getSuffix(cached));
+        try {
+            Files.copy(cached.toPath(), image.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            scheduleLogger.warn("Copy cached screenshot {} error: {}", cached.getName(), e.getMessage());
+            return null;
+        }
+        hits.incrementAndGet();
+        return image;
+    }
+
+    public void put(String key, File image) {
+        if (!isEnable() || key == null || image == null || !image.exists()) {
+            return;
+        }
+
+        File cached = new File(dir, key + "_" + UUID.randomUUID().toString().replace("-", "") + getSuffix(image));
+        try {
+            Files.copy(image.toPath(), cached.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            images.put(key, cached);
+        } catch (IOException e) {
+            scheduleLogger.warn("Cache screenshot {} error: {}", image.getName(), e.getMessage());
+        }
+    }
+
+    private String getUiVersion() {
+        File html = new File(webResources, SHARE_HTML);
+        long modified = html.lastModified();
+        if (modified != uiModified) {
+            try {
+                uiVersion = modified == 0L ? "" : MD5Util.getMD5(new String(Files.readAllBytes(html.toPath()), StandardCharsets.UTF_8), true, 32);
+                uiModified = modified;
+            } catch (IOException e) {
+                scheduleLogger.warn("Read {} error: {}", html.getPath(), e.getMessage());
+            }
+        }
+        return uiVersion;
+    }
+
+    public String getStats() {
+        return "hits:" + hits.get() + ", misses:" + misses.get() + ", size:" + (images == null ? 0 : images.size());
+    }
+
+    private static String getSuffix(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(dot) : "";
+    }
+}
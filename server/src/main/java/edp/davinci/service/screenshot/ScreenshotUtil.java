@@ -20,6 +20,7 @@
 package edp.davinci.service.screenshot;
 
 import com.alibaba.druid.util.StringUtils;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import edp.core.consts.Consts;
 import edp.core.utils.DateUtils;
 import edp.core.utils.FileUtils;
@@ -46,12 +47,15 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.File;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -78,16 +82,72 @@ public class ScreenshotUtil {
     @Value("${screenshot.timeout_second:600}")
     private int timeOutSecond;
 
+    // 0 表示按空闲内存计算
+    @Value("${screenshot.pool_size:0}")
+    private int poolSize;
+
+    @Value("${screenshot.pool_browser_memory_mb:512}")
+    private int poolBrowserMemoryMb;
+
+    @Value("${screenshot.pool_max_renders:50}")
+    private int poolMaxRenders;
+
+    @Value("${screenshot.pool_max_idle_second:600}")
+    private int poolMaxIdleSecond;
+
     private static final int DEFAULT_SCREENSHOT_WIDTH = 1920;
     private static final int DEFAULT_SCREENSHOT_HEIGHT = 1080;
 
-    private static final ExecutorService executorService = Executors.newFixedThreadPool(8);
+    private static final long RENDER_POLL_MILLIS = 100L;
+
+    // 页面未提供渲染计数时的等待时间
+    private static final long RENDER_FALLBACK_MILLIS = 2000L;
+
+    // 调整窗口后等待渲染完成的最长时间, 页面中未回报完成的图表最多挂起数秒
+    private static final long RENDER_IDLE_MAX_MILLIS = 30_000L;
+
+    // 等待两帧后返回页面未完成的渲染数, 保证窗口大小变化已被页面处理
+    private static final String RENDER_PENDING_SCRIPT = "var callback = arguments[arguments.length - 1];"
+            + "window.requestAnimationFrame(function () { window.requestAnimationFrame(function () {"
+            + "callback(window.__davinciRender ? window.__davinciRender.pending : -1); }); });";
+
+    private ExecutorService executorService;
+
+    private ScheduledExecutorService evictor;
+
+    private WebDriverPool driverPool;
 
     @Autowired
     private FileUtils fileUtils;
 
+    @Autowired
+    private ImageOptimizer imageOptimizer;
+
+    @PostConstruct
+    public void init() {
+        int size = poolSize > 0 ? poolSize : WebDriverPool.sizeOfMemory(poolBrowserMemoryMb);
+        driverPool = new WebDriverPool(this::generateWebDriver, size, poolMaxRenders, poolMaxIdleSecond);
+        executorService = Executors.newFixedThreadPool(size,
+                new ThreadFactoryBuilder().setNameFormat("Screenshot-worker-%d").setDaemon(true).build());
+        evictor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("Screenshot-evictor-%d").setDaemon(true).build());
+        evictor.scheduleWithFixedDelay(driverPool::evictIdle, 60, 60, TimeUnit.SECONDS);
+        log.info("Screenshot web driver pool size:{}", size);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        evictor.shutdownNow();
+        executorService.shutdownNow();
+        driverPool.shutdown();
+    }
+
+    public Map<String, Object> getPoolMetrics() {
+        return driverPool.getMetrics();
+    }
+
     public void screenshot(long jobId, List<ImageContent> imageContents, Integer imageWidth) {
-    	scheduleLogger.info("Start screenshot for job({})", jobId);
+    	scheduleLogger.info("Start screenshot for job({}), pool:{}", jobId, driverPool.getMetrics());
         try {
         	int contentsSize = imageContents.size();
             List<Future> futures = new ArrayList<>(contentsSize);
@@ -96,7 +156,7 @@ public class ScreenshotUtil {
             	scheduleLogger.info("Cronjob({}) thread({}) for screenshot start, type:{}, id:{}, total:{}", jobId, index.get(), content.getDesc(), content.getCId(), contentsSize);
                 try {
                     File image = doScreenshot(jobId, content.getUrl(), imageWidth);
-                    content.setContent(image);
+                    content.setContent(imageOptimizer.optimize(image, imageWidth));
                 } catch (Exception e) {
                 	scheduleLogger.error("Cronjob({}) thread({}) screenshot error", jobId, index.get());
                 	scheduleLogger.error(e.getMessage(), e);
@@ -119,17 +179,22 @@ public class ScreenshotUtil {
         } catch (InterruptedException e) {
         	scheduleLogger.error(e.getMessage(), e);
         } finally {
-        	scheduleLogger.info("Cronjob({}) finish screenshot", jobId);
+        	scheduleLogger.info("Cronjob({}) finish screenshot, pool:{}", jobId, driverPool.getMetrics());
         }
     }
 
     private File doScreenshot(long jobId, String url, Integer imageWidth) throws Exception {
-        WebDriver driver = generateWebDriver(jobId, imageWidth);
+        WebDriverPool.Session session = driverPool.borrow(timeOutSecond, TimeUnit.SECONDS);
+        WebDriver driver = session.getDriver();
+        boolean broken = true;
 
-        driver.get(url);
         scheduleLogger.info("Cronjob({}) do screenshot url={}, timeout={} start", jobId, url, timeOutSecond);
+        long deadline = System.currentTimeMillis() + timeOutSecond * 1000L;
         try {
-            WebDriverWait wait = new WebDriverWait(driver, timeOutSecond);
+            driver.manage().window().setSize(new Dimension(imageWidth != null && imageWidth > 0 ? imageWidth : DEFAULT_SCREENSHOT_WIDTH, DEFAULT_SCREENSHOT_HEIGHT));
+            driver.get(url);
+
+            WebDriverWait wait = new WebDriverWait(driver, timeOutSecond, RENDER_POLL_MILLIS);
             ExpectedCondition<WebElement> ConditionOfSign = ExpectedConditions.presenceOfElementLocated(By.id("headlessBrowserRenderSign"));
             ExpectedCondition<WebElement> ConditionOfWidth = ExpectedConditions.presenceOfElementLocated(By.id("width"));
             ExpectedCondition<WebElement> ConditionOfHeight = ExpectedConditions.presenceOfElementLocated(By.id("height"));
@@ -151,13 +216,14 @@ public class ScreenshotUtil {
             }
 
             driver.manage().window().setSize(new Dimension(width, height));
-            Thread.sleep(2000);
+            waitForRenderIdle(driver, deadline);
             File tempImage = ((TakesScreenshot) driver).getScreenshotAs(OutputType.FILE);
             File tempDir = new File(fileUtils.fileBasePath + Consts.DIR_TEMP + DateUtils.getNowDateYYYYMMDD());
             if (!tempDir.exists()) {
                 tempDir.mkdirs();
             }
             File image = new File(tempDir.getPath() + File.separator + tempImage.getName());
+            broken = false;
             if (FileUtils.copy(tempImage, image) > -1) {
                 tempImage.delete();
                 return image;
@@ -179,32 +245,64 @@ public class ScreenshotUtil {
         	scheduleLogger.error(e.getMessage(), e);
         } finally {
         	scheduleLogger.info("Cronjob({}) do screenshot url={} finish", jobId, url);
-            driver.quit();
+            driverPool.release(session, broken);
         }
 
         return null;
     }
 
-    private WebDriver generateWebDriver(Long jobId, Integer imageWidth) throws ExecutionException {
+    /**
+     * 轮询页面的渲染计数, 没有未完成的渲染时返回
+     *
+     * @param driver
+     * @param deadline
+     * @throws InterruptedException
+     */
+    private void waitForRenderIdle(WebDriver driver, long deadline) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        deadline = Math.min(deadline, start + RENDER_IDLE_MAX_MILLIS);
+        while (System.currentTimeMillis() < deadline) {
+            Object pending;
+            try {
+                pending = ((JavascriptExecutor) driver).executeAsyncScript(RENDER_PENDING_SCRIPT);
+            } catch (WebDriverException e) {
+                scheduleLogger.warn("Get render state error: {}", e.getMessage());
+                pending = -1;
+            }
+
+            long count = pending instanceof Number ? ((Number) pending).longValue() : -1;
+            if (count < 0) {
+                Thread.sleep(Math.min(RENDER_FALLBACK_MILLIS, Math.max(deadline - System.currentTimeMillis(), 0)));
+                return;
+            }
+            if (count == 0) {
+                scheduleLogger.info("Render idle after {}ms", System.currentTimeMillis() - start);
+                return;
+            }
+            Thread.sleep(RENDER_POLL_MILLIS);
+        }
+        scheduleLogger.warn("Wait for render idle timeout");
+    }
+
+    private WebDriver generateWebDriver() throws ExecutionException {
         WebDriver driver;
         BrowserEnum browserEnum = valueOf(DEFAULT_BROWSER);
         switch (browserEnum) {
             case CHROME:
                 driver = generateChromeDriver();
-                scheduleLogger.info("Cronjob({}) generating chrome driver({})...", jobId, driver.getClass().toString());
+                scheduleLogger.info("Generating chrome driver({})...", driver.getClass().toString());
                 break;
             case PHANTOMJS:
                 driver = generatePhantomJsDriver();
-                scheduleLogger.info("Cronjob({}) generating PhantomJs driver({})...", jobId, PHANTOMJS_PATH);
+                scheduleLogger.info("Generating PhantomJs driver({})...", PHANTOMJS_PATH);
                 break;
             default:
                 throw new IllegalArgumentException("Unknown Web browser:" + DEFAULT_BROWSER);
         }
 
-        driver.manage().timeouts().implicitlyWait(3, TimeUnit.MINUTES);
+        driver.manage().timeouts().setScriptTimeout(30, TimeUnit.SECONDS);
         driver.manage().window().maximize();
-        driver.manage().window().setSize(new Dimension(imageWidth != null && imageWidth > 0 ? imageWidth : DEFAULT_SCREENSHOT_WIDTH, DEFAULT_SCREENSHOT_HEIGHT));
-        
+
         return driver;
     }
 
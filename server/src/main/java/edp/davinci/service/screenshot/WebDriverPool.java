@@ -0,0 +1,234 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.screenshot;
+
+import lombok.extern.slf4j.Slf4j;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 浏览器会话池
+ * 空闲会话复用, 借出前检查存活, 渲染次数或空闲时间超出限制后关闭重建
+ */
+@Slf4j
+public class WebDriverPool {
+
+    private static final int MAX_AUTO_SIZE = 8;
+
+    private final Callable<WebDriver> factory;
+
+    private final int size;
+
+    private final int maxRenders;
+
+    private final long maxIdleMillis;
+
+    private final Semaphore permits;
+
+    private final LinkedBlockingDeque<Session> idle = new LinkedBlockingDeque<>();
+
+    private final AtomicLong created = new AtomicLong(0);
+
+    private final AtomicLong destroyed = new AtomicLong(0);
+
+    private final AtomicLong borrowed = new AtomicLong(0);
+
+    private final AtomicLong reused = new AtomicLong(0);
+
+    private final AtomicLong waitMillis = new AtomicLong(0);
+
+    public WebDriverPool(Callable<WebDriver> factory, int size, int maxRenders, long maxIdleSeconds) {
+        this.factory = factory;
+        this.size = size;
+        this.maxRenders = maxRenders;
+        this.maxIdleMillis = TimeUnit.SECONDS.toMillis(maxIdleSeconds);
+        this.permits = new Semaphore(size, true);
+    }
+
+    /**
+     * 根据空闲物理内存估算可同时运行的浏览器数
+     *
+     * @param browserMemoryMb 单个浏览器占用内存
+     * @return
+     */
+    public static int sizeOfMemory(int browserMemoryMb) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        long freeMb = -1;
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            freeMb = ((com.sun.management.OperatingSystemMXBean) os).getFreePhysicalMemorySize() / 1024 / 1024;
+        }
+        int size = freeMb > 0 && browserMemoryMb > 0 ? (int) (freeMb / browserMemoryMb) : cores;
+        return Math.max(1, Math.min(Math.min(size, cores * 2), MAX_AUTO_SIZE));
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public Session borrow(long timeout, TimeUnit unit) throws Exception {
+        long start = System.currentTimeMillis();
+        if (!permits.tryAcquire(timeout, unit)) {
+            throw new TimeoutException("Wait for web driver timeout, " + getMetrics());
+        }
+        waitMillis.addAndGet(System.currentTimeMillis() - start);
+        borrowed.incrementAndGet();
+
+        try {
+            Session session;
+            while ((session = idle.pollFirst()) != null) {
+                if (session.isExpired() || !session.isAlive()) {
+                    destroy(session);
+                    continue;
+                }
+                reused.incrementAndGet();
+                return session;
+            }
+            session = new Session(factory.call());
+            created.incrementAndGet();
+            return session;
+        } catch (Exception e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 归还会话, 出错的会话直接关闭
+     *
+     * @param session
+     * @param broken
+     */
+    public void release(Session session, boolean broken) {
+        try {
+            if (session == null) {
+                return;
+            }
+            session.renders++;
+            session.lastUsed = System.currentTimeMillis();
+            if (broken || session.renders >= maxRenders || !session.reset()) {
+                destroy(session);
+            } else {
+                idle.offerFirst(session);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * 关闭空闲超时的会话
+     */
+    public void evictIdle() {
+        for (Session session : idle) {
+            if (session.isExpired() && idle.remove(session)) {
+                destroy(session);
+            }
+        }
+    }
+
+    public void shutdown() {
+        Session session;
+        while ((session = idle.pollFirst()) != null) {
+            destroy(session);
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        long borrowedCount = borrowed.get();
+        metrics.put("size", size);
+        metrics.put("active", size - permits.availablePermits());
+        metrics.put("idle", idle.size());
+        metrics.put("waiting", permits.getQueueLength());
+        metrics.put("created", created.get());
+        metrics.put("destroyed", destroyed.get());
+        metrics.put("borrowed", borrowedCount);
+        metrics.put("reused", reused.get());
+        metrics.put("avgWaitMillis", borrowedCount == 0 ? 0 : waitMillis.get() / borrowedCount);
+        return metrics;
+    }
+
+    private void destroy(Session session) {
+        destroyed.incrementAndGet();
+        try {
+            session.driver.quit();
+        } catch (Exception e) {
+            log.warn("Quit web driver error: {}", e.getMessage());
+        }
+    }
+
+    public class Session {
+
+        private final WebDriver driver;
+
+        private int renders = 0;
+
+        private long lastUsed = System.currentTimeMillis();
+
+        private Session(WebDriver driver) {
+            this.driver = driver;
+        }
+
+        public WebDriver getDriver() {
+            return driver;
+        }
+
+        private boolean isExpired() {
+            return maxIdleMillis > 0 && System.currentTimeMillis() - lastUsed > maxIdleMillis;
+        }
+
+        private boolean isAlive() {
+            try {
+                driver.getWindowHandle();
+                return true;
+            } catch (WebDriverException e) {
+                return false;
+            }
+        }
+
+        // 清理页面状态供下次使用, cookie 和 storage 只能在应用页面上清理, 离开前先清空
+        private boolean reset() {
+            try {
+                String url = driver.getCurrentUrl();
+                if (url != null && url.startsWith("http")) {
+                    driver.manage().deleteAllCookies();
+                    ((JavascriptExecutor) driver).executeScript("window.localStorage.clear(); window.sessionStorage.clear();");
+                }
+                driver.get("about:blank");
+                return true;
+            } catch (WebDriverException e) {
+                return false;
+            }
+        }
+    }
+}
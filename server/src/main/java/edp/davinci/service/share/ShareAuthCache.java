@@ -0,0 +1,236 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.davinci.service.share;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import edp.core.utils.MD5Util;
+import edp.core.utils.RedisUtils;
+import edp.davinci.core.model.RedisMessageEntity;
+import edp.davinci.core.service.PermissionCache;
+import edp.davinci.dto.projectDto.ProjectDetail;
+import edp.davinci.model.User;
+import edp.davinci.service.impl.ShareAuthMessageHandler;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static edp.davinci.core.common.Constants.DAVINCI_TOPIC_CHANNEL;
+
+/**
+ * 分享token校验结果缓存
+ * 缓存解码后的分享因子、解析出的实体与项目以及校验通过的结论, 按token、接口类型、操作、访问用户和密码区分
+ * 过期时间不超过token本身的过期时间, 校验失败不缓存; 权限或分享对象变更后整体失效, 集群下通过redis通知其他节点
+ */
+@Slf4j
+@Component
+public class ShareAuthCache {
+
+    @Value("${share.auth-cache.ttl-seconds:60}")
+    private long ttlSeconds;
+
+    @Value("${share.auth-cache.max-size:10000}")
+    private long maxSize;
+
+    @Autowired
+    private RedisUtils redisUtils;
+
+    @Autowired
+    private PermissionCache permissionCache;
+
+    private final String nodeId = UUID.randomUUID().toString().replace("-", "");
+
+    // 失效计数, 校验期间发生失效的结果不写入缓存
+    private final AtomicLong generation = new AtomicLong(0);
+
+    private Cache<String, Entry> factors;
+
+    @PostConstruct
+    public void init() {
+        factors = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(maxSize, 1))
+                .expireAfterWrite(Math.max(ttlSeconds, 1), TimeUnit.SECONDS)
+                .build();
+        // 角色、成员和view权限变更
+        permissionCache.addListener(this::invalidateLocal);
+    }
+
+    public boolean isEnable() {
+        return ttlSeconds > 0;
+    }
+
+    public String key(String token, ShareType shareType, ShareOperation shareOperation, User user, Object[] args) {
+        StringBuilder builder = new StringBuilder(token)
+                .append("@").append(shareType)
+                .append("-").append(shareOperation)
+                .append("-").append(user == null ? 0L : user.getId());
+        // 密码模式下第二个参数为分享密码
+        if (args.length > 1 && args[1] instanceof String) {
+            builder.append("-").append(args[1]);
+        }
+        return MD5Util.getMD5(builder.toString(), true, 32);
+    }
+
+    /**
+     * 获取校验通过的分享因子, 返回副本
+     *
+     * @param key
+     * @return
+     */
+    public ShareFactor get(String key) {
+        if (!isEnable()) {
+            return null;
+        }
+        Entry entry = factors.getIfPresent(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expireTime <= System.currentTimeMillis()) {
+            factors.invalidate(key);
+            return null;
+        }
+        return copy(entry.shareFactor);
+    }
+
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * 缓存校验通过的分享因子, 校验开始后发生过失效时不缓存
+     *
+     * @param key
+     * @param shareFactor
+     * @param generation  校验开始时的失效计数
+     */
+    public void put(String key, ShareFactor shareFactor, long generation) {
+        if (!isEnable() || generation != this.generation.get()) {
+            return;
+        }
+        long expireTime = System.currentTimeMillis() + ttlSeconds * 1000L;
+        if (shareFactor.getMode() != ShareMode.COMPATIBLE && shareFactor.getExpired() != null) {
+            expireTime = Math.min(expireTime, shareFactor.getExpired().getTime());
+        }
+        factors.put(key, new Entry(copy(shareFactor), expireTime));
+    }
+
+    /**
+     * 分享对象变更后失效, 在事务结束后执行
+     */
+    public void invalidate() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    publish();
+                }
+            });
+        } else {
+            publish();
+        }
+    }
+
+    private void publish() {
+        invalidateLocal();
+        if (!redisUtils.isRedisEnable()) {
+            return;
+        }
+        try {
+            redisUtils.convertAndSend(DAVINCI_TOPIC_CHANNEL, new RedisMessageEntity(ShareAuthMessageHandler.class, nodeId, nodeId));
+        } catch (Exception e) {
+            log.warn("Publish share auth invalidation error: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 失效本节点缓存, 来自本节点的通知忽略
+     *
+     * @param flag
+     */
+    public void invalidateLocal(String flag) {
+        if (nodeId.equals(flag)) {
+            return;
+        }
+        invalidateLocal();
+    }
+
+    private void invalidateLocal() {
+        generation.incrementAndGet();
+        factors.invalidateAll();
+    }
+
+    /**
+     * 复制分享因子及其引用的用户、实体和项目, 请求之间不共享可变对象
+     *
+     * @param shareFactor
+     * @return
+     */
+    private static ShareFactor copy(ShareFactor shareFactor) {
+        ShareFactor copy = new ShareFactor();
+        BeanUtils.copyProperties(shareFactor, copy);
+        copy.setViewers(shareFactor.getViewers() == null ? null : new HashSet<>(shareFactor.getViewers()));
+        copy.setRoles(shareFactor.getRoles() == null ? null : new HashSet<>(shareFactor.getRoles()));
+        copy.setExpired(shareFactor.getExpired() == null ? null : new Date(shareFactor.getExpired().getTime()));
+        copy.setUser(copyBean(shareFactor.getUser()));
+        copy.setShareEntity(copyBean(shareFactor.getShareEntity()));
+        ProjectDetail projectDetail = copyBean(shareFactor.getProjectDetail());
+        if (projectDetail != null) {
+            projectDetail.setOrganization(copyBean(projectDetail.getOrganization()));
+            projectDetail.setCreateBy(copyBean(projectDetail.getCreateBy()));
+        }
+        copy.setProjectDetail(projectDetail);
+        return copy;
+    }
+
+    // 实体、项目和用户均为简单属性的 bean, 复制一层即可
+    @SuppressWarnings("unchecked")
+    private static <T> T copyBean(T bean) {
+        if (bean == null) {
+            return null;
+        }
+        T copy = (T) BeanUtils.instantiateClass(bean.getClass());
+        BeanUtils.copyProperties(bean, copy);
+        return copy;
+    }
+
+    private static class Entry {
+
+        private final ShareFactor shareFactor;
+
+        private final long expireTime;
+
+        Entry(ShareFactor shareFactor, long expireTime) {
+            this.shareFactor = shareFactor;
+            this.expireTime = expireTime;
+        }
+    }
+}
@@ -144,6 +144,13 @@ public class ShareFactor {
 
     private Date expired;
 
+    /**
+     * query result scope id
+     * <p>
+     * for schedule job
+     */
+    private String scope;
+
     /**
      * permission == ShareDataPermission.SHARER ? sharer : viewer
      */
@@ -287,6 +294,11 @@ public class ShareFactor {
             return this;
         }
 
+        public Builder withScope(String scope) {
+            shareFactor.scope = scope;
+            return this;
+        }
+
         public static Builder shareFactor() {
             return new Builder();
         }
@@ -0,0 +1,168 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+
+package edp.davinci.service.share;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.support.config.FastJsonConfig;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import edp.core.utils.MD5Util;
+import edp.davinci.core.config.WebMvcConfig;
+import edp.davinci.model.User;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import javax.annotation.PostConstruct;
+import java.sql.SQLException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分享数据整体响应缓存
+ * 数据权限为分享者的分享页对所有匿名访问者返回相同的数据, 按token、密码和查询参数缓存序列化后的响应和ETag
+ * 同一key并发请求时只执行一次查询; 按响应体字节数限制总大小, 超过单条上限的响应不缓存
+ */
+@Component
+public class ShareResponseCache {
+
+    @Value("${share.response-cache.ttl-seconds:60}")
+    private long ttlSeconds;
+
+    @Value("${share.response-cache.max-mb:64}")
+    private long maxMb;
+
+    @Value("${share.response-cache.max-entry-kb:1024}")
+    private long maxEntryKb;
+
+    @Value("${share.response-cache.max-age-seconds:0}")
+    private long maxAgeSeconds;
+
+    private final FastJsonConfig fastJsonConfig = WebMvcConfig.fastJsonConfig();
+
+    private Cache<String, CachedResponse> responses;
+
+    @PostConstruct
+    public void init() {
+        responses = CacheBuilder.newBuilder()
+                .maximumWeight(Math.max(maxMb, 1) * 1024 * 1024)
+                .weigher((Weigher<String, CachedResponse>) (key, value) -> value.getBody().length)
+                .expireAfterWrite(Math.max(ttlSeconds, 1), TimeUnit.SECONDS)
+                .build();
+    }
+
+    public long getMaxAgeSeconds() {
+        return Math.max(maxAgeSeconds, 0);
+    }
+
+    /**
+     * 普通模式的分享任何人持有链接即可访问, 响应可由共享缓存保存; 密码和授权模式只允许浏览器私有缓存
+     *
+     * @param shareFactor
+     * @return
+     */
+    public boolean isPublic(ShareFactor shareFactor) {
+        return shareFactor.getMode() == ShareMode.NORMAL || shareFactor.getMode() == ShareMode.COMPATIBLE;
+    }
+
+    /**
+     * 仅缓存匿名访问者看到的分享者数据, 定时任务截图的查询范围内不缓存
+     *
+     * @param shareFactor
+     * @param user
+     * @return
+     */
+    public boolean isCacheable(ShareFactor shareFactor, User user) {
+        return ttlSeconds > 0
+                && shareFactor != null
+                && shareFactor.getPermission() == ShareDataPermission.SHARER
+                && shareFactor.getScope() == null
+                && (user == null || user.getId() == null);
+    }
+
+    public String key(String token, String password, Object param) {
+        StringBuilder builder = new StringBuilder(token)
+                .append("-").append(password == null ? "" : password)
+                .append("-").append(param == null ? "" : JSON.toJSONString(param));
+        return MD5Util.getMD5(builder.toString(), true, 32);
+    }
+
+    /**
+     * 获取缓存的响应, 不存在时执行loader并序列化
+     *
+     * @param key
+     * @param loader 返回响应体
+     * @return
+     * @throws SQLException
+     */
+    public CachedResponse get(String key, Callable<Object> loader) throws SQLException {
+        try {
+            CachedResponse cached = responses.get(key, () -> serialize(loader.call()));
+            // 仍返回给本次及并发等待的请求, 只是不保留
+            if (cached.getBody().length > maxEntryKb * 1024) {
+                responses.invalidate(key);
+            }
+            return cached;
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private CachedResponse serialize(Object body) {
+        byte[] bytes = JSON.toJSONBytes(fastJsonConfig.getCharset(), body,
+                fastJsonConfig.getSerializeConfig(),
+                fastJsonConfig.getSerializeFilters(),
+                fastJsonConfig.getDateFormat(),
+                JSON.DEFAULT_GENERATE_FEATURE,
+                fastJsonConfig.getSerializerFeatures());
+        return new CachedResponse(bytes, "\"" + DigestUtils.md5DigestAsHex(bytes) + "\"");
+    }
+
+    public static class CachedResponse {
+
+        private final byte[] body;
+
+        private final String etag;
+
+        CachedResponse(byte[] body, String etag) {
+            this.body = body;
+            this.etag = etag;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+    }
+}
@@ -82,6 +82,9 @@ public class ShareAuthAspect {
     @Autowired
     private ProjectService projectService;
 
+    @Autowired
+    private ShareAuthCache shareAuthCache;
+
     @Pointcut("@annotation(edp.core.annotation.AuthShare)")
     public void shareAuth() {
     }
@@ -114,28 +117,15 @@ public class ShareAuthAspect {
             }
         }
 
-        ShareFactor shareFactor = ShareFactor.parseShareFactor(token, TOKEN_SECRET);
-        if (shareFactor.getType() == null) {
-            shareFactor.setType(shareType);
+        String cacheKey = shareAuthCache.key(token, shareType, shareOperation, user, args);
+        ShareFactor shareFactor = shareAuthCache.get(cacheKey);
+        if (shareFactor == null) {
+            long generation = shareAuthCache.getGeneration();
+            shareFactor = verify(token, shareType, shareOperation, user, args);
+            shareAuthCache.put(cacheKey, shareFactor, generation);
         }
 
-        verifyShareType(shareType, shareFactor);
-
-        verifyExpire(shareFactor);
-
         try {
-
-            // 兼容老版本，token信息转换为新版本信息
-            adaptShareInfo(token, shareFactor, user);
-            convertShareType(shareType, shareOperation, shareFactor, args);
-
-            if (shareType != ShareType.LOGIN) {
-                // 校验token权限
-                verifyToken(shareOperation, shareFactor, user, args);
-                // 校验数据权限
-                verifyPermission(shareOperation, shareType, shareFactor, user);
-            }
-
             // thread local share factor
             SHARE_FACTOR_THREAD_LOCAL.set(shareFactor);
             // 处理业务并返回
@@ -147,6 +137,39 @@ public class ShareAuthAspect {
         }
     }
 
+    /**
+     * 解析并校验token
+     *
+     * @param token
+     * @param shareType
+     * @param shareOperation
+     * @param user
+     * @param args
+     * @return
+     */
+    private ShareFactor verify(String token, ShareType shareType, ShareOperation shareOperation, User user, Object[] args) {
+        ShareFactor shareFactor = ShareFactor.parseShareFactor(token, TOKEN_SECRET);
+        if (shareFactor.getType() == null) {
+            shareFactor.setType(shareType);
+        }
+
+        verifyShareType(shareType, shareFactor);
+
+        verifyExpire(shareFactor);
+
+        // 兼容老版本，token信息转换为新版本信息
+        adaptShareInfo(token, shareFactor, user);
+        convertShareType(shareType, shareOperation, shareFactor, args);
+
+        if (shareType != ShareType.LOGIN) {
+            // 校验token权限
+            verifyToken(shareOperation, shareFactor, user, args);
+            // 校验数据权限
+            verifyPermission(shareOperation, shareType, shareFactor, user);
+        }
+        return shareFactor;
+    }
+
     private void convertShareType(ShareType shareType, ShareOperation shareOperation, ShareFactor shareFactor, Object[] args) {
 
         if (ShareOperation.DOWNLOAD == shareOperation) {
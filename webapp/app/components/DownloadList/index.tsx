@@ -43,7 +43,7 @@ export function DownloadList (props: IDownloadListProps) {
   if (downloadList && downloadList.length) {
     downloadable = downloadList.filter((d) => d.status === DownloadStatus.Success).length
     const downloadListItems = downloadList.map((record) => {
-      const { id, name, status, uuid } = record
+      const { id, name, status, uuid, exportedRows } = record
       const titleClass = classnames({
         [styles.success]: status === DownloadStatus.Success,
         [styles.downloaded]: status === DownloadStatus.Downloaded
@@ -58,6 +58,7 @@ export function DownloadList (props: IDownloadListProps) {
           </p>
           <Tag color={DOWNLOAD_STATUS_COLORS[status]}>
             {DOWNLOAD_STATUS_LOCALE[status]}
+            {status === DownloadStatus.Processing && exportedRows ? ` ${exportedRows}` : ''}
           </Tag>
         </li>
       )
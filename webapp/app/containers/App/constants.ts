@@ -101,19 +101,25 @@ export enum DownloadStatus {
   Processing = 1,
   Success = 2,
   Failed = 3,
-  Downloaded = 4
+  Downloaded = 4,
+  Queued = 5,
+  Rejected = 6
 }
 
 export const DOWNLOAD_STATUS_COLORS = {
   [DownloadStatus.Processing]: 'blue',
   [DownloadStatus.Success]: 'green',
   [DownloadStatus.Failed]: 'red',
-  [DownloadStatus.Downloaded]: 'grey'
+  [DownloadStatus.Downloaded]: 'grey',
+  [DownloadStatus.Queued]: 'cyan',
+  [DownloadStatus.Rejected]: 'orange'
 }
 
 export const DOWNLOAD_STATUS_LOCALE = {
   [DownloadStatus.Processing]: '处理中',
   [DownloadStatus.Success]: '成功',
   [DownloadStatus.Failed]: '失败',
-  [DownloadStatus.Downloaded]: '已下载'
+  [DownloadStatus.Downloaded]: '已下载',
+  [DownloadStatus.Queued]: '排队中',
+  [DownloadStatus.Rejected]: '队列已满'
 }
@@ -4,6 +4,7 @@ export interface IDownloadRecord {
   status: number
   createTime: string
   lastDownloadTime: string
+  exportedRows?: number
   userId?: number
   uuid?: string
 }
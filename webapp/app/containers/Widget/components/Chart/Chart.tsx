@@ -4,6 +4,11 @@ import chartlibs from '../../config/chart'
 import echarts from 'echarts/lib/echarts'
 import { ECharts } from 'echarts'
 import chartOptionGenerator from '../../render/chart'
+import {
+  beginRender,
+  endRender,
+  RENDER_FINISH_TIMEOUT
+} from 'utils/renderTracker'
 const styles = require('./Chart.less')
 
 interface IChartStates {
@@ -13,6 +18,8 @@ export class Chart extends React.PureComponent<IChartProps, IChartStates> {
   private asyncEmitTimer: NodeJS.Timer | null = null
   private container: HTMLDivElement = null
   private instance: ECharts
+  private rendering: boolean = false
+  private renderTimer: number = null
   constructor(props) {
     super(props)
     this.state = {
@@ -51,7 +58,10 @@ export class Chart extends React.PureComponent<IChartProps, IChartStates> {
       }
     }
 
+    this.startRendering()
     try {
+      this.instance.off('finished')
+      this.instance.on('finished', this.finishRendering)
       this.instance.off('click')
       this.instance.on('click', (params) => {
         this.collectSelectedItems(params)
@@ -77,15 +87,40 @@ export class Chart extends React.PureComponent<IChartProps, IChartStates> {
       )
       this.instance.resize()
     } catch (error) {
+      this.finishRendering()
       if (onError) {
         onError(error)
       }
     }
   }
 
+  private startRendering = () => {
+    if (!this.rendering) {
+      this.rendering = true
+      beginRender()
+      this.renderTimer = window.setTimeout(
+        this.finishRendering,
+        RENDER_FINISH_TIMEOUT
+      )
+    }
+  }
+
+  private finishRendering = () => {
+    if (this.renderTimer !== null) {
+      clearTimeout(this.renderTimer)
+      this.renderTimer = null
+    }
+    if (this.rendering) {
+      this.rendering = false
+      endRender()
+    }
+  }
+
   public componentWillUnmount() {
+    this.finishRendering()
     if (this.instance) {
       this.instance.off('click')
+      this.instance.off('finished')
     }
     if (this.asyncEmitTimer) {
       clearTimeout(this.asyncEmitTimer)
@@ -0,0 +1,79 @@
+/*
+ * <<
+ * Davinci
+ * ==
+ * Copyright (C) 2016 - 2017 EDP
+ * ==
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * >>
+ */
+
+/**
+ * Render progress exposed to the headless browser which takes screenshots,
+ * each async renderer (e.g. echarts animation, debounced resize) holds a pending
+ * count until it finishes, so the screenshot is taken as soon as pending drops to 0
+ */
+interface IRenderTracker {
+  pending: number
+  rendered: number
+}
+
+// a renderer which never reports back (e.g. echarts skipping 'finished' on empty or failed options) is released after this
+export const RENDER_FINISH_TIMEOUT = 5000
+
+// when no renderer has been tracked yet, untracked widgets (tables, texts) get this long to paint
+const UNTRACKED_IDLE_DELAY = 1000
+
+const tracker: IRenderTracker = (window['__davinciRender'] =
+  window['__davinciRender'] || { pending: 0, rendered: 0 })
+
+export function beginRender() {
+  tracker.pending += 1
+}
+
+export function endRender() {
+  tracker.pending = Math.max(tracker.pending - 1, 0)
+  tracker.rendered += 1
+}
+
+export function isRenderIdle() {
+  return tracker.pending === 0
+}
+
+/**
+ * invoke callback once nothing is pending for two consecutive frames,
+ * returns a function which cancels the subscription
+ */
+export function whenRenderIdle(callback: () => void): () => void {
+  const start = Date.now()
+  let idleFrames = 0
+  let frame: number = null
+  const check = () => {
+    idleFrames = isRenderIdle() ? idleFrames + 1 : 0
+    const waitingUntracked =
+      tracker.rendered === 0 && Date.now() - start < UNTRACKED_IDLE_DELAY
+    if (idleFrames >= 2 && !waitingUntracked) {
+      frame = null
+      callback()
+    } else {
+      frame = window.requestAnimationFrame(check)
+    }
+  }
+  frame = window.requestAnimationFrame(check)
+  return () => {
+    if (frame !== null) {
+      window.cancelAnimationFrame(frame)
+      frame = null
+    }
+  }
+}
@@ -39,12 +39,64 @@ function refreshToken (response: AxiosResponse) {
   return response
 }
 
+// widget data is queried with POST, so browsers never revalidate it on their own;
+// the last ETag and response of each query are kept here and reused when the server answers 304
+const ETAG_CACHE_SIZE = 100
+const ETAG_URL_PATTERN = /(\/views\/\d+\/getdata|\/share\/data\/[^/?]+)(\?|$)/
+
+interface IEtagCacheEntry {
+  etag: string
+  data: IDavinciResponse<object>
+}
+
+const etagCache = new Map<string, IEtagCacheEntry>()
+
+function getEtagCacheKey (config: AxiosRequestConfig) {
+  if (!config.url || !ETAG_URL_PATTERN.test(config.url)) {
+    return null
+  }
+  const data = typeof config.data === 'string' ? config.data : JSON.stringify(config.data || null)
+  return `${config.url}@${data}`
+}
+
+function reuseOrRemember (key: string, cached: IEtagCacheEntry, response: AxiosResponse) {
+  etagCache.delete(key)
+  if (response.status === 304) {
+    if (!cached) {
+      throw new Error('Received 304 without a cached response')
+    }
+    etagCache.set(key, cached)
+    // the refreshed token comes in the Authorization header, the cached body carries an outdated one
+    const token = response.headers.authorization
+    return {
+      ...response,
+      data: {
+        ...cached.data,
+        header: { ...cached.data.header, token: token && token.replace(/^Bearer\s+/, '') }
+      }
+    }
+  }
+  const etag = response.headers.etag
+  if (etag && response.data && response.data.payload) {
+    etagCache.set(key, { etag, data: response.data })
+    if (etagCache.size > ETAG_CACHE_SIZE) {
+      etagCache.delete(etagCache.keys().next().value)
+    }
+  }
+  return response
+}
+
 export function request (url: string, options?: AxiosRequestConfig): AxiosPromise<IDavinciResponse<object>>
 export function request (config: AxiosRequestConfig): AxiosPromise<IDavinciResponse<object>>
 export default function request (url: string | AxiosRequestConfig, options?: AxiosRequestConfig): AxiosPromise<IDavinciResponse<object>> {
-  const axiosPromise =
-    typeof url === 'string' ? axios(url, options) : axios(url)
+  const config: AxiosRequestConfig = typeof url === 'string' ? { ...options, url } : url
+  const cacheKey = getEtagCacheKey(config)
+  const cached = cacheKey ? etagCache.get(cacheKey) : null
+  const axiosPromise = cached
+    ? axios({ ...config, headers: { ...config.headers, 'If-None-Match': cached.etag } })
+    : axios(config)
   return axiosPromise
+    .then((response) => cacheKey ? reuseOrRemember(cacheKey, cached, response) : response)
     .then(refreshToken)
     .then(parseJSON)
 }
@@ -49,6 +49,11 @@ import GlobalControlPanel from 'app/containers/ControlPanel/Global'
 import DownloadList from 'components/DownloadList'
 import { getValidColumnValue } from 'app/components/Control/util'
 import HeadlessBrowserIdentifier from 'share/components/HeadlessBrowserIdentifier'
+import {
+  beginRender,
+  endRender,
+  whenRenderIdle
+} from 'utils/renderTracker'
 import { Row, Col } from 'antd'
 import { querystring } from '../../util'
 import DashboardActions from './actions'
@@ -143,6 +148,7 @@ export class Share extends React.Component<IDashboardProps, IDashboardStates> {
   private interactingLinkagers: object = {}
   private interactGlobalFilters: object = {}
   private resizeSign: number = 0
+  private cancelRenderIdle: () => void = null
   private shareClientId: string = getShareClientId()
   private downloadListPollingTimer: number
 
@@ -191,19 +197,32 @@ export class Share extends React.Component<IDashboardProps, IDashboardStates> {
           info.status
         )
       )
-      if (initialedItems.length === currentItems.length) {
-        // FIXME
-        setTimeout(() => {
+      if (
+        initialedItems.length === currentItems.length &&
+        !this.state.headlessBrowserRenderSign &&
+        !this.cancelRenderIdle
+      ) {
+        this.cancelRenderIdle = whenRenderIdle(() => {
+          this.cancelRenderIdle = null
           this.setState({
             headlessBrowserRenderSign: true
           })
-        }, 5000)
+        })
       }
     }
   }
 
   public componentWillUnmount() {
     window.removeEventListener('resize', this.onWindowResize, false)
+    if (this.cancelRenderIdle) {
+      this.cancelRenderIdle()
+      this.cancelRenderIdle = null
+    }
+    if (this.resizeSign) {
+      clearTimeout(this.resizeSign)
+      this.resizeSign = 0
+      endRender()
+    }
     if (this.downloadListPollingTimer) {
       clearInterval(this.downloadListPollingTimer)
     }
@@ -227,11 +246,14 @@ export class Share extends React.Component<IDashboardProps, IDashboardStates> {
   private onWindowResize = () => {
     if (this.resizeSign) {
       clearTimeout(this.resizeSign)
+    } else {
+      beginRender()
     }
     this.resizeSign = window.setTimeout(() => {
       this.props.onResizeAllDashboardItem()
       clearTimeout(this.resizeSign)
       this.resizeSign = 0
+      endRender()
     }, 500)
   }
 
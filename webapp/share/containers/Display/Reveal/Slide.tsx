@@ -31,6 +31,7 @@ import {
 } from 'containers/Display/components/Container'
 import Layer from './Layer'
 import HeadlessBrowserIdentifier from 'share/components/HeadlessBrowserIdentifier'
+import { whenRenderIdle } from 'utils/renderTracker'
 
 import 'containers/Display/Preview/Preview.less'
 
@@ -49,10 +50,9 @@ const Slide: React.FC<ISlideProps> = (props) => {
   const [renderSign, setRenderSign] = useState(false)
   useEffect(() => {
     if (layersLoaded) {
-      const timer = setTimeout(() => {
+      return whenRenderIdle(() => {
         setRenderSign(true)
-        clearTimeout(timer)
-      }, 5000)
+      })
     }
   }, [layersLoaded])
 